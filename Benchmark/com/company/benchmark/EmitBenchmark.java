@@ -0,0 +1,57 @@
+package com.company.benchmark;
+
+import com.company.Griddy;
+import com.company.ParseException;
+import com.company.Visitor;
+import com.company.codegen.CompilationContext;
+import com.company.codegen.GriddyStructure;
+import com.company.codegen.TargetC;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * C templates in isolation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EmitBenchmark {
+    @Param({"noughts_and_crosses", "chess"})
+    public String program;
+
+    TargetC templates = new TargetC();
+    GriddyStructure.SetupStruct setupStruct;
+    StringBuilder out = new StringBuilder();
+
+    @Setup
+    public void setup() throws ParseException {
+        var context = new CompilationContext(templates);
+        new Visitor(context).generate(new Griddy(new StringReader(Programs.source(program))).Start());
+        setupStruct = context.structure.setupStruct;
+        setupStruct.placeAllPieces();
+    }
+
+    @Benchmark
+    public StringBuilder outputTable() {
+        out.setLength(0);
+        templates.outputTable(out, setupStruct.boardWidth, setupStruct.boardHeight);
+        return out;
+    }
+
+    @Benchmark
+    public StringBuilder setupPhase() throws IOException {
+        out.setLength(0);
+        templates.setup(out, setupStruct);
+        return out;
+    }
+
+    @Benchmark
+    public StringBuilder place() {
+        out.setLength(0);
+        templates.place(out, "XO");
+        return out;
+    }
+}
@@ -0,0 +1,41 @@
+package com.company.benchmark;
+
+import com.company.GriddyConstants;
+import com.company.GriddyTokenManager;
+import com.company.SimpleCharStream;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token manager throughput, from source to {@code <EOF>}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LexerBenchmark {
+    @Param({"noughts_and_crosses", "chess", "synthetic_100", "synthetic_1000"})
+    public String program;
+
+    String source;
+    SimpleCharStream stream;
+    GriddyTokenManager tokenManager;
+
+    @Setup
+    public void setup() {
+        source = Programs.source(program);
+        stream = new SimpleCharStream(new StringReader(source));
+        tokenManager = new GriddyTokenManager(stream);
+    }
+
+    @Benchmark
+    public int tokenize() {
+        stream.ReInit(new StringReader(source));
+        tokenManager.ReInit(stream);
+
+        int count = 0;
+        while (tokenManager.getNextToken().kind != GriddyConstants.EOF) count++;
+        return count;
+    }
+}
@@ -0,0 +1,44 @@
+package com.company.benchmark;
+
+import com.company.Griddy;
+import com.company.ParseException;
+import com.company.parser.ASTStart;
+import com.company.parser.Ast;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing to the JJTree AST with a reused parser. The {@code nested_<n>} programs check that
+ * parse time grows linearly with the nesting depth of expressions. {@code arena} adds the copy
+ * into an {@link Ast}, which the GC profiler's allocation rate shows the cost of.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ParserBenchmark {
+    @Param({"noughts_and_crosses", "chess", "synthetic_100", "synthetic_1000", "nested_100", "nested_200", "nested_400"})
+    public String program;
+
+    String source;
+    Griddy parser;
+
+    @Setup
+    public void setup() {
+        source = Programs.source(program);
+        parser = new Griddy(new StringReader(source));
+    }
+
+    @Benchmark
+    public ASTStart parse() throws ParseException {
+        parser.ReInit(new StringReader(source));
+        return parser.Start();
+    }
+
+    @Benchmark
+    public Ast arena() throws ParseException {
+        parser.ReInit(new StringReader(source));
+        return Ast.of(parser.Start());
+    }
+}
@@ -0,0 +1,76 @@
+package com.company.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Benchmark inputs: the example games, and synthetic programs of a given size.
+ */
+public final class Programs {
+    private Programs() {}
+
+    /**
+     * Get benchmark program source.
+     * @param name example file name without extension, {@code synthetic_<n>} for a synthetic
+     *             program with {@code n} statement groups, or {@code nested_<n>} for a win
+     *             condition nested {@code n} parentheses deep
+     * @return program source
+     */
+    public static String source(String name) {
+        if (name.startsWith("synthetic_"))
+            return synthetic(Integer.parseInt(name.substring("synthetic_".length())));
+        if (name.startsWith("nested_"))
+            return nested(Integer.parseInt(name.substring("nested_".length())));
+
+        try (InputStream in = Programs.class.getResourceAsStream("/" + name + ".griddy")) {
+            if (in == null) throw new IllegalArgumentException("Unknown benchmark program: " + name);
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Identifiers may only contain letters, so number them in base 26. */
+    static String ident(int n) {
+        var name = new StringBuilder("v");
+        do {
+            name.append((char) ('a' + n % 26));
+            n /= 26;
+        } while (n > 0);
+        return name.toString();
+    }
+
+    /**
+     * Generate a program with {@code n} groups of assignments and tile conditions on an 8x8 board,
+     * checked by a win condition function.
+     */
+    public static String synthetic(int n) {
+        var src = new StringBuilder("board (8,8);\npiece P end\n\nfun check ()\n    win = false;\n");
+        for (int i = 0; i < n; i++) {
+            int x = i % 8 + 1, y = i / 8 % 8 + 1, x2 = (i + 3) % 8 + 1;
+            var v = ident(i);
+            src.append("    ").append(v).append(" = ").append(i).append(";\n")
+                    .append("    if !empty? (").append(x).append(',').append(y).append(") and ( tile (")
+                    .append(x).append(',').append(y).append(") == tile (").append(x2).append(',').append(y)
+                    .append(") or ").append(v).append(" > ").append(i).append(" )\n")
+                    .append("        win = true;\n")
+                    .append("    end\n");
+        }
+        src.append("return win\n\nGAME ( check() )\n    output @board;\n    place P;\n");
+        return src.toString();
+    }
+
+    /**
+     * Generate a program whose win condition is nested {@code depth} parentheses deep, cycling
+     * through the operators of every precedence level.
+     */
+    public static String nested(int depth) {
+        String[] ops = {" or ", " == ", " + ", " * "};
+        var condition = new StringBuilder("n");
+        for (int i = 0; i < depth; i++)
+            condition.insert(0, '(').append(ops[i % ops.length]).append(i % 2 == 0 ? "!empty? (1,1)" : "n").append(')');
+        return "board (3,3);\npiece P end\nn = 0;\n\nGAME ( " + condition + " )\n    place P;\n";
+    }
+}
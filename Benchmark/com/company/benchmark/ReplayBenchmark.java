@@ -0,0 +1,85 @@
+package com.company.benchmark;
+
+import com.company.GriddyCompiler;
+import com.company.GriddyJava;
+import com.company.codegen.TargetC;
+import com.company.codegen.TargetCReplay;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generated programs replaying {@link #MOVES} moves, with {@code scanf}/{@code printf} or with
+ * {@link TargetCReplay}'s decoder and output buffer, or loaded in process by {@link GriddyJava}.
+ * Turns per second are {@link #MOVES} over the time per replay. The C modes need {@code gcc}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ReplayBenchmark {
+    public static final int MOVES = 1_000_000;
+    static final int WIDTH = 26;
+
+    @Param({"interactive", "replay", "java"})
+    public String mode;
+
+    Path dir, binary, moves;
+    GriddyJava.Game game;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, InterruptedException {
+        dir = Files.createTempDirectory("griddy-replay");
+        // Every move fills the next tile, and the game ends after the last one:
+        int height = (MOVES + WIDTH - 1) / WIDTH;
+        var program = "board(" + WIDTH + "," + height + ");\npiece P end\n"
+                + "GAME(@turn_count == " + (MOVES - 1) + ")\n    place P;\n";
+        if (mode.equals("java")) game = GriddyJava.load(program);
+        else {
+            var options = new GriddyCompiler.Options();
+            options.templates = mode.equals("replay") ? new TargetCReplay() : new TargetC();
+            var result = GriddyCompiler.compile(program, options);
+            if (!result.isSuccess()) throw new IllegalStateException("Failed to compile: " + result.diagnostics);
+
+            Path source = dir.resolve("replay.c");
+            Files.writeString(source, result.source);
+            binary = dir.resolve("replay");
+            var gcc = new ProcessBuilder("gcc", "-std=c99", "-O2", "-w", "-o", binary.toString(), source.toString())
+                    .inheritIO().start();
+            if (gcc.waitFor() != 0) throw new IllegalStateException("gcc failed");
+        }
+
+        moves = dir.resolve("moves.txt");
+        try (BufferedWriter writer = Files.newBufferedWriter(moves)) {
+            for (int i = 0; i < MOVES; i++)
+                writer.append((char) ('a' + i % WIDTH)).append(Integer.toString(i / WIDTH + 1)).append('\n');
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (var paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public int replay() throws IOException, InterruptedException {
+        if (game != null) {
+            try (InputStream in = Files.newInputStream(moves)) {
+                game.play(in, OutputStream.nullOutputStream());
+            }
+            return 0;
+        }
+        var builder = mode.equals("replay")
+                ? new ProcessBuilder(binary.toString(), "--moves", moves.toString())
+                : new ProcessBuilder(binary.toString()).redirectInput(moves.toFile());
+        return builder.redirectOutput(ProcessBuilder.Redirect.DISCARD).start().waitFor();
+    }
+}
@@ -0,0 +1,42 @@
+package com.company.benchmark;
+
+import com.company.Griddy;
+import com.company.ParseException;
+import com.company.Visitor;
+import com.company.codegen.CompilationContext;
+import com.company.codegen.GriddyStructure;
+import com.company.parser.ASTStart;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Visitor traversal of a parsed program, and writing out the whole generated program.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class VisitorBenchmark {
+    @Param({"noughts_and_crosses", "chess", "synthetic_100", "synthetic_1000"})
+    public String program;
+
+    ASTStart root;
+
+    @Setup
+    public void setup() throws ParseException {
+        root = new Griddy(new StringReader(Programs.source(program))).Start();
+    }
+
+    @Benchmark
+    public GriddyStructure visit() {
+        var context = new CompilationContext();
+        new Visitor(context).generate(root);
+        return context.structure;
+    }
+
+    @Benchmark
+    public StringBuilder visitAndWrite() {
+        return root.jjtAccept(new Visitor(), new StringBuilder());
+    }
+}
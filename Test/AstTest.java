@@ -0,0 +1,70 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import com.company.GriddyCompiler;
+import com.company.parser.*;
+
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+public class AstTest {
+    static ASTStart parse(String source) throws Exception {
+        return GriddyCompiler.parse(new StringReader(source));
+    }
+
+    /** Compare a view with the node it was copied from, recursively. */
+    static void assertSameTree(Node expected, Node actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getNumChildren(), actual.getNumChildren());
+        if (!(expected.jjtGetValue() instanceof Map)) assertEquals(expected.jjtGetValue(), actual.jjtGetValue());
+        for (int i = 0; i < expected.getNumChildren(); i++) {
+            assertSameTree(expected.jjtGetChild(i), actual.jjtGetChild(i));
+            assertEquals(actual, actual.jjtGetChild(i).getParent());
+        }
+    }
+
+    @Test
+    void copy() throws Exception {
+        var root = parse("""
+                board(3,3);
+                piece P
+                    limit: 3
+                    capture: true
+                    start_position: (1,1), (2,2)
+                end
+                s = "hi";
+                GAME(!empty? (1,1) and s == "hi")
+                    place P;
+                """);
+        var ast = Ast.of(root);
+        assertSameTree(root, ast.root());
+        assertNull(ast.root().getParent());
+
+        // Equal values are stored once:
+        assertEquals(1, Arrays.stream(ast.strings).filter("hi"::equals).count());
+
+        var piece = ast.root().jjtGetChild(1);
+        assertEquals(GriddyTreeConstants.JJTPIECE, piece.getId());
+        @SuppressWarnings("unchecked")
+        var props = (Map<String, Node>) piece.jjtGetValue();
+        assertEquals(List.of("limit", "capture", "start_position"), List.copyOf(props.keySet()));
+        assertEquals(3, props.get("limit").jjtGetValue());
+        assertEquals(2, props.get("start_position").getChildren().length);
+
+        assertThrows(UnsupportedOperationException.class, () -> piece.jjtAddChild(piece, 0));
+    }
+
+    @Test
+    void compile() throws Exception {
+        for (var example : new String[]{"noughts_and_crosses", "four_in_a_row", "chess"}) {
+            var root = parse(Files.readString(Path.of("examples/" + example + ".griddy")));
+            var options = new GriddyCompiler.Options();
+            assertEquals(GriddyCompiler.compile(root, options).source, GriddyCompiler.compile(Ast.of(root).root(), options).source);
+        }
+    }
+}
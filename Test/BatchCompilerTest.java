@@ -0,0 +1,46 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+public class BatchCompilerTest {
+    @TempDir
+    Path dir;
+
+    /** Run the command line in a new JVM, as scripts do, and get its exit status. */
+    int cli(String... args) throws IOException, InterruptedException {
+        var cmd = new ArrayList<>(List.of(Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"), "com.company.Main"));
+        cmd.addAll(List.of(args));
+        return new ProcessBuilder(cmd).redirectErrorStream(true).redirectOutput(dir.resolve("log").toFile()).start().waitFor();
+    }
+
+    @Test
+    void mixedBatch() throws Exception {
+        var sources = Files.createDirectory(dir.resolve("src"));
+        Files.writeString(sources.resolve("good.griddy"), "board(3,3);\npiece XO end\nGAME(false)\n    place XO;\n");
+        Files.writeString(sources.resolve("bad.griddy"), "board(3,3);\nGAME(false)\n    place ;\n");
+        Files.writeString(sources.resolve("bad.griddy.c"), "last good output");
+
+        assertEquals(1, cli("--batch", sources.toString(), "--headless"));
+        var log = Files.readString(dir.resolve("log"), StandardCharsets.UTF_8);
+        assertTrue(log.contains("1/2 files compiled"), log);
+
+        // The chosen target is generated, and a failed file keeps its last output:
+        assertTrue(Files.readString(sources.resolve("good.griddy.c")).contains("(headless)"));
+        assertEquals("last good output", Files.readString(sources.resolve("bad.griddy.c")));
+
+        Files.delete(sources.resolve("bad.griddy"));
+        assertEquals(0, cli("--batch", sources.toString(), "--mcts"));
+        assertTrue(Files.readString(sources.resolve("good.griddy.c")).contains("_mcts_choose"));
+
+        assertNotEquals(0, cli("--batch", sources.toString(), "--run"));
+    }
+}
@@ -0,0 +1,80 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.company.BinaryCache;
+import com.company.Gcc;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+public class BinaryCacheTest {
+    @TempDir
+    Path dir;
+
+    private Path write(String name, int size) throws IOException {
+        return Files.write(dir.resolve(name), new byte[size]);
+    }
+
+    @Test
+    void keys() {
+        var source = "board(3,3);".getBytes(StandardCharsets.UTF_8);
+        assertEquals(BinaryCache.key(source, "mcts", "gcc -O2"), BinaryCache.key(source, "mcts", "gcc -O2"));
+        assertNotEquals(BinaryCache.key(source, "mcts", "gcc -O2"), BinaryCache.key(source, "mcts", "gcc -O0 -g"));
+        assertNotEquals(BinaryCache.key(source, "mcts"), BinaryCache.key("board(3,4);".getBytes(StandardCharsets.UTF_8), "mcts"));
+    }
+
+    @Test
+    void programKeys() throws IOException {
+        var source = "board(3,3);".getBytes(StandardCharsets.UTF_8);
+        var release = new Gcc(Gcc.Profile.RELEASE, false);
+        assertEquals(BinaryCache.key(source, "mcts", release), BinaryCache.key(source, "mcts", new Gcc(Gcc.Profile.RELEASE, false)));
+        assertNotEquals(BinaryCache.key(source, "", release), BinaryCache.key(source, "mcts", release));
+
+        // Profile-guided builds depend on their training moves:
+        var pgo = new Gcc(Gcc.Profile.PGO, false);
+        pgo.trainInput = write("moves", 0).toFile();
+        var key = BinaryCache.key(source, "", pgo);
+        Files.writeString(pgo.trainInput.toPath(), "a1\n");
+        assertNotEquals(key, BinaryCache.key(source, "", pgo));
+    }
+
+    @Test
+    void hitsAndEviction() throws IOException {
+        var cache = new BinaryCache(dir.resolve("cache"), 3000);
+        var c = write("a.c", 500);
+        var binary = write("a.out", 1000);
+
+        assertFalse(cache.fetch("one", c.toFile(), binary.toFile()));
+        cache.store("one", c.toFile(), binary.toFile());
+        cache.store("two", c.toFile(), binary.toFile());
+        Files.setLastModifiedTime(dir.resolve("cache/one.out"), FileTime.fromMillis(1000));
+        Files.setLastModifiedTime(dir.resolve("cache/two.out"), FileTime.fromMillis(2000));
+
+        // A hit replaces both files, and makes its entry the most recently used:
+        Files.delete(binary);
+        Files.writeString(c, "stale");
+        assertTrue(cache.fetch("one", c.toFile(), binary.toFile()));
+        assertEquals(500, Files.size(c));
+        assertEquals(1000, Files.size(binary));
+
+        // The least recently used entry is evicted to make room for a third:
+        cache.store("three", c.toFile(), binary.toFile());
+        assertTrue(Files.exists(dir.resolve("cache/one.out")));
+        assertFalse(Files.exists(dir.resolve("cache/two.out")));
+        assertFalse(Files.exists(dir.resolve("cache/two.c")));
+        assertTrue(Files.exists(dir.resolve("cache/three.out")));
+
+        // Entries another process evicted first are skipped:
+        Files.delete(dir.resolve("cache/one.c"));
+        cache.store("four", c.toFile(), binary.toFile());
+        assertFalse(Files.exists(dir.resolve("cache/one.out")));
+
+        assertArrayEquals(new long[]{1, 1}, cache.stats());
+        assertTrue(cache.report().startsWith("1 hits, 1 misses (50.0%), 2 entries, 3.0 kB"), cache.report());
+    }
+}
@@ -1,56 +1,109 @@
     import static org.junit.jupiter.api.Assertions.assertEquals;
+    import static org.junit.jupiter.api.Assertions.assertFalse;
+    import static org.junit.jupiter.api.Assertions.assertTrue;
 
     import org.junit.jupiter.api.Test;
 
+    import com.company.GriddyCompiler;
     import com.company.codegen.*;
     import com.company.codegen.GriddyStructure.*;
 
+    import java.io.IOException;
+
     public class CodeGenTest {
         OutputTemplates templates = new TargetC();
 
         @Test
         void outputTable() {
-            int boardWidth = 3, boardHeight = 4;
-            var output = templates.outputTable(boardWidth, boardHeight);
-            var expected = """
-                    printf("┌───┬───┬───┐\\n");
-                    for (int _i = 3; _i >= 0; _i--) {
-                    for (int _j = 0; _j < 3; _j++)
-                    if (_board[_i][_j]) {
-                    if (_board[_i][_j]->player == &_p1) {
-                    printf("│ \\x1b[33m\\x1b[1m%c\\x1b[0m ", *_board[_i][_j]->name);
-                    } else printf("│ %c ", *_board[_i][_j]->name);
-                    } else printf("│   ");
-                    printf("│ %d\\n", _i + 1);
-                    if (_i > 0) printf("├───┼───┼───┤\\n");
-                    }
-                    printf("└───┴───┴───┘\\n");
-                    printf("  a   b   c \\n");
-                    """;
-
-            assertEquals(expected, output);
+            var output = new StringBuilder();
+            templates.outputTable(output, 3, 4);
+            assertEquals("_render_board();\n", output.toString());
+        }
+
+        @Test
+        void boardRenderer() {
+            var output = GriddyCompiler.compile("""
+                    board(3,4);
+                    piece XO end
+                    GAME(false)
+                        output @board;
+                        place XO;
+                        output @board;
+                    """).source;
+
+            // One renderer, with a frame buffer for the largest frame of a 3x4 board:
+            assertEquals(output.indexOf("void _render_board(void) {"), output.lastIndexOf("void _render_board(void) {"));
+            assertTrue(output.contains("static char _frame[536];"));
+            assertTrue(output.contains("memcpy(_f, \"┌───┬───┬───┐\\n\", 40);"));
+            assertTrue(output.contains("memcpy(_f, \"└───┴───┴───┘\\n  a   b   c \\n\", 53);"));
+            assertTrue(output.contains("_render_board();\nchar _place_arg_x"));
+            assertTrue(output.contains("_render_end();\nreturn 0;"));
+            assertTrue(output.contains("#include <unistd.h>"));
+        }
+
+        @Test
+        void tileChecks() {
+            var output = new StringBuilder();
+            templates.tileEmpty(output, 2, 3);
+            output.append(" && ");
+            templates.tileEquals(output, 1, 1, 2, 2);
+            assertEquals("_EMPTY(_CELL(2, 3)) && _TILE_EQ(_CELL(1, 1), _CELL(2, 2))", output.toString());
+        }
+
+        @Test
+        void strings() {
+            var output = GriddyCompiler.compile("""
+                    board(1,1);
+                    fun f ()
+                    return "b"
+                    s = "a";
+                    GAME(false)
+                        s = "c";
+                        output s;
+                        output f();
+                    """).source;
+
+            // Strings point at their literals, and nothing is allocated for them:
+            assertTrue(output.contains("const char * f() {\nreturn \"b\";\n}\n"));
+            assertTrue(output.contains("const char *s = \"a\";\n"));
+            assertTrue(output.contains("s = \"c\";\n"));
+            assertFalse(output.contains("alloc("));
+        }
+
+        @Test
+        void moveTables() {
+            var output = GriddyCompiler.compile("""
+                    board(3,2);
+                    piece K
+                        step: (1,0), (0,1)
+                    end
+                    piece R
+                        slide: (1,0)
+                    end
+                    GAME(@legal_moves == 0)
+                    """).source;
+
+            // Player two's steps are mirrored along y:
+            assertTrue(output.contains("static const uint64_t _leap_K[2][6][_WORDS] = {"
+                    + "{{0xaULL,},{0x14ULL,},{0x20ULL,},{0x10ULL,},{0x20ULL,},{0x0ULL,},},"
+                    + "{{0x2ULL,},{0x4ULL,},{0x0ULL,},{0x11ULL,},{0x22ULL,},{0x4ULL,},},};"));
+            assertTrue(output.contains("static const uint64_t _ray_R[2][1][6][_WORDS] = {"
+                    + "{{{0x6ULL,},{0x4ULL,},{0x0ULL,},{0x30ULL,},{0x20ULL,},{0x0ULL,},},},"
+                    + "{{{0x6ULL,},{0x4ULL,},{0x0ULL,},{0x30ULL,},{0x20ULL,},{0x0ULL,},},},};"));
+            assertTrue(output.contains("_slide(_ray_R[_p][0], _from, 1, 0, _t);"));
+            assertTrue(output.contains("_win_condition = _legal_moves(_current_player, NULL)==0;"));
         }
 
         @Test
-        void pieceDef() {
+        void pieceDef() throws IOException {
             var pd = new SetupStruct.PieceDef("pd", templates);
             pd.pieceProps.limit = 3;
             pd.pieceProps.count = 1;
             pd.setOwnerPrefix("_p1");
             pd.pieceProps.placeable = true;
 
-            var output = templates.pieceDef("_p1.pd", pd);
-            var expected = """
-                    _p1.pd.name = calloc(3, sizeof(char));
-                    strcpy(_p1.pd.name, "pd");
-                    _p1.pd.limit = 3;
-                    _p1.pd.count = 1;
-                    _p1.pd.capture = 0;
-                    _p1.pd.can_jump = 0;
-                    _p1.pd.placeable = 1;
-                    _p1.pd.player = &_p1;
-                    """;
-
-            assertEquals(expected, output);
+            var output = new StringBuilder();
+            templates.pieceDef(output, "_p1.pd", pd);
+            assertEquals("{\"pd\", 3, 1, 0, 0},\n", output.toString());
         }
     }
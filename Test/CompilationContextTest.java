@@ -0,0 +1,83 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import com.company.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.*;
+
+public class CompilationContextTest {
+    String[] inputs = {
+            """
+            board(3,3);
+            @placeable = false;
+            @capture = true;
+            piece a
+                start_position: (1,1)
+            end
+            GAME(false)
+            """,
+            """
+            board(3,3);
+            @limit = 5;
+            @can_jump = true;
+            piece a
+                start_position: (2,1)
+            end
+            GAME(true)
+            """,
+            """
+            board(3,3);
+            piece a
+                start_position: (3,1)
+            end
+            GAME(false)
+            """
+    };
+
+    String compile(String input) {
+        var output = new StringBuilder();
+        InputStream inputStream = new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8));
+        Griddy.main(false, inputStream, output);
+        return output.toString();
+    }
+
+    @Test
+    void presetsDontLeak() {
+        compile(inputs[0]);
+        var output = compile(inputs[2]);
+
+        assertTrue(output.contains("{\"a\", 2147483647, 1, 0, 0},\n"));
+    }
+
+    @Test
+    void concurrentCompilation() throws Exception {
+        var expected = new String[inputs.length];
+        for (int i = 0; i < inputs.length; i++) expected[i] = compile(inputs[i]);
+
+        var pool = Executors.newFixedThreadPool(8);
+        try {
+            var start = new CountDownLatch(1);
+            var tasks = new ArrayList<Future<Boolean>>();
+            for (int n = 0; n < 2000; n++) {
+                final int i = n % inputs.length;
+                tasks.add(pool.submit(() -> {
+                    start.await();
+                    return expected[i].equals(compile(inputs[i]));
+                }));
+            }
+            start.countDown();
+
+            int mismatches = 0;
+            for (var task : tasks) if (!task.get()) mismatches++;
+            assertEquals(0, mismatches);
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.company.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class DaemonTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void connect() throws IOException {
+        try (var server = new ServerSocket()) {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            var daemon = new Thread(() -> {
+                try {
+                    new Daemon().serve(server);
+                } catch (IOException e) {
+                    // Closed at the end of the test
+                }
+            });
+            daemon.setDaemon(true);
+            daemon.start();
+            var port = Integer.toString(server.getLocalPort());
+
+            var source = "board(3,3);\npiece XO end\nGAME(false)\n    place XO;\n";
+            var good = Files.writeString(dir.resolve("good.griddy"), source);
+            var out = dir.resolve("good.c");
+            Util.cli(new String[]{"--connect", "--port", port, "--file", good.toString(), "-o", out.toString()});
+            assertEquals(GriddyCompiler.compile(source).source, Files.readString(out));
+
+            // Parse errors are reported to the client, with their position:
+            var bad = Files.writeString(dir.resolve("bad.griddy"), "board(3,3);\nGAME(false)\n    place ;\n");
+            var diagnostics = Daemon.request(server.getLocalPort(), bad.toFile(), dir.resolve("bad.c").toFile());
+            assertTrue(diagnostics.get(0).startsWith("3:11: error: Encountered"), String.join("\n", diagnostics));
+            assertFalse(Files.exists(dir.resolve("bad.c")));
+
+            // ... and the daemon keeps serving:
+            Files.delete(out);
+            assertEquals(0, Daemon.request(server.getLocalPort(), good.toFile(), out.toFile()).size());
+            assertEquals(GriddyCompiler.compile(source).source, Files.readString(out));
+        }
+    }
+}
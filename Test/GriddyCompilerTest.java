@@ -0,0 +1,220 @@
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.company.*;
+import com.company.codegen.TargetCHeadless;
+import com.company.codegen.TargetCMcts;
+import com.company.codegen.TargetCReplay;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.nio.charset.StandardCharsets;
+import java.util.stream.IntStream;
+
+public class GriddyCompilerTest {
+    @Test
+    void compileSource() {
+        var input = """
+                board(3,3);
+                piece XO end
+                GAME(false)
+                    place XO;
+                """;
+        var result = GriddyCompiler.compile(input);
+
+        var expected = new StringBuilder();
+        Griddy.main(false, new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), expected);
+
+        assertTrue(result.isSuccess());
+        assertTrue(result.diagnostics.isEmpty());
+        assertEquals(expected.toString(), result.source);
+    }
+
+    @Test
+    void nestedExpressions() {
+        // Each level of parentheses used to parse its contents several times over:
+        var condition = new StringBuilder("n");
+        for (int i = 0; i < 300; i++) condition.insert(0, '(').append(i % 2 == 0 ? " + 1)" : " * n)");
+        var input = "board(3,3);\nn = 0;\nGAME(" + condition + " > 9)\n";
+        var result = assertTimeoutPreemptively(Duration.ofSeconds(10), () -> GriddyCompiler.compile(input));
+        assertTrue(result.isSuccess());
+
+        // Operands without operators aren't wrapped in expressions:
+        result = GriddyCompiler.compile("board(3,3);\nn = 0;\nGAME((((n))) == 1 + 2 * n)\n");
+        assertTrue(result.source.contains("_win_condition = n==1+2*n;"));
+    }
+
+    @Test
+    void headless() {
+        var options = new GriddyCompiler.Options();
+        options.templates = new TargetCHeadless();
+        var result = GriddyCompiler.compile("""
+                board(3,3);
+                piece XO end
+                GAME(false)
+                    output @board;
+                    output "turn";
+                    place XO;
+                """, options);
+
+        assertTrue(result.isSuccess());
+        assertTrue(result.source.contains("for (long _game = 0; _game < _games; _game++) {"));
+        assertTrue(result.source.contains("(_place_cell = _random_cell()) >= 0"));
+        assertTrue(result.source.contains("(void) (\"turn\");"));
+        assertFalse(result.source.contains("printf(\"┌"));
+        assertFalse(result.source.contains("scanf"));
+    }
+
+    @Test
+    void replay() {
+        var options = new GriddyCompiler.Options();
+        options.templates = new TargetCReplay();
+        var result = GriddyCompiler.compile("""
+                board(3,3);
+                piece XO end
+                GAME(false)
+                    output @board;
+                    output "turn";
+                    n = 0;
+                    input n;
+                    place XO;
+                """, options);
+
+        assertTrue(result.isSuccess());
+        assertTrue(result.source.contains("mmap(NULL, _st.st_size, PROT_READ, MAP_PRIVATE, _fd, 0)"));
+        assertTrue(result.source.contains("_put(_frame, n);"));
+        assertTrue(result.source.contains("_put_str(\"turn\");"));
+        assertTrue(result.source.contains("n = _parse_int(_l, _e);"));
+        assertTrue(result.source.contains("_put_str(\"Input: \");"));
+        assertFalse(result.source.contains("\nprintf("));
+        assertFalse(result.source.contains("scanf"));
+    }
+
+    @Test
+    void replayMalformedLines(@TempDir Path dir) throws Exception {
+        var options = new GriddyCompiler.Options();
+        options.templates = new TargetCReplay();
+        var result = GriddyCompiler.compile("board(2,1);\npiece X end\nn = 0;\nGAME(!empty? (2,1))\n"
+                + "    input n;\n    output n;\n    place X;\n", options);
+        var source = Files.writeString(dir.resolve("replay.c"), result.source).toFile();
+        var binary = dir.resolve("replay.out").toFile();
+        Gcc.Result build;
+        try {
+            build = new Gcc(Gcc.Profile.RELEASE, false).build(source, binary);
+        } catch (IOException e) {
+            build = null;
+        }
+        assumeTrue(build != null && build.success, "gcc is needed to run replays");
+
+        // Each line is one move: an empty line, or a column without a row, is an invalid placement,
+        // and the rest of a line after a move is ignored:
+        var proc = new ProcessBuilder(binary.toString()).start();
+        try (var in = proc.getOutputStream()) {
+            in.write("7\n\nb\nx\na1 extra\n-3\nb1\n".getBytes(StandardCharsets.UTF_8));
+        }
+        var output = new String(proc.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        var invalid = "Input: Invalid piece placement! Try again:\n";
+        assertEquals("7\n" + invalid.repeat(3) + "Input: -3\nInput: ", output);
+        assertEquals(0, proc.waitFor());
+    }
+
+    @Test
+    void mcts() {
+        var options = new GriddyCompiler.Options();
+        options.templates = new TargetCMcts();
+        var result = GriddyCompiler.compile("""
+                board(3,3);
+                piece XO end
+                n = 0;
+                GAME(n > 2)
+                    output "turn";
+                    input n;
+                    place XO;
+                """, options);
+
+        assertTrue(result.isSuccess());
+        assertTrue(result.source.contains("void _instance(int _worker, int argc, char *argv[]) {"));
+        assertTrue(result.source.contains("_snap_v_n = n;\n"));
+        assertTrue(result.source.contains("n = _snap_v_n;\n"));
+        assertTrue(result.source.contains("if (_worker) (void) (\"turn\");\nelse printf("));
+        assertTrue(result.source.contains("if (!_worker) scanf(\"%d\", &n);"));
+        assertTrue(result.source.contains("_place_cell = _mcts_choose(_current_player, _PIECE(_current_player, _piece_XO));"));
+        assertTrue(result.source.contains("_win_condition = n>2;"));
+    }
+
+    @Test
+    void sharedMctsTemplates() {
+        // Templates are stateless, so compilations running at once can share them:
+        var options = new GriddyCompiler.Options();
+        options.templates = new TargetCMcts();
+        String[] sources = {
+                "board(3,3);\npiece XO end\nn = 0;\nGAME(n > 2)\n    input n;\n    place XO;\n",
+                "board(4,4);\npiece XO end\nm = false;\nGAME(m)\n    input m;\n    place XO;\n",
+        };
+        var expected = Arrays.stream(sources).map(s -> GriddyCompiler.compile(s, options).source).toArray(String[]::new);
+        IntStream.range(0, 200).parallel().forEach(i ->
+                assertEquals(expected[i % 2], GriddyCompiler.compile(sources[i % 2], options).source));
+    }
+
+    /** Smallest start position hash, of a program generated with symmetric hashing. */
+    private static long position(String start) {
+        var options = new GriddyCompiler.Options();
+        options.templates = new TargetCMcts(true);
+        var result = GriddyCompiler.compile("board(3,3);\npiece XO\n    start_position: " + start + "\nend\nGAME(false)\n    place XO;\n", options);
+        assertTrue(result.isSuccess());
+        var hashes = result.source.substring(result.source.indexOf("uint64_t _hash[_SYMMETRIES] = {") + 31);
+        return Arrays.stream(hashes.substring(0, hashes.indexOf('}')).split(","))
+                .mapToLong(h -> Long.parseUnsignedLong(h.substring(2, h.length() - 3), 16))
+                .reduce((a, b) -> Long.compareUnsigned(a, b) < 0 ? a : b).orElseThrow();
+    }
+
+    @Test
+    void zobrist() {
+        var result = GriddyCompiler.compile("board(3,3);\npiece XO end\nGAME(false)\n    place XO;\n");
+        assertFalse(result.source.contains("_zobrist"));
+
+        var options = new GriddyCompiler.Options();
+        options.templates = new TargetCMcts(true);
+        result = GriddyCompiler.compile("board(3,3);\npiece XO end\nGAME(false)\n    place XO;\n", options);
+        assertTrue(result.source.contains("#define _SYMMETRIES 8\n"));
+        assertTrue(result.source.contains("_SET_BOARD(c, (m) + 1), _hash_place(m, c))"));
+        assertTrue(result.source.contains("static struct _TTEntry _tt[_TT_SIZE];"));
+
+        // Reflections of each other are the same position, but not other boards:
+        assertEquals(position("(1,1)"), position("(3,1)"));
+        assertNotEquals(position("(1,1)"), position("(2,1)"));
+    }
+
+    @Test
+    void syntaxError() {
+        var result = GriddyCompiler.compile("board(3,3);\nGAME(false)\n    place ;\n");
+
+        assertFalse(result.isSuccess());
+        assertEquals(1, result.diagnostics.size());
+        var diagnostic = result.diagnostics.get(0);
+        assertEquals(GriddyCompiler.Diagnostic.Severity.ERROR, diagnostic.severity);
+        assertEquals(3, diagnostic.line);
+        assertEquals(11, diagnostic.column);
+    }
+
+    @Test
+    void semanticError() {
+        var result = GriddyCompiler.compile("board(1,1);\nGAME(false)\n    output a;\n");
+
+        assertFalse(result.isSuccess());
+        assertEquals("Can't get type of 'a'. Identifier unknown.", result.diagnostics.get(0).message);
+
+        result = GriddyCompiler.compile("board(3,3);\npiece K\n    step: (2,1)\nend\nGAME(false)\n");
+        assertEquals("Steps move to a neighbouring tile: (2,1)", result.diagnostics.get(0).message);
+
+        // The parser is reused after a failure:
+        assertTrue(GriddyCompiler.compile("board(1,1);\nGAME(false)\n").isSuccess());
+    }
+}
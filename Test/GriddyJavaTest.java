@@ -0,0 +1,118 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import com.company.GriddyCompiler;
+import com.company.GriddyJava;
+import com.company.ParseException;
+import com.company.codegen.TargetJava;
+import com.company.ir.PassManager;
+import com.company.interpreter.Interpreter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class GriddyJavaTest {
+    private static String play(GriddyJava.Game game, String input) {
+        var out = new ByteArrayOutputStream();
+        game.play(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), out);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void playsLikeInterpreter() throws IOException, ParseException {
+        var source = Files.readString(Path.of("examples/noughts_and_crosses.griddy"));
+        var input = "a1\na2\nz9\nb1\nb2\nc1\n";
+
+        var expected = new ByteArrayOutputStream();
+        Interpreter.load(new StringReader(source))
+                .run(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), expected);
+
+        var game = GriddyJava.load(source);
+        var output = play(game, input);
+        assertEquals(expected.toString(StandardCharsets.UTF_8), output);
+        assertTrue(output.contains("Winner: Player 1"));
+        // Games start over on every play:
+        assertEquals(output, play(game, input));
+    }
+
+    @Test
+    void winCacheFallback() {
+        // The Java target doesn't run IncrementalWinCondition, but its operands still evaluate in place:
+        var options = new GriddyCompiler.Options();
+        options.templates = new TargetJava() {
+            @Override
+            public PassManager passes() {
+                return PassManager.standard();
+            }
+        };
+        var source = """
+                board(3,1);
+                piece X end
+                GAME(!empty? (1,1) and !empty? (2,1) or !empty? (3,1) and !empty? (2,1))
+                    output "turn";
+                    place X;
+                """;
+        var result = GriddyCompiler.compile(source, options);
+        assertTrue(result.isSuccess());
+        assertTrue(result.source.contains("_win_condition = _truth((!_truth((_board[0 * _WIDTH + 0] == 0))"), result.source);
+
+        var input = "c1\nb1\n";
+        assertEquals(play(GriddyJava.load(source), input), play(GriddyJava.define(result.source), input));
+    }
+
+    @Test
+    void membersAndLegalMoves() {
+        var game = GriddyJava.load("""
+                board(8,8);
+                @capture = true;
+                piece Knight
+                    start_position: (2,1), (7,1)
+                    jump: (1,2), (2,1), (2,-1), (1,-2), (-1,-2), (-2,-1), (-2,1), (-1,2)
+                end
+                total = 0;
+                label = "moves:\\t";
+                fun add()
+                    total = total + @legal_moves;
+                return total
+                GAME(@turn_count == 1)
+                    output label;
+                    output add();
+                    output tile (2,8);
+                """);
+
+        assertEquals("moves:\t\n6\nKnight\nmoves:\t\n12\nKnight\n", play(game, ""));
+    }
+
+    @Test
+    void members() {
+        var options = new GriddyCompiler.Options();
+        options.templates = new TargetJava();
+        var result = GriddyCompiler.compile("""
+                board(3,3);
+                piece XO end
+                n = 0;
+                fun twice()
+                    m = n * 2;
+                return m
+                GAME(twice() > 4)
+                    input n;
+                """, options);
+
+        assertTrue(result.isSuccess());
+        assertTrue(result.source.contains("static int n;\n"));
+        assertTrue(result.source.contains("static int twice() {\nint m = n*2;\nreturn m;\n}\n"));
+        assertTrue(result.source.contains("try {\nn = 0;\n"));
+    }
+
+    @Test
+    void failure() {
+        var e = assertThrows(RuntimeException.class, () -> GriddyJava.load("board(3,3);\nGAME(\n"));
+        assertTrue(e.getMessage().startsWith("Failed to compile: "));
+    }
+}
@@ -0,0 +1,119 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import com.company.ParseException;
+import com.company.interpreter.Interpreter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+
+public class InterpreterTest {
+    private static String run(String program, String input) throws ParseException {
+        var out = new ByteArrayOutputStream();
+        Interpreter.load(new StringReader(program))
+                .run(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), out);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void playsUntilWin() throws ParseException {
+        var output = run("""
+                board(3,3);
+                piece XO end
+                fun row()
+                    full = false;
+                    if !empty? (1,1) and tile (1,1) == tile (2,1) and tile (2,1) == tile (3,1)
+                        full = true;
+                    end
+                return full
+                GAME(row())
+                    place XO;
+                    if row()
+                        output "Winner:";
+                        output @current_player == @player_one;
+                    end
+                """, "a1\nz9\na2\nb1\nb2\nc1\n");
+
+        assertEquals("""
+                Input: Input: Invalid piece placement! Try again:
+                Input: Input: Input: Input: Winner:
+                1
+                """, output);
+    }
+
+    @Test
+    void board() throws ParseException {
+        var output = run("""
+                board(2,2);
+                piece X
+                    start_position: (1,1)
+                end
+                GAME(true)
+                    output @board;
+                """, "");
+
+        assertEquals("""
+                ┌───┬───┐
+                │ X │   │ 2
+                ├───┼───┤
+                │ \u001b[33m\u001b[1mX\u001b[0m │   │ 1
+                └───┴───┘
+                  a   b\s
+                """, output);
+    }
+
+    @Test
+    void inputAndFunctions() throws ParseException {
+        var output = run("""
+                board(1,1);
+                piece P end
+                total = 0;
+                n = 0;
+                name = "sum\\t";
+                fun add()
+                    total = total + n;
+                return total
+                GAME(n == 0)
+                    input n;
+                    output name;
+                    output add();
+                    output n > 2 and n % 2 == 1;
+                """, "3\n4\n-2\n0\n");
+
+        assertEquals("sum\t\n3\n1\nsum\t\n7\n0\nsum\t\n5\n0\nsum\t\n5\n0\n", output);
+    }
+
+    @Test
+    void legalMoves() throws ParseException {
+        var output = run("""
+                board(8,8);
+                @capture = true;
+                piece Knight
+                    start_position: (2,1), (7,1)
+                    jump: (1,2), (2,1), (2,-1), (1,-2), (-1,-2), (-2,-1), (-2,1), (-1,2)
+                end
+                piece Rook
+                    start_position: (1,1)
+                    slide: (1,0), (0,1)
+                end
+                GAME(true)
+                    output @legal_moves;
+                """, "");
+
+        // Knights reach 3 tiles each, and the rook the 7 tiles up its file, but not its own knight:
+        assertEquals("13\n", output);
+    }
+
+    @Test
+    void endsWithInput() throws ParseException {
+        assertEquals("Input: Input: ", run("""
+                board(3,3);
+                piece XO end
+                GAME(false)
+                    place XO;
+                """, "a1\n"));
+    }
+}
@@ -0,0 +1,273 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import com.company.*;
+import com.company.ir.*;
+
+import java.io.StringReader;
+
+public class PassesTest {
+    IrNode lower(String input, Pass... passes) {
+        try {
+            var root = GriddyCompiler.parse(new StringReader(input));
+            var program = Lowering.lower(root, SymbolTable.build(root));
+            for (Pass pass : passes) pass.run(program);
+            return program;
+        } catch (ParseException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /** First child of the game body. */
+    IrNode firstStmt(IrNode program) {
+        return program.child(program.size() - 1).child(1).child(0);
+    }
+
+    @Test
+    void constantFolding() {
+        var program = lower("""
+                board(1,1);
+                a = 1 + 2 * 3 - 8 / 3;
+                b = !(2 < 1) and 7 % 2 == 1;
+                c = 1 / 0;
+                GAME(false)
+                """, new ConstantFolding());
+
+        assertEquals("Int:Integer 5", program.child(1).child(0).toString());
+        assertEquals("Bool:Boolean true", program.child(2).child(0).toString());
+        assertEquals(Ir.BINARY, program.child(3).child(0).kind);
+    }
+
+    @Test
+    void booleanSimplification() {
+        var program = lower("""
+                board(1,1);
+                GAME(false)
+                    if true and !empty? (1,1) or false
+                        output "a";
+                    end
+                """, new BooleanSimplification());
+        assertEquals("""
+                If
+                 Not:Boolean
+                  TileEmpty:Boolean [1, 1]
+                 Block
+                  Output:String
+                   String:String a
+                """, firstStmt(program).dump());
+
+        program = lower("""
+                board(1,1);
+                a = 1;
+                GAME(!(a < 2) and !!empty? (1,1))
+                """, new BooleanSimplification());
+        assertEquals("""
+                Game
+                 Binary:Boolean and
+                  Binary:Boolean >=
+                   Var:Integer a
+                   Int:Integer 2
+                  TileEmpty:Boolean [1, 1]
+                 Block
+                """, program.child(2).dump());
+    }
+
+    @Test
+    void impureOperandsAreKept() {
+        var program = lower("""
+                board(1,1);
+                fun f ()
+                    output "side effect";
+                return true
+                GAME(f() and false)
+                """, new BooleanSimplification());
+        assertEquals(Ir.BINARY, program.child(2).child(0).kind);
+    }
+
+    @Test
+    void deadBranchElimination() {
+        var output = GriddyCompiler.compile("""
+                board(1,1);
+                GAME(false)
+                    if 1 > 2
+                        output "then";
+                    else if 2 > 1
+                        x = 3;
+                        output x;
+                    else
+                        output "else";
+                    end
+                """).source;
+
+        assertFalse(output.contains("then"));
+        assertFalse(output.contains("else"));
+        // The declaration keeps its scope:
+        assertTrue(output.contains("{\nint x = 3;\nprintf(\"%d\\n\", x);\n}\n"));
+    }
+
+    @Test
+    void unusedFunctionRemoval() {
+        var program = lower("""
+                board(1,1);
+                fun a ()
+                return 1
+                fun b ()
+                    output a();
+                return 2
+                fun c ()
+                return 3
+                GAME(b() == 2)
+                """, new UnusedFunctionRemoval());
+
+        var functions = program.children.stream().filter(n -> n.kind == Ir.FUNC).map(n -> n.value).toList();
+        assertEquals(java.util.List.of("a", "b"), functions);
+    }
+
+    @Test
+    void shortCircuitOrdering() {
+        var program = lower("""
+                board(3,3);
+                a = 1;
+                GAME(tile (1,1) == tile (2,2) and a > 0 and tile (3,3) == tile (2,2) and !empty? (2,2))
+                """, new ShortCircuitOrdering());
+        assertEquals("""
+                Binary:Boolean and
+                 Binary:Boolean and
+                  Binary:Boolean and
+                   Binary:Boolean >
+                    Var:Integer a
+                    Int:Integer 0
+                   Not:Boolean
+                    TileEmpty:Boolean [2, 2]
+                  Binary:Boolean ==
+                   Tile:Tile [1, 1]
+                   Tile:Tile [2, 2]
+                 Binary:Boolean ==
+                  Tile:Tile [3, 3]
+                  Tile:Tile [2, 2]
+                """, program.child(2).child(0).dump());
+    }
+
+    @Test
+    void tileReadHoisting() {
+        var program = lower("""
+                board(2,2);
+                piece X
+                    start_position: (1,1)
+                end
+                GAME(false)
+                    output tile (1,1);
+                    if true
+                        output tile (1,1);
+                    end
+                    output tile (2,2);
+                    output tile (1,1);
+                    place X;
+                    output tile (1,1);
+                """, new TileReadHoisting());
+        assertEquals("""
+                Block
+                 TileLoad [1, 1, 0]
+                 Output:Tile
+                  TileRef:Tile [1, 1, 0]
+                 If
+                  Bool:Boolean true
+                  Block
+                   Output:Tile
+                    Tile:Tile [1, 1]
+                 Output:Tile
+                  Tile:Tile [2, 2]
+                 Output:Tile
+                  TileRef:Tile [1, 1, 0]
+                 Place X
+                 Output:Tile
+                  Tile:Tile [1, 1]
+                """, program.child(2).child(1).dump());
+
+        // Tiles which are only read after short-circuiting operators aren't loaded:
+        var output = GriddyCompiler.compile("""
+                board(3,3);
+                a = 1;
+                GAME(a > 1 and tile (1,1) == tile (2,2) and tile (3,3) == tile (2,2))
+                """).source;
+        assertFalse(output.contains("_tile0"));
+    }
+
+    @Test
+    void incrementalWinCondition() {
+        var program = lower("""
+                board(3,3);
+                GAME(@turn_count == 9 or !empty? (1,1) and tile (2,1) == tile (1,1)
+                        or !empty? (1,2) and tile (2,2) == tile (1,2) or true)
+                """, new IncrementalWinCondition());
+        assertEquals("""
+                Binary:Boolean or
+                 Binary:Boolean or
+                  WinCache:Boolean
+                   Binary:Boolean and
+                    Not:Boolean
+                     TileEmpty:Boolean [1, 1]
+                    Binary:Boolean ==
+                     Tile:Tile [2, 1]
+                     Tile:Tile [1, 1]
+                   Binary:Boolean and
+                    Not:Boolean
+                     TileEmpty:Boolean [1, 2]
+                    Binary:Boolean ==
+                     Tile:Tile [2, 2]
+                     Tile:Tile [1, 2]
+                  Binary:Boolean ==
+                   Global:Integer @turn_count
+                   Int:Integer 9
+                 Bool:Boolean true
+                """, program.child(1).child(0).dump());
+
+        // A tile check before a call still decides whether the call is made, and only operands
+        // after the call are cached:
+        program = lower("""
+                board(3,3);
+                fun f ()
+                return false
+                GAME(!empty? (1,1) or f() or !empty? (1,2) or !empty? (2,2))
+                """, new IncrementalWinCondition());
+        var condition = program.child(2).child(0);
+        assertEquals(Ir.NOT, condition.child(0).child(0).kind);
+        assertEquals(Ir.CALL, condition.child(0).child(1).kind);
+        assertEquals(Ir.WIN_CACHE, condition.child(1).kind);
+        assertEquals(2, condition.child(1).size());
+
+        program = lower("""
+                board(3,3);
+                fun f ()
+                return false
+                GAME(!empty? (1,1) or !empty? (2,1) or f() or !empty? (1,2))
+                """, new IncrementalWinCondition());
+        // ... so a single operand after it isn't worth caching:
+        condition = program.child(2).child(0);
+        assertEquals(Ir.CALL, condition.child(0).child(1).kind);
+        assertEquals(Ir.NOT, condition.child(1).kind);
+
+        // A single operand isn't worth caching:
+        program = lower("board(3,3);\nGAME(@turn_count == 9 or !empty? (1,1))\n", new IncrementalWinCondition());
+        assertEquals(Ir.BINARY, program.child(1).child(0).kind);
+
+        var output = GriddyCompiler.compile("""
+                board(2,1);
+                GAME(!empty? (1,1) or !empty? (2,1))
+                """).source;
+        assertTrue(output.contains("_SET_BOARD(c, (m) + 1), _win_touch(c))"));
+        assertTrue(output.contains("static const int _win_dep_start[3] = {0,1,2,};"));
+        assertTrue(output.contains("case 1: return !(_EMPTY(_CELL(2, 1)));"));
+        assertTrue(output.contains("_win_condition = _win_refresh();"));
+    }
+
+    @Test
+    void unoptimized() {
+        var options = new GriddyCompiler.Options();
+        options.optimize = false;
+        var output = GriddyCompiler.compile("board(1,1);\nGAME(1 + 1 == 2)\n", options).source;
+
+        assertTrue(output.contains("_win_condition = 1+1==2;"));
+    }
+}
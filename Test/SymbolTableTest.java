@@ -0,0 +1,75 @@
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import com.company.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+public class SymbolTableTest {
+    String compile(String input) {
+        var output = new StringBuilder();
+        InputStream inputStream = new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8));
+        Griddy.main(false, inputStream, output);
+        return output.toString();
+    }
+
+    /** Program with {@code n} assignments, alternating re-assignments and identifier copies. */
+    String program(int n) {
+        var input = new StringBuilder("board(1,1);\na = 0;\nb = a;\n");
+        for (int i = 0; i < n; i++)
+            input.append(i % 2 == 0 ? "a = " + i + ";\n" : "b = a;\n");
+        return input.append("GAME(false)\n").toString();
+    }
+
+    long timeCompile(int n) {
+        var input = program(n);
+        var begin = System.nanoTime();
+        var output = compile(input);
+        var elapsed = System.nanoTime() - begin;
+
+        assertTrue(output.endsWith("return 0;\n}\n"), "Compilation of " + n + " statements failed.");
+        return elapsed;
+    }
+
+    @Test
+    void scopedReassignment() {
+        var output = compile("""
+                board(1,1);
+                a = 1;
+                GAME(false)
+                if a == 1
+                    a = 2;
+                    b = 1;
+                else
+                    b = 3;
+                end
+                """);
+
+        assertTrue(output.contains("if (a==1) {\na = 2;\nint b = 1;\n\n} else {\nint b = 3;\n}\n"));
+    }
+
+    @Test
+    void linearScaling() {
+        // Warm up the JIT before measuring:
+        for (int i = 0; i < 5; i++) timeCompile(10_000);
+
+        long small = Long.MAX_VALUE, large = Long.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            small = Math.min(small, timeCompile(10_000));
+            large = Math.min(large, timeCompile(100_000));
+        }
+
+        // Ten times the statements should take roughly ten times as long, far from the hundredfold of a quadratic walk:
+        double ratio = (double) large / small;
+        assertTrue(ratio < 30, "Compile time grew by " + ratio + "x for 10x statements.");
+    }
+
+    @Test
+    void identifierCopyType() {
+        var output = compile(program(3));
+        assertTrue(output.contains("int a = 0;\nint b = a;\na = 0;\nb = a;\na = 2;\n"));
+    }
+}
@@ -0,0 +1,40 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+public class UtilTest {
+    @TempDir
+    Path dir;
+
+    /** Run the command line in a new JVM, as scripts do, and get its exit status. */
+    int cli(String... args) throws IOException, InterruptedException {
+        var cmd = new ArrayList<>(List.of(Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"), "com.company.Main"));
+        cmd.addAll(List.of(args));
+        return new ProcessBuilder(cmd).redirectErrorStream(true).redirectOutput(dir.resolve("log").toFile()).start().waitFor();
+    }
+
+    @Test
+    void failedCompileKeepsOutput() throws Exception {
+        var source = Files.writeString(dir.resolve("game.griddy"), "board(3,3);\npiece XO end\nGAME(false)\n    place XO;\n");
+        var out = dir.resolve("game.griddy.c");
+        assertEquals(0, cli("--file", source.toString()));
+        var good = Files.readString(out);
+        assertTrue(good.contains("int main("));
+
+        Files.writeString(source, "board(3,3);\nGAME(false)\n    place ;\n");
+        assertEquals(1, cli("--file", source.toString()));
+        assertTrue(Files.readString(dir.resolve("log")).contains("Failed to compile"));
+        assertEquals(good, Files.readString(out));
+        try (var files = Files.list(dir)) {
+            assertEquals(List.of("game.griddy", "game.griddy.c", "log"), files.map(p -> p.getFileName().toString()).sorted().toList());
+        }
+    }
+}
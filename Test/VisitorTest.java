@@ -15,25 +15,51 @@ public class VisitorTest {
             #include <stdlib.h>
             #include <string.h>
             #include <stdbool.h>
+            #include <stdint.h>
             
             int main(int argc, char *argv[]){
-            struct Piece {
-            char* name;
+            struct _Type {
+            const char *name;
             unsigned int limit;
-            unsigned int count;
             bool placeable;
             bool capture;
             bool can_jump;
-            struct Player* player;
             };
             """,
             setupHeader = "/*    SETUP    */\n",
             gameHeader = "/*   GAME    */\n";
 
+    String boardMacros(int w, int h) {
+        return "#define _WIDTH " + w + "\n#define _HEIGHT " + h + "\n" + """
+                #define _CELL(x, y) (((y) - 1) * _WIDTH + (x) - 1)
+                #define _WORD(c) ((c) >> 6)
+                #define _MASK(c) (1ULL << ((c) & 63))
+                #define _BIT(m, c) (_bb[m][_WORD(c)] >> ((c) & 63))
+                #define _EMPTY(c) (!(_occ[_WORD(c)] & _MASK(c)))
+                """;
+    }
+
+    String pieceMacros(String types) {
+        return "enum {" + types + "_piece_types};\n" + """
+                #define _PIECE(player, type) (((player) - 1) * _piece_types + (type))
+                #define _NAME(id) ((id) ? _types[((id) - 1) % _piece_types].name : NULL)
+                """;
+    }
+
+    String boardFunctions = """
+            #define _SET_BOARD(c, id) ((void) 0)
+            #define _PLACE(m, c) (_bb[m][_WORD(c)] |= _MASK(c), _occ[_WORD(c)] |= _MASK(c), _SET_BOARD(c, (m) + 1))
+            int _piece_at(int c) {
+            for (int _m = 0; _m < 2 * _piece_types; _m++)
+            if (_BIT(_m, c) & 1) return _m + 1;
+            return 0;
+            }
+            """;
+
     String gameLoop(String body) {
         return """
                 do {
-                _current_player = _turn_count % 2 ? &_p2 : &_p1;
+                _current_player = _turn_count % 2 + 1;
                 """
                 + body
                 + """
@@ -56,10 +82,20 @@ public class VisitorTest {
                 outHeader
                 + setupHeader
                 + """
-                struct Player {
-                } _p1, _p2;
-                struct Piece *_board[1][1] = {{NULL,},};
-                struct Player * _current_player;
+                static const struct _Type _types[1] = {
+                };
+                unsigned int _count[1] = {};
+                """
+                + boardMacros(1, 1)
+                + pieceMacros("")
+                + """
+                uint64_t _bb[1][1] = {{0x0ULL,},};
+                uint64_t _occ[1] = {0x0ULL,};
+                #define _TILE_EQ(a, b) 1
+                """
+                + boardFunctions
+                + """
+                int _current_player;
                 int _turn_count = 0;
                 int _win_condition = 0;
                 int a = 42;
@@ -87,10 +123,20 @@ public class VisitorTest {
                 outHeader
                 + setupHeader
                 + """
-                struct Player {
-                } _p1, _p2;
-                struct Piece *_board[1][1] = {{NULL,},};
-                struct Player * _current_player;
+                static const struct _Type _types[1] = {
+                };
+                unsigned int _count[1] = {};
+                """
+                + boardMacros(1, 1)
+                + pieceMacros("")
+                + """
+                uint64_t _bb[1][1] = {{0x0ULL,},};
+                uint64_t _occ[1] = {0x0ULL,};
+                #define _TILE_EQ(a, b) 1
+                """
+                + boardFunctions
+                + """
+                int _current_player;
                 int _turn_count = 0;
                 int _win_condition = 0;
                 int a = 42;
@@ -120,27 +166,21 @@ public class VisitorTest {
                 outHeader
                 + setupHeader
                 + """
-                struct Player {
-                struct Piece p;
-                } _p1, _p2;
-                _p1.p.name = calloc(2, sizeof(char));
-                strcpy(_p1.p.name, "p");
-                _p1.p.limit = 2147483647;
-                _p1.p.count = 2;
-                _p1.p.capture = 0;
-                _p1.p.can_jump = 0;
-                _p1.p.placeable = 1;
-                _p1.p.player = &_p1;
-                _p2.p.name = calloc(2, sizeof(char));
-                strcpy(_p2.p.name, "p");
-                _p2.p.limit = 2147483647;
-                _p2.p.count = 2;
-                _p2.p.capture = 0;
-                _p2.p.can_jump = 0;
-                _p2.p.placeable = 1;
-                _p2.p.player = &_p2;
-                struct Piece *_board[2][2] = {{&_p1.p,&_p1.p,},{&_p2.p,&_p2.p,},};
-                struct Player * _current_player;
+                static const struct _Type _types[1] = {
+                {"p", 2147483647, 1, 0, 0},
+                };
+                unsigned int _count[2] = {2,2,};
+                """
+                + boardMacros(2, 2)
+                + pieceMacros("_piece_p, ")
+                + """
+                uint64_t _bb[2][1] = {{0x3ULL,},{0xcULL,},};
+                uint64_t _occ[1] = {0xfULL,};
+                #define _TILE_EQ(a, b) (!(((_BIT(0, a) ^ _BIT(0, b)) | (_BIT(1, a) ^ _BIT(1, b))) & 1))
+                """
+                + boardFunctions
+                + """
+                int _current_player;
                 int _turn_count = 0;
                 int _win_condition = 0;
                 
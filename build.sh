@@ -7,3 +7,9 @@ java -cp javacc.jar jjtree src/com/company/griddy.jjt
 java -cp javacc.jar javacc src/com/company/parser/griddy.jj
 
 javac -cp src -d output src/com/company/Main.java
+
+jar cf output/griddy.jar -C output com
+
+# Class data sharing archive, trained on an example compile, for faster JVM startup:
+java -XX:ArchiveClassesAtExit=output/griddy.jsa -cp output/griddy.jar com.company.Main \
+    --file examples/noughts_and_crosses.griddy --output output/cds_training.c > /dev/null
@@ -0,0 +1,267 @@
+package com.company;
+
+import com.company.codegen.TargetCMcts;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Compiles many Griddy files concurrently within one JVM.
+ * <br>
+ * Files are compiled on a work-stealing pool. Each worker thread reuses its own parser through
+ * {@link GriddyCompiler}, and {@code gcc} runs asynchronously so a worker can move on to
+ * generating the next file while the previous one is still being compiled. Processes are started
+ * by a thread of their own, which waits for one of the {@code jobs} gcc slots to free up, so
+ * workers never wait for gcc. With a
+ * {@link BinaryCache}, unchanged files are copied from the cache instead.
+ */
+public class BatchCompiler {
+    public static final String EXTENSION = ".griddy";
+
+    /** Per-file result of a batch compilation. */
+    public static class Result {
+        public final Path file;
+        public boolean success = true;
+        public String message = null;
+        public long codegenNanos;
+        public long gccNanos;
+        public boolean cached = false;
+        String key;
+
+        public Result(Path file) {
+            this.file = file;
+        }
+    }
+
+    private final int jobs;
+    private final boolean compile;
+    private final Gcc gcc;
+    private final BinaryCache cache;
+    private final Semaphore gccSlots;
+    private final String target;
+    private final GriddyCompiler.Options options;
+
+    /**
+     * @param target name of the target, which programs are cached under, as in {@link BinaryCache#key(byte[], String, Gcc)}
+     * @param options options with the target's templates
+     */
+    public BatchCompiler(int jobs, boolean compile, Gcc.Profile profile, BinaryCache cache, String target, GriddyCompiler.Options options) {
+        if (profile == Gcc.Profile.PGO) throw new RuntimeException("Batches can't be compiled with --profile pgo, which trains each program.");
+        this.jobs = jobs;
+        this.compile = compile;
+        // MCTS programs search on threads:
+        gcc = new Gcc(profile, options.templates instanceof TargetCMcts);
+        this.cache = cache;
+        this.target = target;
+        this.options = options;
+        gccSlots = new Semaphore(jobs);
+    }
+
+    /**
+     * Expand directories and glob patterns into the Griddy source files they contain.
+     * @param inputs file paths, directories or glob patterns
+     * @return sorted source file paths
+     */
+    public static List<Path> expand(List<String> inputs) throws IOException {
+        var files = new TreeSet<Path>();
+
+        for (String input : inputs) {
+            int globStart = indexOfGlob(input);
+            if (globStart < 0) {
+                var path = Paths.get(input);
+                if (Files.isDirectory(path)) {
+                    try (Stream<Path> walk = Files.walk(path)) {
+                        walk.filter(p -> Files.isRegularFile(p) && p.toString().endsWith(EXTENSION)).forEach(files::add);
+                    }
+                } else files.add(path);
+                continue;
+            }
+
+            // Walk from the deepest directory without glob characters:
+            int sep = input.lastIndexOf('/', globStart);
+            var base = Paths.get(sep < 0 ? "." : input.substring(0, sep + 1));
+            var matcher = FileSystems.getDefault().getPathMatcher("glob:" + (sep < 0 ? input : input.substring(sep + 1)));
+            try (Stream<Path> walk = Files.walk(base)) {
+                walk.filter(p -> Files.isRegularFile(p) && matcher.matches(base.relativize(p))).forEach(files::add);
+            }
+        }
+
+        return new ArrayList<>(files);
+    }
+
+    private static int indexOfGlob(String input) {
+        for (int i = 0; i < input.length(); i++)
+            if ("*?[{".indexOf(input.charAt(i)) >= 0) return i;
+        return -1;
+    }
+
+    /**
+     * Compile all files and print per-file results followed by the total throughput.
+     * @param inputs file paths, directories or glob patterns
+     * @return whether every file compiled successfully
+     */
+    public boolean run(List<String> inputs) throws IOException {
+        var files = expand(inputs);
+        var begin = System.nanoTime();
+
+        var pool = new ForkJoinPool(jobs);
+        var launcher = Executors.newSingleThreadExecutor(r -> {
+            var t = new Thread(r, "griddy-gcc");
+            t.setDaemon(true);
+            return t;
+        });
+        List<Result> results;
+        try {
+            var tasks = files.stream()
+                    .map(f -> CompletableFuture.supplyAsync(() -> generate(f), pool).thenComposeAsync(this::gcc, launcher))
+                    .collect(Collectors.toList());
+            results = tasks.stream().map(CompletableFuture::join).collect(Collectors.toList());
+        } finally {
+            pool.shutdown();
+            launcher.shutdown();
+        }
+
+        var elapsed = System.nanoTime() - begin;
+        report(results, elapsed);
+        return results.stream().allMatch(r -> r.success);
+    }
+
+    /** Parse and generate C code for one file, reusing this worker's parser. */
+    protected Result generate(Path file) {
+        var result = new Result(file);
+        var begin = System.nanoTime();
+
+        if (compile && cache != null) {
+            try {
+                result.key = BinaryCache.key(Files.readAllBytes(file), target, gcc);
+                result.cached = cache.fetch(result.key, cFile(file).toFile(), binaryFile(file).toFile());
+            } catch (IOException e) {
+                result.key = null;
+            }
+            if (result.cached) {
+                result.codegenNanos = System.nanoTime() - begin;
+                return result;
+            }
+        }
+
+        // Code is generated into memory, so a file which fails to compile keeps its last good C file:
+        try (var reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            var compiled = GriddyCompiler.compile(reader, options);
+            if (compiled.isSuccess()) {
+                var tmp = Files.createTempFile(cFile(file).toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+                Files.writeString(tmp, compiled.source, StandardCharsets.UTF_8);
+                Files.move(tmp, cFile(file), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } else {
+                result.success = false;
+                result.message = compiled.diagnostics.stream().map(Object::toString).collect(Collectors.joining("\n"));
+            }
+        } catch (IOException e) {
+            result.success = false;
+            result.message = e.getMessage();
+        }
+
+        result.codegenNanos = System.nanoTime() - begin;
+        return result;
+    }
+
+    /**
+     * Start {@code gcc} for a generated file once a slot is free, without waiting for it to
+     * finish. Called on the launcher thread, never on a codegen worker.
+     */
+    protected CompletableFuture<Result> gcc(Result result) {
+        if (!compile || !result.success || result.cached) return CompletableFuture.completedFuture(result);
+
+        try {
+            gccSlots.acquire();
+        } catch (InterruptedException e) {
+            result.success = false;
+            result.message = e.getMessage();
+            return CompletableFuture.completedFuture(result);
+        }
+
+        File errLog = null;
+        Process proc;
+        long begin;
+        try {
+            errLog = File.createTempFile("griddy-gcc", ".log");
+            begin = System.nanoTime();
+            Files.deleteIfExists(binaryFile(result.file));
+            proc = new ProcessBuilder(gcc.command(cFile(result.file), binaryFile(result.file)))
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .redirectError(errLog)
+                    .start();
+        } catch (IOException e) {
+            gccSlots.release();
+            if (errLog != null) errLog.delete();
+            result.success = false;
+            result.message = e.getMessage();
+            return CompletableFuture.completedFuture(result);
+        }
+
+        var log = errLog;
+        return proc.onExit().thenApply(p -> {
+            gccSlots.release();
+            result.gccNanos = System.nanoTime() - begin;
+            if (p.exitValue() != 0) {
+                result.success = false;
+                try {
+                    result.message = Files.readString(log.toPath(), StandardCharsets.UTF_8).strip();
+                } catch (IOException e) {
+                    result.message = "gcc exited with status " + p.exitValue();
+                }
+            }
+            log.delete();
+            if (result.success && result.key != null) {
+                try {
+                    cache.store(result.key, cFile(result.file).toFile(), binaryFile(result.file).toFile());
+                } catch (IOException e) {
+                    // Caching is only an optimization, so the build still succeeded:
+                    System.err.println("Can't cache " + result.file + ": " + e.getMessage());
+                }
+            }
+            return result;
+        });
+    }
+
+    public static Path cFile(Path file) {
+        return Paths.get(file + ".c");
+    }
+
+    public static Path binaryFile(Path file) {
+        var name = file.getFileName().toString();
+        if (name.endsWith(EXTENSION)) name = name.substring(0, name.length() - EXTENSION.length());
+        return file.resolveSibling(name + ".out");
+    }
+
+    protected void report(List<Result> results, long elapsedNanos) {
+        long codegen = 0, gcc = 0;
+        int failed = 0;
+
+        for (Result r : results) {
+            codegen += r.codegenNanos;
+            gcc += r.gccNanos;
+            if (r.success) {
+                if (r.cached) System.out.printf("%sCompiled:%s %s (cache hit %.1f ms)%n", Util.ANSI.FG_GREEN, Util.ANSI.RESET, r.file,
+                        r.codegenNanos / 1e6);
+                else System.out.printf("%sCompiled:%s %s (codegen %.1f ms%s)%n", Util.ANSI.FG_GREEN, Util.ANSI.RESET, r.file,
+                        r.codegenNanos / 1e6, compile ? String.format(", gcc %.1f ms", r.gccNanos / 1e6) : "");
+            } else {
+                failed++;
+                System.out.printf("%sFailed:%s %s%n%s%s%s%n", Util.ANSI.FG_YELLOW, Util.ANSI.RESET, r.file,
+                        Util.ANSI.FG_RED, r.message, Util.ANSI.RESET);
+            }
+        }
+
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf("%s%d/%d files compiled in %.2f s%s (%.1f files/s, %d jobs, codegen %.1f ms/file%s)%n",
+                Util.ANSI.STYLE_BOLD, results.size() - failed, results.size(), seconds, Util.ANSI.RESET,
+                results.size() / seconds, jobs,
+                results.isEmpty() ? 0 : codegen / 1e6 / results.size(),
+                compile && !results.isEmpty() ? String.format(", gcc %.1f ms/file", gcc / 1e6 / results.size()) : "");
+    }
+}
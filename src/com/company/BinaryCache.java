@@ -0,0 +1,223 @@
+package com.company;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * On-disk cache of compiled programs, keyed by a hash of everything which goes into them: the
+ * source, the compiler's own classes, the target and gcc's flags.
+ * <br>
+ * An entry is the generated C code, {@code <key>.c}, and the binary, {@code <key>.out}, which is
+ * written last, so an entry exists once its binary does. Hits hard-link the binary into place,
+ * or copy it across file systems, and touch the entry, so when the cache grows past its size,
+ * entries are evicted least recently used first. Hits and misses of every process sharing the
+ * cache are counted in {@code stats}.
+ */
+public class BinaryCache {
+    public static final long DEFAULT_SIZE = 256L << 20;
+    private static final String C = ".c", BINARY = ".out";
+    /** File locks are held by the whole JVM, so threads take turns on them through this. */
+    private static final Object LOCK = new Object();
+
+    public final Path dir;
+    public final long maxBytes;
+
+    public BinaryCache(Path dir, long maxBytes) throws IOException {
+        this.dir = Files.createDirectories(dir);
+        this.maxBytes = maxBytes;
+    }
+
+    /** {@code $GRIDDY_CACHE}, or {@code ~/.cache/griddy}. */
+    public static Path defaultDir() {
+        var env = System.getenv("GRIDDY_CACHE");
+        return env != null ? Path.of(env) : Path.of(System.getProperty("user.home"), ".cache", "griddy");
+    }
+
+    private static String compiler;
+
+    /**
+     * Fingerprint of the compiler, the paths, sizes and modification times of its classes, or of
+     * its jar, so rebuilding the compiler invalidates the cache. It's hashed along with each key.
+     */
+    static synchronized String compiler() {
+        if (compiler != null) return compiler;
+        var files = new StringBuilder();
+        try (Stream<Path> walk = Files.walk(Path.of(BinaryCache.class.getProtectionDomain().getCodeSource().getLocation().toURI()))) {
+            walk.filter(Files::isRegularFile).sorted().forEach(p -> {
+                var f = p.toFile();
+                files.append(p).append(' ').append(f.length()).append(' ').append(f.lastModified()).append('\n');
+            });
+        } catch (IOException | URISyntaxException | SecurityException e) {
+            files.append("unknown");
+        }
+        return compiler = files.toString();
+    }
+
+    /**
+     * Key of a program.
+     * @param source Griddy source
+     * @param parts everything else the binary depends on, like the target and gcc's flags
+     */
+    public static String key(byte[] source, String... parts) {
+        var content = new ByteArrayOutputStream();
+        content.writeBytes(compiler().getBytes(StandardCharsets.UTF_8));
+        for (String part : parts) {
+            content.write(0);
+            content.writeBytes(part.getBytes(StandardCharsets.UTF_8));
+        }
+        content.write(0);
+        content.writeBytes(source);
+        return Daemon.hash(content.toByteArray());
+    }
+
+    /**
+     * Key of a program built by gcc, so single and batch compiles share entries.
+     * @param source Griddy source
+     * @param target name of the target, empty for the interactive one
+     * @param gcc build, with its training run for the {@code pgo} profile
+     */
+    public static String key(byte[] source, String target, Gcc gcc) throws IOException {
+        boolean pgo = gcc.profile == Gcc.Profile.PGO;
+        return key(source, target,
+                String.join(" ", gcc.command(Path.of("program.c"), Path.of("a.out"))),
+                pgo ? String.join(" ", gcc.trainArgs) : "",
+                pgo && gcc.trainInput != null ? Daemon.hash(Files.readAllBytes(gcc.trainInput.toPath())) : "");
+    }
+
+    /**
+     * Look up a program, and on a hit, write its C code and binary.
+     * @return whether the program was cached
+     */
+    public boolean fetch(String key, File cFile, File binary) throws IOException {
+        var cached = dir.resolve(key + BINARY);
+        if (!Files.exists(cached)) {
+            count(false);
+            return false;
+        }
+        try {
+            Files.copy(dir.resolve(key + C), cFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.deleteIfExists(binary.toPath());
+            try {
+                Files.createLink(binary.toPath(), cached);
+            } catch (IOException | UnsupportedOperationException e) {
+                Files.copy(cached, binary.toPath(), StandardCopyOption.COPY_ATTRIBUTES);
+            }
+        } catch (NoSuchFileException e) {
+            count(false);
+            return false;
+        }
+        Files.setLastModifiedTime(cached, FileTime.fromMillis(System.currentTimeMillis()));
+        count(true);
+        return true;
+    }
+
+    /** Add a program, and evict entries until the cache fits in its size again. */
+    public void store(String key, File cFile, File binary) throws IOException {
+        for (var file : new Path[]{cFile.toPath(), binary.toPath()}) {
+            var tmp = Files.createTempFile(dir, key, ".tmp");
+            Files.copy(file, tmp, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+            Files.move(tmp, dir.resolve(key + (file == binary.toPath() ? BINARY : C)), StandardCopyOption.ATOMIC_MOVE);
+        }
+        Files.setLastModifiedTime(dir.resolve(key + BINARY), FileTime.fromMillis(System.currentTimeMillis()));
+        evict();
+    }
+
+    /**
+     * Remove least recently used entries until the cache fits in {@link #maxBytes}, locked
+     * against other processes evicting the same entries.
+     */
+    protected void evict() throws IOException {
+        synchronized (LOCK) {
+            try (var channel = FileChannel.open(dir.resolve("stats"), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                // Released when the channel is closed:
+                channel.lock();
+                evictLocked();
+            }
+        }
+    }
+
+    private void evictLocked() throws IOException {
+        List<Path> binaries = new ArrayList<>();
+        long size = 0;
+        try (Stream<Path> list = Files.list(dir)) {
+            for (var p : (Iterable<Path>) list::iterator) {
+                if (p.toString().endsWith(BINARY)) binaries.add(p);
+                if (p.toString().endsWith(BINARY) || p.toString().endsWith(C)) size += Files.size(p);
+            }
+        }
+        if (size <= maxBytes) return;
+
+        binaries.sort(Comparator.comparing(p -> p.toFile().lastModified()));
+        for (var binary : binaries) {
+            if (size <= maxBytes) break;
+            var name = binary.getFileName().toString();
+            var c = binary.resolveSibling(name.substring(0, name.length() - BINARY.length()) + C);
+            size -= Files.size(binary);
+            Files.deleteIfExists(binary);
+            if (Files.exists(c)) {
+                size -= Files.size(c);
+                Files.deleteIfExists(c);
+            }
+        }
+    }
+
+    /** Hits and misses so far. */
+    public long[] stats() throws IOException {
+        return update(0, 0);
+    }
+
+    /** Hits, misses, entries and size, e.g. {@code 12 hits, 3 misses (80.0%), 3 entries, 96.2 kB}. */
+    public String report() throws IOException {
+        var stats = stats();
+        long entries = 0, size = 0;
+        try (Stream<Path> list = Files.list(dir)) {
+            for (var p : (Iterable<Path>) list::iterator) {
+                if (p.toString().endsWith(BINARY)) entries++;
+                if (p.toString().endsWith(BINARY) || p.toString().endsWith(C)) size += Files.size(p);
+            }
+        }
+        long lookups = stats[0] + stats[1];
+        return String.format("%d hits, %d misses (%.1f%%), %d entries, %.1f kB in %s", stats[0], stats[1],
+                lookups == 0 ? 0.0 : 100.0 * stats[0] / lookups, entries, size / 1e3, dir);
+    }
+
+    private void count(boolean hit) throws IOException {
+        update(hit ? 1 : 0, hit ? 0 : 1);
+    }
+
+    /** Add to the counters in {@code stats}, locked against other threads and processes. */
+    private long[] update(long hits, long misses) throws IOException {
+        synchronized (LOCK) {
+            try (var channel = FileChannel.open(dir.resolve("stats"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                // Released when the channel is closed:
+                channel.lock();
+                var buffer = ByteBuffer.allocate(64);
+                channel.read(buffer, 0);
+                var text = new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8).strip();
+                long[] stats = {0, 0};
+                if (!text.isEmpty()) {
+                    var fields = text.split(" ");
+                    stats[0] = Long.parseLong(fields[0]);
+                    stats[1] = Long.parseLong(fields[1]);
+                }
+                if (hits == 0 && misses == 0) return stats;
+                stats[0] += hits;
+                stats[1] += misses;
+                channel.truncate(0);
+                channel.write(ByteBuffer.wrap((stats[0] + " " + stats[1] + "\n").getBytes(StandardCharsets.UTF_8)), 0);
+                return stats;
+            }
+        }
+    }
+}
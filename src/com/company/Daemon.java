@@ -0,0 +1,174 @@
+package com.company;
+
+import com.company.parser.Ast;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Long-running compile server on a loopback port.
+ * <br>
+ * Parsed trees and generated code are cached by a hash of the source content, so recompiling an
+ * unchanged file only costs reading and hashing it. Trees are kept as {@link Ast}s, which take a
+ * fraction of the memory of the parser's nodes.
+ * <br>
+ * Protocol, one request per connection: the client sends an absolute source path followed by a
+ * newline. The server answers with a status line, {@code OK <hit|miss> <micros>} followed by the
+ * generated code, or {@code ERROR <hit|miss> <micros>} followed by one diagnostic per line, and
+ * then closes the connection.
+ */
+public class Daemon {
+    public static final int DEFAULT_PORT = 7373;
+    public static final int CACHE_SIZE = 256;
+
+    private final Map<String, Ast> trees = lruCache(CACHE_SIZE);
+    private final Map<String, GriddyCompiler.Result> outputs = lruCache(CACHE_SIZE);
+    private final GriddyCompiler.Options options = new GriddyCompiler.Options();
+    private final ExecutorService workers = Executors.newCachedThreadPool(r -> {
+        var t = new Thread(r, "griddy-daemon");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static <V> Map<String, V> lruCache(int size) {
+        return Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                return size() > size;
+            }
+        });
+    }
+
+    /**
+     * Accept and serve requests until the process is terminated.
+     * @param port loopback port
+     */
+    public void serve(int port) throws IOException {
+        try (var server = new ServerSocket()) {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            serve(server);
+        }
+    }
+
+    /**
+     * Accept and serve requests on a bound socket until it's closed.
+     * @param server loopback socket
+     */
+    public void serve(ServerSocket server) throws IOException {
+        System.out.println("Griddy daemon listening on " + server.getLocalSocketAddress());
+
+        while (true) {
+            var socket = server.accept();
+            workers.execute(() -> handle(socket));
+        }
+    }
+
+    protected void handle(Socket socket) {
+        try (socket) {
+            var in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            var out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+
+            var path = in.readLine();
+            if (path == null) return;
+
+            var begin = System.nanoTime();
+            String status;
+            GriddyCompiler.Result result;
+            try {
+                var source = Files.readAllBytes(Path.of(path));
+                var hash = hash(source);
+
+                result = outputs.get(hash);
+                status = result != null ? "hit" : "miss";
+                if (result == null) outputs.put(hash, result = compile(hash, source));
+            } catch (IOException e) {
+                status = "miss";
+                result = new GriddyCompiler.Result(null, List.of(new GriddyCompiler.Diagnostic(
+                        GriddyCompiler.Diagnostic.Severity.ERROR, "Can't read file: " + path, -1, -1)), 0, 0);
+            }
+            var micros = (System.nanoTime() - begin) / 1000;
+
+            if (result.isSuccess()) {
+                out.append("OK ").append(status).append(' ').append(Long.toString(micros)).append('\n')
+                        .append(result.source);
+            } else {
+                out.append("ERROR ").append(status).append(' ').append(Long.toString(micros)).append('\n');
+                for (var d : result.diagnostics) out.append(d.toString()).append('\n');
+            }
+            out.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    protected GriddyCompiler.Result compile(String hash, byte[] source) {
+        var tree = trees.get(hash);
+        if (tree == null) {
+            var text = new String(source, StandardCharsets.UTF_8);
+            try {
+                tree = Ast.of(GriddyCompiler.parse(new StringReader(text)));
+            } catch (ParseException | TokenMgrError e) {
+                // Let the compiler turn the error into diagnostics:
+                return GriddyCompiler.compile(text, options);
+            }
+            trees.put(hash, tree);
+        }
+        return GriddyCompiler.compile(tree.root(), options);
+    }
+
+    static String hash(byte[] content) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256").digest(content);
+            var hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Compile a file through a running daemon.
+     * @param port daemon port
+     * @param file source file
+     * @param outFile generated code output file
+     * @return diagnostics, empty on success
+     */
+    public static List<String> request(int port, File file, File outFile) throws IOException {
+        try (var socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            var out = socket.getOutputStream();
+            out.write((file.getAbsolutePath() + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+
+            var in = new BufferedInputStream(socket.getInputStream());
+            var status = readLine(in);
+
+            if (status.startsWith("OK ")) {
+                try (var fileOut = new FileOutputStream(outFile)) {
+                    in.transferTo(fileOut);
+                }
+                return List.of();
+            }
+
+            var diagnostics = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            return Arrays.asList(diagnostics.split("\n"));
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        var line = new ByteArrayOutputStream();
+        for (int c = in.read(); c != -1 && c != '\n'; c = in.read()) line.write(c);
+        return line.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,180 @@
+package com.company;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Compiles generated C code with {@code gcc}, with the flags of a build profile.
+ * <br>
+ * The {@code pgo} profile builds in three stages: an instrumented binary, a training run of it
+ * which records a profile, and the optimized binary, which is compiled with that profile. Both
+ * builds write the same output path in a temporary directory, since gcc names the profile data
+ * after it, and the optimized binary is moved into place afterwards.
+ */
+public class Gcc {
+    public enum Profile {
+        DEBUG("-O0", "-g"),
+        RELEASE("-O2"),
+        NATIVE("-O2", "-march=native"),
+        PGO("-O2");
+
+        public final List<String> flags;
+
+        Profile(String... flags) {
+            this.flags = List.of(flags);
+        }
+
+        public static Profile parse(String name) {
+            for (Profile p : values())
+                if (p.name().equalsIgnoreCase(name)) return p;
+            throw new RuntimeException("Unknown profile: '" + name + "', expected one of debug, release, native or pgo.");
+        }
+    }
+
+    /** Stage of a build, and how long it took. */
+    public static class Stage {
+        public final String name;
+        public final long nanos;
+
+        public Stage(String name, long nanos) {
+            this.name = name;
+            this.nanos = nanos;
+        }
+    }
+
+    public static class Result {
+        public boolean success = true;
+        public String message = null;
+        public final List<Stage> stages = new ArrayList<>();
+        /** Size of the binary in bytes. */
+        public long size;
+
+        /** Stage times and the binary size, e.g. {@code gcc 310 ms, a.out 21.4 kB}. */
+        public String summary(File binary) {
+            var out = new StringBuilder();
+            for (Stage s : stages)
+                out.append(s.name).append(' ').append(String.format("%.0f ms", s.nanos / 1e6)).append(", ");
+            return out.append(binary.getName()).append(' ').append(String.format("%.1f kB", size / 1e3)).toString();
+        }
+    }
+
+    /** Seconds a training run may take before the build fails. */
+    public static final int TRAINING_TIMEOUT = 60;
+
+    public final Profile profile;
+    /** Whether the program runs threads, which need {@code -pthread} and, when profiling, atomic counters. */
+    public final boolean threads;
+    /** Arguments of the training run. */
+    public List<String> trainArgs = List.of();
+    /** Standard input of the training run, or {@code null} for none. */
+    public File trainInput = null;
+
+    public Gcc(Profile profile, boolean threads) {
+        this.profile = profile;
+        this.threads = threads;
+    }
+
+    /** Command which compiles {@code source} into {@code binary}, with extra flags. */
+    public List<String> command(Path source, Path binary, String... extra) {
+        var cmd = new ArrayList<String>();
+        cmd.add("gcc");
+        cmd.add("-std=c99");
+        cmd.addAll(profile.flags);
+        if (threads) cmd.add("-pthread");
+        cmd.addAll(List.of(extra));
+        cmd.add(source.toString());
+        cmd.add("-o");
+        cmd.add(binary.toString());
+        return cmd;
+    }
+
+    /** Compile {@code source} into {@code binary}, and train it first for the {@code pgo} profile. */
+    public Result build(File source, File binary) throws IOException {
+        var result = new Result();
+        if (profile != Profile.PGO) {
+            gcc(result, "gcc", command(source.toPath(), binary.toPath()));
+        } else {
+            var dir = Files.createTempDirectory("griddy-pgo");
+            try {
+                var out = dir.resolve(binary.getName());
+                var data = "=" + dir.resolve("profile");
+                var generate = threads
+                        ? command(source.toPath(), out, "-fprofile-generate" + data, "-fprofile-update=atomic")
+                        : command(source.toPath(), out, "-fprofile-generate" + data);
+                if (gcc(result, "gcc (instrumented)", generate) && train(result, out)
+                        && gcc(result, "gcc (optimized)", command(source.toPath(), out, "-fprofile-use" + data)))
+                    Files.move(out, binary.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                try (Stream<Path> walk = Files.walk(dir)) {
+                    walk.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+                }
+            }
+        }
+        if (result.success) result.size = binary.length();
+        return result;
+    }
+
+    private boolean gcc(Result result, String stage, List<String> cmd) throws IOException {
+        var errLog = File.createTempFile("griddy-gcc", ".log");
+        try {
+            var begin = System.nanoTime();
+            var proc = new ProcessBuilder(cmd)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .redirectError(errLog)
+                    .start();
+            int status = proc.waitFor();
+            result.stages.add(new Stage(stage, System.nanoTime() - begin));
+            if (status != 0) {
+                result.success = false;
+                result.message = Files.readString(errLog.toPath(), StandardCharsets.UTF_8).strip();
+            }
+        } catch (InterruptedException e) {
+            result.success = false;
+            result.message = e.getMessage();
+        } finally {
+            errLog.delete();
+        }
+        return result.success;
+    }
+
+    /** Run the instrumented binary on the training workload, which writes the profile when it exits. */
+    private boolean train(Result result, Path binary) throws IOException {
+        var cmd = new ArrayList<String>();
+        cmd.add(binary.toString());
+        cmd.addAll(trainArgs);
+        var pb = new ProcessBuilder(cmd)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.DISCARD);
+        if (trainInput != null) pb.redirectInput(trainInput);
+
+        var begin = System.nanoTime();
+        var proc = pb.start();
+        if (trainInput == null) proc.getOutputStream().close();
+        try {
+            if (!proc.waitFor(TRAINING_TIMEOUT, TimeUnit.SECONDS)) {
+                proc.destroyForcibly();
+                result.success = false;
+                result.message = "Training run didn't finish within " + TRAINING_TIMEOUT + " s, "
+                        + "make sure its moves end the game.";
+            } else if (proc.exitValue() != 0) {
+                result.success = false;
+                result.message = "Training run exited with status " + proc.exitValue() + ".";
+            }
+        } catch (InterruptedException e) {
+            proc.destroyForcibly();
+            result.success = false;
+            result.message = e.getMessage();
+        }
+        result.stages.add(new Stage("training", System.nanoTime() - begin));
+        return result.success;
+    }
+}
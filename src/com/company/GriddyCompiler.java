@@ -0,0 +1,195 @@
+package com.company;
+
+import com.company.codegen.CompilationContext;
+import com.company.codegen.OutputTemplates;
+import com.company.codegen.TargetC;
+import com.company.parser.ASTStart;
+import com.company.parser.Node;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory compiler API.
+ * <br>
+ * Compiles Griddy source to target code without touching the file system or stdout. Errors are
+ * reported as {@link Diagnostic}s instead of being printed. Parsers are reused per thread, so
+ * calling {@link #compile} repeatedly from a warm JVM is cheap, and safe from multiple threads.
+ */
+public class GriddyCompiler {
+    private static final ThreadLocal<Griddy> parsers = new ThreadLocal<>();
+    private static final Pattern POSITION = Pattern.compile("line (\\d+), column (\\d+)");
+
+    /** Compilation options. */
+    public static class Options {
+        /** Target code templates. Templates must be stateless, as they may be shared between compilations. */
+        public OutputTemplates templates = new TargetC();
+        /** Run the IR optimization passes. */
+        public boolean optimize = true;
+    }
+
+    /** Compiler message, with a 1-based source position if known. */
+    public static class Diagnostic {
+        public enum Severity { ERROR, WARNING }
+
+        public final Severity severity;
+        public final String message;
+        public final int line;
+        public final int column;
+
+        public Diagnostic(Severity severity, String message, int line, int column) {
+            this.severity = severity;
+            this.message = message;
+            this.line = line;
+            this.column = column;
+        }
+
+        @Override
+        public String toString() {
+            return (line > 0 ? line + ":" + column + ": " : "") + severity.toString().toLowerCase() + ": " + message;
+        }
+    }
+
+    /** Result of compilation. */
+    public static class Result {
+        /** Generated code, or {@code null} if compilation failed or the code was streamed to a sink. */
+        public final String source;
+        public final List<Diagnostic> diagnostics;
+        public final long parseNanos;
+        public final long codegenNanos;
+
+        public Result(String source, List<Diagnostic> diagnostics, long parseNanos, long codegenNanos) {
+            this.source = source;
+            this.diagnostics = diagnostics;
+            this.parseNanos = parseNanos;
+            this.codegenNanos = codegenNanos;
+        }
+
+        public boolean isSuccess() {
+            for (Diagnostic d : diagnostics)
+                if (d.severity == Diagnostic.Severity.ERROR) return false;
+            return true;
+        }
+    }
+
+    public static Result compile(CharSequence source) {
+        return compile(new StringReader(source.toString()), new Options());
+    }
+
+    public static Result compile(CharSequence source, Options options) {
+        return compile(new StringReader(source.toString()), options);
+    }
+
+    /**
+     * Compile Griddy source.
+     * @param source program source
+     * @param options compilation options
+     * @return generated code, diagnostics and timings
+     */
+    public static Result compile(Reader source, Options options) {
+        var output = new StringBuilder();
+        var result = compile(source, output, options);
+        return result.isSuccess()
+                ? new Result(output.toString(), result.diagnostics, result.parseNanos, result.codegenNanos)
+                : result;
+    }
+
+    /**
+     * Compile Griddy source, streaming the generated code into a sink.
+     * <br>
+     * Nothing is written to the sink if compilation fails before code generation completes.
+     * @param source program source
+     * @param sink generated code output
+     * @param options compilation options
+     * @return diagnostics and timings
+     */
+    public static Result compile(Reader source, Appendable sink, Options options) {
+        var begin = System.nanoTime();
+        long parsed = begin;
+
+        try {
+            ASTStart root = parse(source);
+            parsed = System.nanoTime();
+
+            generate(root, sink, options);
+
+            return new Result(null, Collections.emptyList(), parsed - begin, System.nanoTime() - parsed);
+        } catch (ParseException e) {
+            var token = e.currentToken != null && e.currentToken.next != null ? e.currentToken.next : null;
+            return failure(new Diagnostic(Diagnostic.Severity.ERROR, e.getMessage(),
+                    token != null ? token.beginLine : -1, token != null ? token.beginColumn : -1), begin, parsed);
+        } catch (TokenMgrError e) {
+            return failure(error(e.getMessage()), begin, parsed);
+        } catch (RuntimeException | IOException e) {
+            return failure(error(e.getMessage()), begin, parsed);
+        }
+    }
+
+    /**
+     * Generate code for an already parsed program.
+     * <br>
+     * The AST is only read, so one tree can be compiled by several threads at once.
+     * @param root AST root, or the root of an {@link com.company.parser.Ast}
+     * @param options compilation options
+     * @return generated code, diagnostics and timings
+     */
+    public static Result compile(Node root, Options options) {
+        var begin = System.nanoTime();
+        var output = new StringBuilder();
+        try {
+            generate(root, output, options);
+            return new Result(output.toString(), Collections.emptyList(), 0, System.nanoTime() - begin);
+        } catch (RuntimeException | IOException e) {
+            var diagnostics = new ArrayList<Diagnostic>(1);
+            diagnostics.add(error(e.getMessage()));
+            return new Result(null, diagnostics, 0, System.nanoTime() - begin);
+        }
+    }
+
+    private static void generate(Node root, Appendable sink, Options options) throws IOException {
+        var context = new CompilationContext(options.templates);
+        if (!options.optimize) context.passes.clear();
+        new Visitor(context).generate(root);
+        context.structure.writeTo(sink);
+    }
+
+    /**
+     * Parse Griddy source with this thread's parser.
+     * @param source program source
+     * @return AST root
+     */
+    public static ASTStart parse(Reader source) throws ParseException {
+        var parser = parsers.get();
+        if (parser == null) parsers.set(parser = new Griddy(source));
+        else parser.ReInit(source);
+
+        return parser.Start();
+    }
+
+    private static Diagnostic error(String message) {
+        int line = -1, column = -1;
+        if (message != null) {
+            Matcher m = POSITION.matcher(message);
+            if (m.find()) {
+                line = Integer.parseInt(m.group(1));
+                column = Integer.parseInt(m.group(2));
+            }
+        }
+        return new Diagnostic(Diagnostic.Severity.ERROR, message, line, column);
+    }
+
+    private static Result failure(Diagnostic diagnostic, long begin, long parsed) {
+        var diagnostics = new ArrayList<Diagnostic>(1);
+        diagnostics.add(diagnostic);
+        var now = System.nanoTime();
+        return parsed == begin
+                ? new Result(null, diagnostics, now - begin, 0)
+                : new Result(null, diagnostics, parsed - begin, now - parsed);
+    }
+}
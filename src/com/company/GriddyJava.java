@@ -0,0 +1,144 @@
+package com.company;
+
+import com.company.codegen.TargetJava;
+
+import javax.tools.*;
+import java.io.*;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Compiles Griddy programs to JVM classes in process.
+ * <br>
+ * Programs are generated with {@link TargetJava}, compiled in memory with the system Java
+ * compiler and defined by a class loader of their own, so going from Griddy source to running
+ * JIT-compiled code forks nothing and touches no files. Every loaded program is a separate
+ * class, and is unloaded once its {@link Game} is unreachable. Compiler state is reused per
+ * thread, like {@link GriddyCompiler}'s parsers, so loads are cheap from a warm JVM.
+ */
+public class GriddyJava {
+    private static final List<String> JAVAC_OPTIONS = List.of("-proc:none", "-g:none", "-Xlint:none");
+    private static final MethodType PLAY = MethodType.methodType(void.class, InputStream.class, OutputStream.class);
+    private static final ThreadLocal<StandardJavaFileManager> fileManagers = new ThreadLocal<>();
+
+    /** Loaded program. */
+    public static final class Game {
+        /** Generated class. */
+        public final Class<?> type;
+        private final MethodHandle play;
+
+        private Game(Class<?> type) throws ReflectiveOperationException {
+            this.type = type;
+            play = MethodHandles.publicLookup().findStatic(type, "play", PLAY);
+        }
+
+        /**
+         * Play the game from the start, until it's won or the input runs out. Game state belongs
+         * to the loaded class, so one {@code Game} plays one game at a time.
+         * @param in moves and {@code input} values, as typed by players
+         * @param out printed output
+         */
+        public void play(InputStream in, OutputStream out) {
+            try {
+                play.invokeExact(in, out);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    public static Game load(CharSequence source) {
+        return load(source, new GriddyCompiler.Options());
+    }
+
+    /**
+     * Compile and load a program.
+     * @param source program source
+     * @param options compilation options, whose templates are replaced with {@link TargetJava}
+     * @return loaded program
+     */
+    public static Game load(CharSequence source, GriddyCompiler.Options options) {
+        var javaOptions = new GriddyCompiler.Options();
+        javaOptions.templates = new TargetJava();
+        javaOptions.optimize = options.optimize;
+        var result = GriddyCompiler.compile(source, javaOptions);
+        if (!result.isSuccess())
+            throw new RuntimeException("Failed to compile: " + result.diagnostics.stream()
+                    .map(Object::toString).collect(Collectors.joining("\n")));
+        return define(result.source);
+    }
+
+    /**
+     * Compile and load generated Java source.
+     * @param source {@link TargetJava} output
+     * @return loaded program
+     */
+    public static Game define(String source) {
+        var javac = ToolProvider.getSystemJavaCompiler();
+        if (javac == null) throw new RuntimeException("No Java compiler available, the Java target needs a JDK.");
+        var standard = fileManagers.get();
+        if (standard == null) fileManagers.set(standard = javac.getStandardFileManager(null, null, null));
+
+        var classes = new HashMap<String, byte[]>();
+        var files = new ForwardingJavaFileManager<>(standard) {
+            @Override
+            public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling) {
+                return new SimpleJavaFileObject(URI.create("mem:///" + className.replace('.', '/') + kind.extension), kind) {
+                    @Override
+                    public OutputStream openOutputStream() {
+                        return new ByteArrayOutputStream() {
+                            @Override
+                            public void close() {
+                                classes.put(className, toByteArray());
+                            }
+                        };
+                    }
+                };
+            }
+        };
+        var unit = new SimpleJavaFileObject(URI.create("string:///" + TargetJava.CLASS_NAME + ".java"), JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+
+        var diagnostics = new DiagnosticCollector<JavaFileObject>();
+        if (!javac.getTask(null, files, diagnostics, JAVAC_OPTIONS, null, List.of(unit)).call())
+            throw new RuntimeException("Failed to compile generated Java: " + diagnostics.getDiagnostics().stream()
+                    .filter(d -> d.getKind() == Diagnostic.Kind.ERROR)
+                    .map(d -> d.getLineNumber() + ": " + d.getMessage(null))
+                    .collect(Collectors.joining("\n")));
+
+        try {
+            return new Game(new MemoryClassLoader(classes).loadClass(TargetJava.CLASS_NAME));
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Defines compiled classes of one program. Generated code only needs the platform classes. */
+    private static final class MemoryClassLoader extends ClassLoader {
+        private final Map<String, byte[]> classes;
+
+        MemoryClassLoader(Map<String, byte[]> classes) {
+            super("griddy", ClassLoader.getPlatformClassLoader());
+            this.classes = classes;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            byte[] bytes = classes.remove(name);
+            if (bytes == null) throw new ClassNotFoundException(name);
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
@@ -2,8 +2,6 @@ package com.company;
 
 public class Main {
     public static void main(String[] args) {
-        StringBuilder output = new StringBuilder();
-
-        Util.cli(args, output);
+        Util.cli(args);
     }
 }
\ No newline at end of file
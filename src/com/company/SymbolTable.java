@@ -0,0 +1,160 @@
+package com.company;
+
+import com.company.parser.GriddyTreeConstants;
+import com.company.parser.Node;
+
+import java.util.*;
+
+/**
+ * Scoped symbol table, built in a single pass over the AST before code generation.
+ * <br>
+ * Each assignment, identifier reference and function declaration is resolved once, so the
+ * visitor can look up types and declarations in constant time instead of walking the tree.
+ */
+public class SymbolTable {
+    /**
+     * Resolved types of identifier references, keyed by their {@code Ident} node. Nodes are equal
+     * to themselves, and views of an {@link com.company.parser.Ast} to views of the same node.
+     */
+    private final Map<Node, String> identTypes = new HashMap<>();
+    /** Assignments which re-assign an identifier already declared in scope. */
+    private final Set<Node> reassignments = new HashSet<>();
+    /** Function name to return type. */
+    private final Map<String, String> functionTypes = new HashMap<>();
+
+    /**
+     * Lexical scope, mapping identifier names to their types.
+     */
+    protected static class Scope {
+        final Scope parent;
+        final Map<String, String> symbols = new HashMap<>();
+
+        Scope(Scope parent) {
+            this.parent = parent;
+        }
+
+        boolean isDeclared(String name) {
+            for (Scope s = this; s != null; s = s.parent)
+                if (s.symbols.containsKey(name)) return true;
+            return false;
+        }
+
+        String getType(String name) {
+            for (Scope s = this; s != null; s = s.parent) {
+                var type = s.symbols.get(name);
+                if (type != null) return type;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Build the symbol table of a program.
+     * @param root AST root
+     * @return symbol table
+     */
+    public static SymbolTable build(Node root) {
+        var table = new SymbolTable();
+        table.walk(root, new Scope(null));
+        return table;
+    }
+
+    /**
+     * Check if an assignment re-assigns an identifier which has already been declared in scope.
+     * @param assign assignment node
+     * @return status
+     */
+    public boolean isDeclaredInScope(Node assign) {
+        return reassignments.contains(assign);
+    }
+
+    /**
+     * Get the type of identifier reference.
+     * @param ident identifier node
+     * @return type name
+     */
+    public String getIdentifierType(Node ident) {
+        var type = identTypes.get(ident);
+        if (type == null)
+            throw new RuntimeException("Can't get type of '" + ident.jjtGetValue() + "'. Identifier unknown.");
+        return type;
+    }
+
+    /**
+     * Find the type of identifier reference.
+     * @param ident identifier node
+     * @return type name, or {@code null} if the identifier is unknown
+     */
+    public String findIdentifierType(Node ident) {
+        return identTypes.get(ident);
+    }
+
+    /**
+     * Find the return type of declared function.
+     * @param name function identifier
+     * @return type name, or {@code null} if the function is unknown
+     */
+    public String findFunctionReturnType(String name) {
+        return functionTypes.get(name);
+    }
+
+    /**
+     * Get the return type of declared function.
+     * @param name function identifier
+     * @return type name
+     */
+    public String getFunctionReturnType(String name) {
+        var type = functionTypes.get(name);
+        if (type == null) throw new RuntimeException("Declaration for function '" + name + "' not found.");
+        return type;
+    }
+
+    protected void walk(Node node, Scope scope) {
+        switch (node.getId()) {
+            case GriddyTreeConstants.JJTGAME, GriddyTreeConstants.JJTCONDELSE -> walkChildren(node, new Scope(scope));
+            case GriddyTreeConstants.JJTCONDSTMT -> {
+                // The else block doesn't see declarations made in the if block:
+                var body = new Scope(scope);
+                for (int i = 0; i < node.getNumChildren(); i++) {
+                    Node c = node.jjtGetChild(i);
+                    walk(c, c.getId() == GriddyTreeConstants.JJTCONDELSE ? scope : body);
+                }
+            }
+            case GriddyTreeConstants.JJTFUNCDECL -> {
+                var funcScope = new Scope(scope);
+                walkChildren(node, funcScope);
+
+                Node retNode = node.jjtGetChild(3);
+                var retType = GriddyTreeConstants.jjtNodeName[retNode.getId()];
+                if (retType.equals("Ident")) retType = identTypes.get(retNode);
+                if (retType != null) functionTypes.put(node.jjtGetChild(0).jjtGetValue().toString(), retType);
+            }
+            case GriddyTreeConstants.JJTASSIGN -> {
+                var name = node.jjtGetChild(0).jjtGetValue().toString();
+                Node valueNode = node.jjtGetChild(1);
+                walk(valueNode, scope);
+
+                if (name.startsWith("@")) return;
+
+                var valueType = GriddyTreeConstants.jjtNodeName[valueNode.getId()];
+                if (valueType.equals("Ident")) valueType = identTypes.get(valueNode);
+
+                if (scope.isDeclared(name)) reassignments.add(node);
+                if (valueType != null) scope.symbols.put(name, valueType);
+            }
+            case GriddyTreeConstants.JJTIDENT -> {
+                var name = node.jjtGetValue().toString();
+                if (!name.startsWith("@")) {
+                    var type = scope.getType(name);
+                    if (type != null) identTypes.put(node, type);
+                }
+            }
+            default -> walkChildren(node, scope);
+        }
+    }
+
+    protected void walkChildren(Node node, Scope scope) {
+        for (int i = 0; i < node.getNumChildren(); i++)
+            walk(node.jjtGetChild(i), scope);
+    }
+}
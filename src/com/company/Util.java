@@ -1,11 +1,17 @@
 package com.company;
 
-import com.company.parser.GriddyTreeConstants;
-import com.company.parser.Node;
+import com.company.codegen.TargetCHeadless;
+import com.company.codegen.TargetCMcts;
+import com.company.codegen.TargetCReplay;
+import com.company.interpreter.Interpreter;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.stream.Collectors;
 import java.util.function.Function;
 
@@ -21,83 +27,7 @@ public class Util {
         public static final String STYLE_ITALIC = "\u001B[3m";
     }
 
-    /**
-     * Check if identifier name has been declared in scope.
-     * @param node start
-     * @param name identifier
-     * @return status
-     */
-    public static boolean isDeclaredInScope(Node node, String name) {
-        if (node.getParent() == null) return false;
-
-        for (Node c : node.getParent().getChildren()) {
-            if (c == node) break;
-
-            if (GriddyTreeConstants.jjtNodeName[c.getId()].equals("Assign")) {
-                if (c.jjtGetChild(0).jjtGetValue().equals(name))
-                    return true;
-            }
-        }
-
-        return isDeclaredInScope(node.getParent(), name);
-    }
-
-    /**
-     * Get all previous assignments of identifier name.
-     * @param node start
-     * @param name identifier
-     * @return previous assignment nodes
-     */
-    public static ArrayList<Node> getAssignedInScope(Node node, String name) {
-        var output = new ArrayList<Node>();
-
-        if (node.getParent() != null) {
-            for (Node c : node.getParent().getChildren()) {
-                if (c == node) break;
-
-                if (GriddyTreeConstants.jjtNodeName[c.getId()].equals("Assign") && c.jjtGetChild(0).jjtGetValue().equals(name))
-                    output.add(c);
-            }
-            output.addAll(getAssignedInScope(node.getParent(), name));
-        }
-
-        return output;
-    }
-
-    public static String getIdentifierType(Node node, String name) {
-        Node assocNode;
-
-        ArrayList<Node> prevAssign = Util.getAssignedInScope(node, name);
-        if (prevAssign.isEmpty()) throw new RuntimeException("Can't get type of '" + name + "'. Identifier unknown.");
-
-        assocNode = prevAssign.get(prevAssign.size() - 1).jjtGetChild(1);
-
-        var type = GriddyTreeConstants.jjtNodeName[assocNode.getId()];
-        if (type.equals("Ident"))
-            return getIdentifierType(assocNode, prevAssign.get(prevAssign.size() - 1).jjtGetChild(0).jjtGetValue().toString());
-
-        return type;
-    }
-
-    public static String getFunctionReturnType(Node node, String name) {
-        var root = node;
-        while (root.getParent() != null) root = root.getParent();
-
-        for (Node c : root.getChildren()) {
-            if (c.toString().equals("FuncDecl") && c.jjtGetChild(0).jjtGetValue().toString().equals(name)) {
-                var retType = GriddyTreeConstants.jjtNodeName[c.jjtGetChild(3).getId()];
-                if (retType.equals("Ident")) {
-                    return getIdentifierType(c.jjtGetChild(2).jjtGetChild(c.getNumChildren() - 1), c.jjtGetChild(3).jjtGetValue().toString());
-                }
-
-                return retType;
-            }
-        }
-        throw new RuntimeException("Declaration for function '" + name + "' not found.");
-    }
-
-
-    public static void cli(String[] args, StringBuilder output) {
+    public static void cli(String[] args) {
         CLI_Flags flags = new CLI_Flags();
         cli(args, flags, 0);
 
@@ -109,63 +39,212 @@ public class Util {
                         -f <path>, --file <path>    =>  Set input filepath (required).
                         -o <path>, --output <path>  =>  Set output filepath.
                         -c, --compile               =>  Compile output with gcc.
+                        --profile <name>            =>  gcc profile: debug, release (default), native or pgo.
+                        --train <path>              =>  Moves to train --profile pgo builds with, read from stdin.
+                        --no-cache                  =>  Always run gcc, instead of reusing binaries from $GRIDDY_CACHE (~/.cache/griddy).
+                        --cache-stats               =>  Print the binary cache's hits, misses and size.
                         --tree                      =>  Dump AST to stdout.
+                        -b <path>, --batch <path>   =>  Compile all files in a directory or glob (repeatable), with status 1 if any fail.
+                        -j <n>, --jobs <n>          =>  Number of parallel batch jobs.
+                        --daemon                    =>  Run compile daemon on a loopback port.
+                        --connect                   =>  Compile through a running daemon.
+                        --port <n>                  =>  Daemon port (default 7373).
+                        --headless                  =>  Generate a self-play benchmark, run as './a.out --games N --seed S'.
+                        --replay                    =>  Read moves from stdin or './a.out --moves <path>', with buffered output.
+                        --run                       =>  Play the game in the JVM, without generating C.
+                        --mcts                      =>  Add a computer opponent, run as './a.out --ai P --threads N --budget MS'.
+                        --symmetric                 =>  With --mcts, search square boards up to rotation and reflection.
                     """);
             return;
         }
 
+        if (flags.symmetric && !flags.mcts) throw new RuntimeException("--symmetric only applies to --mcts.");
+        if (flags.train != null && flags.profile != Gcc.Profile.PGO) throw new RuntimeException("--train only applies to --profile pgo.");
+        if ((flags.headless ? 1 : 0) + (flags.replay ? 1 : 0) + (flags.mcts ? 1 : 0) > 1)
+            throw new RuntimeException("Choose one of --headless, --replay or --mcts.");
+
+        if (!flags.batch.isEmpty()) {
+            if (flags.run || flags.connect || flags.file != null)
+                throw new RuntimeException("--batch can't be combined with --file, --run or --connect.");
+            boolean success = false;
+            try {
+                var cache = flags.compile && flags.cache ? new BinaryCache(BinaryCache.defaultDir(), BinaryCache.DEFAULT_SIZE) : null;
+                success = new BatchCompiler(flags.jobs, flags.compile, flags.profile, cache, target(flags), options(flags)).run(flags.batch);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            // Let scripts tell whether every file compiled:
+            if (!success) System.exit(1);
+            return;
+        }
+
+        if (flags.cacheStats) {
+            try {
+                System.out.println(new BinaryCache(BinaryCache.defaultDir(), BinaryCache.DEFAULT_SIZE).report());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+
+        if (flags.daemon) {
+            try {
+                new Daemon().serve(flags.port);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+
         if (flags.file == null) throw new RuntimeException("Missing input filepath.");
+        if (flags.headless && flags.connect) throw new RuntimeException("Headless programs can't be compiled through the daemon.");
+        if (flags.replay && flags.connect) throw new RuntimeException("Replay programs can't be compiled through the daemon.");
+        if (flags.mcts && flags.connect) throw new RuntimeException("MCTS programs can't be compiled through the daemon.");
+        if (flags.profile == Gcc.Profile.PGO && flags.train == null && !flags.headless && !flags.mcts)
+            throw new RuntimeException("--profile pgo needs moves to train with, --train <path>, unless the program is --headless or --mcts.");
+        if (flags.run && (flags.connect || flags.headless || flags.replay || flags.mcts))
+            throw new RuntimeException("Interpreted programs don't generate C, so --run can't be combined with --connect, --headless, --replay or --mcts.");
 
-        FileInputStream inputStream;
         try {
-            inputStream = new FileInputStream(flags.file);
+            if (flags.tree) {
+                Griddy.main(true, new FileInputStream(flags.file), new StringBuilder());
+                return;
+            }
+
+            if (flags.run) {
+                Interpreter interpreter;
+                try (var reader = new BufferedReader(new InputStreamReader(new FileInputStream(flags.file), StandardCharsets.UTF_8))) {
+                    interpreter = Interpreter.load(reader);
+                } catch (ParseException | TokenMgrError | RuntimeException e) {
+                    System.out.println("Failed to compile: " + ANSI.FG_YELLOW + ANSI.STYLE_BOLD + flags.file + ANSI.RESET + ".");
+                    System.out.println(ANSI.FG_RED + flags.file + ": " + e.getMessage() + ANSI.RESET);
+                    System.exit(1);
+                    return;
+                }
+                interpreter.run(System.in, System.out);
+                return;
+            }
 
-            Griddy.main(flags.tree, inputStream, output);
             File outFile = new File(flags.output != null
                     ? flags.output
                     : flags.file+".c");
-
-            if (outFile.createNewFile()) System.out.println("File '" + outFile.getName() + "' successfully created!");
-
-            try (FileOutputStream outputStream = new FileOutputStream(outFile)) {
-                outputStream.write(output.toString().getBytes(StandardCharsets.UTF_8));
+            boolean created = !outFile.exists();
+
+            var binary = new File("a.out");
+            var gcc = new Gcc(flags.profile, flags.mcts);
+            // Without moves, headless programs train on random games, and MCTS programs on self-play:
+            if (flags.headless) gcc.trainArgs = List.of("--games", "10000", "--seed", "1");
+            if (flags.mcts) gcc.trainArgs = List.of("--ai", "3", "--budget", "20");
+            if (flags.train != null) gcc.trainInput = new File(flags.train);
+
+            // Unchanged programs are copied from the cache, without generating code or running gcc:
+            BinaryCache cache = null;
+            String key = null;
+            if (flags.compile && flags.cache) {
+                var begin = System.nanoTime();
+                cache = new BinaryCache(BinaryCache.defaultDir(), BinaryCache.DEFAULT_SIZE);
+                key = BinaryCache.key(Files.readAllBytes(Path.of(flags.file)), target(flags), gcc);
+                if (cache.fetch(key, outFile, binary)) {
+                    var result = new Gcc.Result();
+                    result.stages.add(new Gcc.Stage("cache hit", System.nanoTime() - begin));
+                    result.size = binary.length();
+                    System.out.println("Successfully compiled: " + ANSI.FG_GREEN + ANSI.STYLE_BOLD + "\u001B[52m" + flags.file + ANSI.RESET + "!");
+                    System.out.println(flags.profile.name().toLowerCase() + ": " + result.summary(binary));
+                    return;
+                }
             }
 
-            if (flags.compile) {
-                Runtime runtime = Runtime.getRuntime();
-                String[] cmdArgs = {"gcc", "-std=c99", outFile.getPath()};
-
-                Process cmdProc = runtime.exec(cmdArgs);
-
+            List<String> diagnostics;
+            if (flags.connect) {
+                diagnostics = Daemon.request(flags.port, new File(flags.file), outFile);
+            } else {
+                // Stream generated code into a temporary file, which replaces the output file only on
+                // success, so a failed compile keeps the last good one:
+                var tmp = Files.createTempFile(outFile.getAbsoluteFile().toPath().getParent(), outFile.getName(), ".tmp");
                 try {
-                    if (cmdProc.waitFor() == 0) {
-                        System.out.println("Successfully compiled: " + ANSI.FG_GREEN + ANSI.STYLE_BOLD + "\u001B[52m" + flags.file + ANSI.RESET + "!");
-                    } else {
-                        System.out.println("Failed to compile: " + ANSI.FG_YELLOW + ANSI.STYLE_BOLD + flags.file + ANSI.RESET + ".");
+                    GriddyCompiler.Result result;
+                    try (var reader = new BufferedReader(new InputStreamReader(new FileInputStream(flags.file), StandardCharsets.UTF_8));
+                         var writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                        result = GriddyCompiler.compile(reader, writer, options(flags));
+                    }
+                    diagnostics = result.diagnostics.stream().map(Object::toString).collect(Collectors.toList());
+                    if (diagnostics.isEmpty())
+                        Files.move(tmp, outFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    Files.deleteIfExists(tmp);
+                }
+            }
 
-                        InputStream procStdErr = cmdProc.getErrorStream();
-                        String errStr = new BufferedReader(
-                                new InputStreamReader(procStdErr, StandardCharsets.UTF_8)
-                        ).lines().collect(Collectors.joining("\n"));
+            if (!diagnostics.isEmpty()) {
+                System.out.println("Failed to compile: " + ANSI.FG_YELLOW + ANSI.STYLE_BOLD + flags.file + ANSI.RESET + ".");
+                diagnostics.forEach(d -> System.out.println(ANSI.FG_RED + flags.file + ":" + d + ANSI.RESET));
+                System.exit(1);
+            }
+
+            if (created) System.out.println("File '" + outFile.getName() + "' successfully created!");
 
-                        System.out.println(ANSI.FG_RED + errStr + ANSI.RESET);
+            if (flags.compile) {
+                // A binary linked from the cache is replaced, not written through:
+                Files.deleteIfExists(binary.toPath());
+                var result = gcc.build(outFile, binary);
+                if (result.success && cache != null) {
+                    try {
+                        cache.store(key, outFile, binary);
+                    } catch (IOException e) {
+                        // Caching is only an optimization, so the build still succeeded:
+                        System.err.println("Can't cache " + flags.file + ": " + e.getMessage());
                     }
-                } catch (InterruptedException ie) {
-                    ie.printStackTrace();
+                }
+                if (result.success) {
+                    System.out.println("Successfully compiled: " + ANSI.FG_GREEN + ANSI.STYLE_BOLD + "\u001B[52m" + flags.file + ANSI.RESET + "!");
+                    System.out.println(flags.profile.name().toLowerCase() + ": " + result.summary(binary));
+                } else {
+                    System.out.println("Failed to compile: " + ANSI.FG_YELLOW + ANSI.STYLE_BOLD + flags.file + ANSI.RESET + ".");
+                    System.out.println(ANSI.FG_RED + result.message + ANSI.RESET);
+                    System.exit(1);
                 }
             }
 
         } catch (IOException e) {
             e.printStackTrace();
+            System.exit(1);
         }
     }
 
+    /** Compilation options with the target templates the flags choose. */
+    static GriddyCompiler.Options options(CLI_Flags flags) {
+        var options = new GriddyCompiler.Options();
+        if (flags.headless) options.templates = new TargetCHeadless();
+        if (flags.replay) options.templates = new TargetCReplay();
+        if (flags.mcts) options.templates = new TargetCMcts(flags.symmetric);
+        return options;
+    }
+
+    /** Name of the target the flags choose, which compiled programs are cached under. */
+    static String target(CLI_Flags flags) {
+        return flags.headless ? "headless" : flags.replay ? "replay" : flags.mcts ? "mcts" + (flags.symmetric ? " symmetric" : "") : "";
+    }
+
     public static class CLI_Flags {
         boolean help = false;
         String file = null;
         String output = null;
         boolean tree = false;
         boolean compile = false;
+        Gcc.Profile profile = Gcc.Profile.RELEASE;
+        String train = null;
+        boolean cache = true;
+        boolean cacheStats = false;
+        List<String> batch = new ArrayList<>();
+        int jobs = Runtime.getRuntime().availableProcessors();
+        boolean daemon = false;
+        boolean connect = false;
+        int port = Daemon.DEFAULT_PORT;
+        boolean headless = false;
+        boolean replay = false;
+        boolean run = false;
+        boolean mcts = false;
+        boolean symmetric = false;
     }
 
     protected static void cli(String[] args, CLI_Flags flags, int i) {
@@ -201,6 +280,90 @@ public class Util {
                 if (i+2 <= args.length)
                     cli(args, flags, i+1);
             }
+            case "--profile" -> {
+                flags.profile = Gcc.Profile.parse(args[i+1]);
+
+                if(i+3 <= args.length)
+                    cli(args, flags, i+2);
+            }
+            case "--train" -> {
+                flags.train = args[i+1];
+
+                if(i+3 <= args.length)
+                    cli(args, flags, i+2);
+            }
+            case "--no-cache" -> {
+                flags.cache = false;
+
+                if(i+2 <= args.length)
+                    cli(args, flags, i+1);
+            }
+            case "--cache-stats" -> {
+                flags.cacheStats = true;
+
+                if(i+2 <= args.length)
+                    cli(args, flags, i+1);
+            }
+            case "-b", "--batch" -> {
+                flags.batch.add(args[i+1]);
+
+                if(i+3 <= args.length)
+                    cli(args, flags, i+2);
+            }
+            case "--daemon" -> {
+                flags.daemon = true;
+
+                if(i+2 <= args.length)
+                    cli(args, flags, i+1);
+            }
+            case "--connect" -> {
+                flags.connect = true;
+
+                if(i+2 <= args.length)
+                    cli(args, flags, i+1);
+            }
+            case "--headless" -> {
+                flags.headless = true;
+
+                if(i+2 <= args.length)
+                    cli(args, flags, i+1);
+            }
+            case "--replay" -> {
+                flags.replay = true;
+
+                if(i+2 <= args.length)
+                    cli(args, flags, i+1);
+            }
+            case "--run" -> {
+                flags.run = true;
+
+                if(i+2 <= args.length)
+                    cli(args, flags, i+1);
+            }
+            case "--mcts" -> {
+                flags.mcts = true;
+
+                if(i+2 <= args.length)
+                    cli(args, flags, i+1);
+            }
+            case "--symmetric" -> {
+                flags.symmetric = true;
+
+                if(i+2 <= args.length)
+                    cli(args, flags, i+1);
+            }
+            case "--port" -> {
+                flags.port = Integer.parseInt(args[i+1]);
+
+                if(i+3 <= args.length)
+                    cli(args, flags, i+2);
+            }
+            case "-j", "--jobs" -> {
+                flags.jobs = Integer.parseInt(args[i+1]);
+
+                if(i+3 <= args.length)
+                    cli(args, flags, i+2);
+            }
             default -> {
                 System.out.println("Unknown argument: " + args[i]);
                 System.out.println("type -h or --help for help");
@@ -217,21 +380,63 @@ public class Util {
         return arr;
     }
 
+    /**
+     * Decode the escapes of a C string literal, as Griddy string literals are copied into C
+     * code as they are.
+     */
+    public static String unescape(String literal) {
+        if (literal.indexOf('\\') < 0) return literal;
+        var out = new StringBuilder(literal.length());
+        for (int i = 0; i < literal.length(); i++) {
+            char c = literal.charAt(i);
+            if (c != '\\' || i + 1 == literal.length()) {
+                out.append(c);
+                continue;
+            }
+            c = literal.charAt(++i);
+            switch (c) {
+                case 'n' -> out.append('\n');
+                case 't' -> out.append('\t');
+                case 'r' -> out.append('\r');
+                case 'a' -> out.append('\u0007');
+                case 'b' -> out.append('\b');
+                case 'f' -> out.append('\f');
+                case 'v' -> out.append('\u000b');
+                case 'e' -> out.append('\u001b');
+                case 'x' -> {
+                    int end = i + 1;
+                    while (end < literal.length() && Character.digit(literal.charAt(end), 16) >= 0) end++;
+                    out.append((char) Integer.parseInt(literal.substring(i + 1, end), 16));
+                    i = end - 1;
+                }
+                case '0', '1', '2', '3', '4', '5', '6', '7' -> {
+                    int end = i;
+                    while (end < literal.length() && end < i + 3 && literal.charAt(end) >= '0' && literal.charAt(end) <= '7') end++;
+                    out.append((char) Integer.parseInt(literal.substring(i, end), 8));
+                    i = end - 1;
+                }
+                default -> out.append(c);
+            }
+        }
+        return out.toString();
+    }
+
     public static Function<String, String> getGriddyGlobal = k -> switch (k) {
-        case "@player_one" -> "&_p1";
-        case "@player_two" -> "&_p2";
+        case "@player_one" -> "1";
+        case "@player_two" -> "2";
         case "@board" -> "_board";
         case "@current_player" -> "_current_player";
         case "@turn_count" -> "_turn_count";
         case "@win_condition" -> "_win_condition";
+        case "@legal_moves" -> "_legal_moves(_current_player, NULL)";
         default -> throw new RuntimeException("Unknown identifier: '" + k + "'");
     };
 
     public static Function<String, String> getGriddyGlobalType = k -> switch (k) {
-        case "@player_one", "@player_two" -> "Player";
+        case "@player_one", "@player_two", "@current_player" -> "Player";
         case "@board" -> "Board";
         case "@win_condition" -> "Boolean";
-        case "@turn_count" -> "Integer";
+        case "@turn_count", "@legal_moves" -> "Integer";
         case "@placeable", "@capture", "@can_jump" -> "MetaBoolean";
         case "@limit" -> "MetaInteger";
         default -> throw new RuntimeException("Unknown identifier: '" + k + "'");
@@ -0,0 +1,38 @@
+package com.company.codegen;
+
+import com.company.ir.PassManager;
+
+/**
+ * State of a single compilation.
+ * <br>
+ * Owns everything a compilation mutates, so separate compilations never share state and can
+ * run concurrently.
+ */
+public class CompilationContext {
+    /**
+     * Default piece properties, set with the {@code @limit}, {@code @capture},
+     * {@code @placeable} and {@code @can_jump} globals.
+     */
+    public static class PresetGlobals {
+        public int limit = Integer.MAX_VALUE;
+        public boolean capture = false;
+        public boolean placeable = true;
+        public boolean canJump = false;
+    }
+
+    public final OutputTemplates templates;
+    public final PresetGlobals presets = new PresetGlobals();
+    public final GriddyStructure structure;
+    /** Optimizations run on the IR before code generation. */
+    public final PassManager passes;
+
+    public CompilationContext() {
+        this(new TargetC());
+    }
+
+    public CompilationContext(OutputTemplates targetTemplates) {
+        templates = targetTemplates;
+        structure = new GriddyStructure(targetTemplates);
+        passes = targetTemplates.passes();
+    }
+}
@@ -0,0 +1,317 @@
+package com.company.codegen;
+
+import com.company.ir.IncrementalWinCondition;
+import com.company.ir.Ir;
+import com.company.ir.IrNode;
+import com.company.ir.PieceDecl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * Generates code for an IR program through the context's {@link OutputTemplates}, filling in
+ * the context's {@link GriddyStructure}.
+ */
+public class Emitter {
+    final CompilationContext context;
+    final OutputTemplates templates;
+    final GriddyStructure generator;
+    /** Reusable buffers for code fragments which have to be generated before they are wrapped. */
+    private final ArrayDeque<StringBuilder> scratch = new ArrayDeque<>();
+
+    public Emitter(CompilationContext context) {
+        this.context = context;
+        templates = context.templates;
+        generator = context.structure;
+    }
+
+    private StringBuilder borrow() {
+        var sb = scratch.poll();
+        if (sb == null) return new StringBuilder();
+        sb.setLength(0);
+        return sb;
+    }
+
+    private void release(StringBuilder sb) {
+        scratch.push(sb);
+    }
+
+    /**
+     * Generate code for a program.
+     * @param program {@link Ir#PROGRAM} node
+     */
+    public void emit(IrNode program) {
+        for (IrNode n : program.children) {
+            if (n.kind == Ir.GAME) {
+                expression(n.child(0), generator.gameStruct.winCondition);
+                statements(n.child(1), generator.gameStruct.body);
+            } else statement(n, generator.setupStruct.body);
+        }
+    }
+
+    protected void statements(IrNode block, StringBuilder out) {
+        for (IrNode n : block.children) statement(n, out);
+    }
+
+    protected void statement(IrNode node, StringBuilder out) {
+        switch (node.kind) {
+            case Ir.BOARD -> {
+                var size = (int[]) node.value;
+                generator.setupStruct.initBoard(size[0], size[1]);
+            }
+            case Ir.PIECE -> piece((PieceDecl) node.value);
+            case Ir.PRESET -> preset(node);
+            case Ir.FUNC -> {
+                var body = borrow();
+                statements(node.child(0), body);
+                var ret = expression(node.child(1), borrow());
+                templates.function(templates.members() ? generator.setupStruct.functions : out,
+                        (String) node.value, node.type, body, ret);
+                release(ret);
+                release(body);
+            }
+            case Ir.BLOCK -> {
+                // Blocks of inlined branches keep their own scope if they declare anything:
+                boolean scoped = false;
+                for (IrNode n : node.children) scoped |= n.kind == Ir.DECLARE;
+                if (!scoped) {
+                    statements(node, out);
+                    return;
+                }
+                var body = borrow();
+                statements(node, body);
+                templates.block(out, body);
+                release(body);
+            }
+            case Ir.DECLARE -> declare(node, out);
+            case Ir.ASSIGN -> {
+                var ident = (String) node.value;
+                var body = expression(node.child(0), borrow());
+                switch (node.type) {
+                    case Ir.T_STRING -> templates.reAssignString(out, ident, body);
+                    case Ir.T_INT -> templates.reAssignNumber(out, ident, body);
+                    case Ir.T_BOOL -> templates.reAssignBoolean(out, ident, body);
+                    default -> throw new RuntimeException("Encountered invalid value type in assignment: " + Ir.typeName[node.type]);
+                }
+                release(body);
+            }
+            case Ir.OUTPUT -> output(node, out);
+            case Ir.INPUT -> {
+                var target = expression(node.child(0), borrow());
+                templates.input(out, target);
+                release(target);
+            }
+            case Ir.PLACE -> templates.place(out, (String) node.value);
+            case Ir.IF -> {
+                var cond = expression(node.child(0), borrow());
+                var body = borrow();
+                statements(node.child(1), body);
+                if (node.size() > 2) {
+                    var elseBody = borrow();
+                    statements(node.child(2), elseBody);
+                    templates.condElse(body, elseBody);
+                    release(elseBody);
+                }
+                templates.condStmt(out, cond, body);
+                release(body);
+                release(cond);
+            }
+            case Ir.CALL_STMT -> expression(node.child(0), out).append(";\n");
+            case Ir.TILE_LOAD -> {
+                var ref = (int[]) node.value;
+                generator.setupStruct.pointerBoard = true;
+                templates.tileLoad(out, ref[2], ref[0], ref[1]);
+            }
+            default -> throw new RuntimeException("Unexpected statement: " + node);
+        }
+    }
+
+    protected void piece(PieceDecl decl) {
+        var pieceDef = new GriddyStructure.SetupStruct.PieceDef(decl.name, context);
+        if (decl.limit != null) pieceDef.pieceProps.limit = decl.limit;
+        if (decl.capture != null) pieceDef.pieceProps.capture = decl.capture;
+        for (int[] pos : decl.startPositions) pieceDef.addStartPos(pos[0], pos[1]);
+        if (decl.placeable != null) pieceDef.pieceProps.placeable = decl.placeable;
+        if (decl.canJump != null) pieceDef.pieceProps.canJump = decl.canJump;
+        pieceDef.pieceProps.moveSet = decl.moveSet;
+        generator.setupStruct.addPiece(pieceDef);
+    }
+
+    protected void preset(IrNode node) {
+        var ident = (String) node.value;
+        var value = node.child(0);
+        if (!value.isConstant())
+            throw new RuntimeException("Unable to assign a value to global: " + ident);
+
+        switch (ident) {
+            case "@can_jump" -> context.presets.canJump = value.isTrue();
+            case "@limit" -> context.presets.limit = value.intValue();
+            case "@placeable" -> context.presets.placeable = value.isTrue();
+            case "@capture" -> context.presets.capture = value.isTrue();
+            default -> throw new RuntimeException("Unable to assign a value to global: " + ident);
+        }
+    }
+
+    protected void declare(IrNode node, StringBuilder out) {
+        var ident = (String) node.value;
+        var value = node.child(0);
+        // Only top level statements are written straight into the setup body:
+        if (out == generator.setupStruct.body) {
+            if (templates.members()) {
+                global(node, out);
+                return;
+            }
+            generator.setupStruct.globals.put(ident, node.type);
+        }
+        if (node.type == Ir.T_TILE) {
+            var pos = (int[]) value.value;
+            generator.setupStruct.pointerBoard = true;
+            templates.assignPieceRef(out, ident, pos[0], pos[1]);
+            return;
+        }
+
+        var body = expression(value, borrow());
+        switch (node.type) {
+            case Ir.T_STRING -> templates.assignString(out, ident, body);
+            case Ir.T_INT -> templates.assignNumber(out, ident, body);
+            case Ir.T_BOOL -> templates.assignBoolean(out, ident, body);
+            default -> throw new RuntimeException("Encountered invalid value type in assignment: " + Ir.typeName[node.type]);
+        }
+        release(body);
+    }
+
+    /** Top level declaration of a member variable, which is declared with the program's members. */
+    protected void global(IrNode node, StringBuilder out) {
+        var ident = (String) node.value;
+        var value = node.child(0);
+        generator.setupStruct.globals.put(ident, node.type);
+        var body = borrow();
+        if (node.type == Ir.T_TILE) {
+            var pos = (int[]) value.value;
+            generator.setupStruct.pointerBoard = true;
+            templates.pieceRef(body, pos[0], pos[1]);
+            templates.reAssignVar(out, ident, body);
+            release(body);
+            return;
+        }
+
+        expression(value, body);
+        switch (node.type) {
+            case Ir.T_STRING -> templates.reAssignString(out, ident, body);
+            case Ir.T_INT -> templates.reAssignNumber(out, ident, body);
+            case Ir.T_BOOL -> templates.reAssignBoolean(out, ident, body);
+            default -> throw new RuntimeException("Encountered invalid value type in assignment: " + Ir.typeName[node.type]);
+        }
+        release(body);
+    }
+
+    /**
+     * {@code output} print statement, which maps to C's {@code printf}.
+     */
+    protected void output(IrNode node, StringBuilder out) {
+        if (node.type == Ir.T_BOARD) {
+            generator.setupStruct.boardOutput = true;
+            templates.outputTable(out, generator.setupStruct.boardWidth, generator.setupStruct.boardHeight);
+            return;
+        }
+
+        var value = expression(node.child(0), borrow());
+        switch (node.type) {
+            case Ir.T_INT, Ir.T_BOOL -> templates.outputNumber(out, value);
+            case Ir.T_STRING -> templates.outputString(out, value);
+            case Ir.T_TILE -> templates.outputPiece(out, value);
+            default -> throw new RuntimeException("Can't echo value of unknown type: " + Ir.typeName[node.type]);
+        }
+        release(value);
+    }
+
+    protected StringBuilder expression(IrNode node, StringBuilder out) {
+        switch (node.kind) {
+            case Ir.BINARY -> {
+                var op = (String) node.value;
+                var l = node.child(0);
+                var r = node.child(1);
+                // Tile comparisons don't need the pieces on either tile, so they compare board masks instead:
+                if (l.kind == Ir.TILE && r.kind == Ir.TILE && (op.equals("==") || op.equals("!="))) {
+                    var a = (int[]) l.value;
+                    var b = (int[]) r.value;
+                    var eq = borrow();
+                    templates.tileEquals(eq, a[0], a[1], b[0], b[1]);
+                    if (op.equals("==")) out.append(eq);
+                    else templates.unaryNot(out, eq);
+                    release(eq);
+                    return out;
+                }
+                operand(l, precedence(op), false, out);
+                templates.logicalOperator(out, op);
+                operand(r, precedence(op), true, out);
+            }
+            case Ir.NOT -> {
+                var body = expression(node.child(0), borrow());
+                templates.unaryNot(out, body);
+                release(body);
+            }
+            case Ir.INT -> templates.typeNumber(out, (Integer) node.value);
+            case Ir.BOOL -> templates.typeBoolean(out, (Boolean) node.value);
+            case Ir.STRING -> templates.typeString(out, (String) node.value);
+            case Ir.VAR -> out.append((String) node.value);
+            case Ir.GLOBAL -> {
+                if (node.type == Ir.T_BOARD) generator.setupStruct.pointerBoard = true;
+                if (node.value.equals("@legal_moves")) generator.setupStruct.legalMoves = true;
+                templates.global(out, (String) node.value);
+            }
+            case Ir.CALL -> out.append((String) node.value).append("()");
+            case Ir.TILE -> {
+                var pos = (int[]) node.value;
+                generator.setupStruct.pointerBoard = true;
+                templates.tile(out, pos[0], pos[1]);
+            }
+            case Ir.TILE_EMPTY -> {
+                var pos = (int[]) node.value;
+                templates.tileEmpty(out, pos[0], pos[1]);
+            }
+            case Ir.TILE_REF -> templates.tileLocal(out, ((int[]) node.value)[2]);
+            case Ir.WIN_CACHE -> {
+                // Kept until the setup is written:
+                var operands = new ArrayList<StringBuilder>();
+                for (IrNode c : node.children) {
+                    operands.add(expression(c, new StringBuilder()));
+                    generator.setupStruct.cachedConditions.add(operands.get(operands.size() - 1));
+                    generator.setupStruct.cachedReads.add(IncrementalWinCondition.reads(c));
+                }
+                templates.winCache(out, operands);
+            }
+            case Ir.GET_PIECE -> {
+                var player = expression(node.child(0), borrow());
+                templates.getPiece(out, player, (String) node.value);
+                release(player);
+            }
+            default -> throw new RuntimeException("Unexpected expression: " + node);
+        }
+        return out;
+    }
+
+    /** Operand of a binary operator, in parentheses unless C's precedence already groups it. */
+    protected void operand(IrNode node, int parentPrecedence, boolean right, StringBuilder out) {
+        int p = node.kind == Ir.BINARY ? precedence((String) node.value) : Integer.MAX_VALUE;
+        if (p > parentPrecedence || p == parentPrecedence && !right) {
+            expression(node, out);
+            return;
+        }
+        out.append('(');
+        expression(node, out);
+        out.append(')');
+    }
+
+    protected static int precedence(String op) {
+        return switch (op) {
+            case "*", "/", "%" -> 6;
+            case "+", "-" -> 5;
+            case "<", ">", "<=", ">=" -> 4;
+            case "==", "!=" -> 3;
+            case "and" -> 2;
+            case "or" -> 1;
+            default -> throw new RuntimeException("Unknown logical operator: " + op);
+        };
+    }
+}
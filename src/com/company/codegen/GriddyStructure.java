@@ -1,5 +1,9 @@
 package com.company.codegen;
 
+import com.company.ir.MoveSet;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -16,34 +20,41 @@ public class GriddyStructure {
         gameStruct = new GameStruct(targetTemplates);
     }
 
+    /**
+     * Write the generated program.
+     * @param out output sink
+     */
+    public void writeTo(Appendable out) throws IOException {
+        templates.wrapper(out, setupStruct, gameStruct);
+    }
+
     @Override
     public String toString() {
-        return templates.wrapper(setupStruct, gameStruct);
+        var out = new StringBuilder();
+        try {
+            writeTo(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toString();
     }
 
     public static class GameStruct {
         protected OutputTemplates templates;
         public StringBuilder body = new StringBuilder();
-        public String winCondition;
+        public StringBuilder winCondition = new StringBuilder();
 
         public GameStruct(OutputTemplates targetTemplates) {
             templates = targetTemplates;
         }
 
-        @Override
-        public String toString() {
-            return templates.game(body.toString(), winCondition);
+        /** Write the game, which may depend on the program's setup. */
+        public void writeTo(Appendable out, SetupStruct setupStruct) throws IOException {
+            templates.game(out, setupStruct, body, winCondition);
         }
     }
 
     public static class SetupStruct {
-        public static class PresetGlobals {
-            public static int limit = Integer.MAX_VALUE;
-            public static boolean capture = false;
-            public static boolean placeable = true;
-            public static boolean canJump = false;
-        }
-
         public OutputTemplates templates;
         public PlayerDef playerDef;
 
@@ -51,6 +62,20 @@ public class GriddyStructure {
         public StringBuilder body = new StringBuilder();
         public int boardWidth;
         public int boardHeight;
+        /** Whether the program reads tiles as pieces, and needs a board of piece pointers. */
+        public boolean pointerBoard = false;
+        /** Win condition operands which are cached between turns, see {@link com.company.ir.Ir#WIN_CACHE}. */
+        public final List<CharSequence> cachedConditions = new ArrayList<>();
+        /** Tiles read by each cached operand, {@code [x, y]}. */
+        public final List<List<int[]>> cachedReads = new ArrayList<>();
+        /** Whether the program counts legal moves, and needs move generation even without movement patterns. */
+        public boolean legalMoves = false;
+        /** Whether the program outputs the board, and needs the board renderer. */
+        public boolean boardOutput = false;
+        /** Functions, for targets where they are {@link OutputTemplates#members()}. */
+        public StringBuilder functions = new StringBuilder();
+        /** Top level variables and their {@link com.company.ir.Ir} types. */
+        public final Map<String, Integer> globals = new LinkedHashMap<>();
 
         public SetupStruct(OutputTemplates targetTemplates) {
             templates = targetTemplates;
@@ -82,27 +107,22 @@ public class GriddyStructure {
             playerDef.player1.forEach(
                     (k, v) -> {
                         if (!v.pieceProps.startPos.isEmpty())
-                            for (Integer[] pos : v.pieceProps.startPos) {
-                                v.pieceProps.count++;
+                            for (Integer[] pos : v.pieceProps.startPos)
                                 placePiece(v, pos[0] - 1, pos[1] - 1);
-                            }
                     }
             );
             playerDef.player2.forEach(
                     (k, v) -> {
                         if (!v.pieceProps.startPos.isEmpty())
-                            for (Integer[] pos : v.pieceProps.startPos) {
-                                v.pieceProps.count++;
+                            for (Integer[] pos : v.pieceProps.startPos)
                                 placePiece(v, pos[0] - 1, boardHeight - pos[1]);
-                            }
                     }
             );
         }
 
-        @Override
-        public String toString() {
+        public void writeTo(Appendable out) throws IOException {
             placeAllPieces();
-            return templates.setup(this);
+            templates.setup(out, this);
         }
 
         public static class PlayerDef {
@@ -123,30 +143,54 @@ public class GriddyStructure {
                 player2.put(ident, piece2);
             }
 
-            @Override
-            public String toString() {
-                return templates.playerDef(this);
+            public void writeTo(Appendable out) throws IOException {
+                templates.playerDef(out, this);
             }
         }
 
         public static class PieceDef implements Cloneable {
-            public static class PieceProps {
+            public static class PieceProps implements Cloneable {
                 public String name;
-                public Integer limit = PresetGlobals.limit;
-                public boolean placeable = PresetGlobals.placeable;
-                public boolean capture = PresetGlobals.capture;
-                public boolean canJump = PresetGlobals.canJump;
+                public Integer limit;
+                public boolean placeable;
+                public boolean capture;
+                public boolean canJump;
                 public ArrayList<Integer[]> startPos = new ArrayList<>();
                 public int count = 0;
-                public List<Object> moveSet;
+                public MoveSet moveSet = new MoveSet();
+
+                public PieceProps(CompilationContext.PresetGlobals presets) {
+                    limit = presets.limit;
+                    placeable = presets.placeable;
+                    capture = presets.capture;
+                    canJump = presets.canJump;
+                }
+
+                @Override
+                public PieceProps clone() {
+                    try {
+                        return (PieceProps) super.clone();
+                    } catch (CloneNotSupportedException e) {
+                        throw new AssertionError();
+                    }
+                }
             }
 
-            public PieceProps pieceProps = new PieceProps();
+            public PieceProps pieceProps;
 
             public OutputTemplates templates;
             public String ownerPrefix = "";
 
             public PieceDef(String name, OutputTemplates targetTemplates) {
+                this(name, targetTemplates, new CompilationContext.PresetGlobals());
+            }
+
+            public PieceDef(String name, CompilationContext context) {
+                this(name, context.templates, context.presets);
+            }
+
+            protected PieceDef(String name, OutputTemplates targetTemplates, CompilationContext.PresetGlobals presets) {
+                pieceProps = new PieceProps(presets);
                 pieceProps.name = name;
                 templates = targetTemplates;
             }
@@ -162,15 +206,16 @@ public class GriddyStructure {
                 ownerPrefix = prefix;
             }
 
-            @Override
-            public String toString() {
-                return templates.pieceDef(ownerPrefix + "." + pieceProps.name, this);
+            public void writeTo(Appendable out) throws IOException {
+                templates.pieceDef(out, ownerPrefix + "." + pieceProps.name, this);
             }
 
             @Override
             public PieceDef clone() {
                 try {
                     PieceDef clone = (PieceDef) super.clone();
+                    // Each player counts placements of their own pieces:
+                    clone.pieceProps = pieceProps.clone();
                     return clone;
                 } catch (CloneNotSupportedException e) {
                     throw new AssertionError();
@@ -1,41 +1,83 @@
 package com.company.codegen;
 
 import com.company.codegen.GriddyStructure.*;
+import com.company.ir.PassManager;
 
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Target code templates.
+ * <br>
+ * Program structure is written straight into an {@link Appendable}, so generated code can be
+ * streamed to its destination. Statement and expression fragments are appended to the
+ * visitor's {@link StringBuilder} buffers.
+ */
 public interface OutputTemplates {
-    String pieceDef(String ident, SetupStruct.PieceDef pieceDef);
-    String playerDef(SetupStruct.PlayerDef playerDef);
-    String setup(SetupStruct setupStruct);
-    String game(String body, String winCond);
-    String wrapper(SetupStruct setupStruct, GameStruct gameStruct);
+    void pieceDef(Appendable out, String ident, SetupStruct.PieceDef pieceDef) throws IOException;
+    void playerDef(Appendable out, SetupStruct.PlayerDef playerDef) throws IOException;
+    void setup(Appendable out, SetupStruct setupStruct) throws IOException;
+    void game(Appendable out, SetupStruct setupStruct, CharSequence body, CharSequence winCond) throws IOException;
+    void wrapper(Appendable out, SetupStruct setupStruct, GameStruct gameStruct) throws IOException;
+
+    void outputString(StringBuilder out, CharSequence body);
+    void outputNumber(StringBuilder out, CharSequence body);
+    void outputTable(StringBuilder out, int w, int h);
+    void outputPiece(StringBuilder out, CharSequence tile);
+
+    void condStmt(StringBuilder out, CharSequence condition, CharSequence body);
+    void condElse(StringBuilder out, CharSequence body);
+    void block(StringBuilder out, CharSequence body);
+
+    void function(StringBuilder out, String ident, int returnType, CharSequence body, CharSequence ret);
+    void input(StringBuilder out, CharSequence target);
 
-    String outputString(String body);
-    String outputNumber(String body);
-    String outputTable(int w, int h);
+    void assignPieceRef(StringBuilder out, String ident, int x, int y);
+    void pieceRef(StringBuilder out, int x, int y);
+    void reAssignVar(StringBuilder out, String ident, CharSequence body);
 
-    String condStmt(String condition, String body);
-    String condElse(String body);
+    void assignString(StringBuilder out, String ident, CharSequence body);
+    void reAssignString(StringBuilder out, String ident, CharSequence body);
 
-    String assignPieceRef(String ident, int x, int y);
-    String pieceRef(int x, int y);
-    String reAssignVar(String ident, String body);
+    void assignNumber(StringBuilder out, String ident, CharSequence body);
+    void reAssignNumber(StringBuilder out, String ident, CharSequence body);
 
-    String assignString(String ident, String body);
-    String reAssignString(String ident, String body);
+    void assignBoolean(StringBuilder out, String ident, CharSequence body);
+    void reAssignBoolean(StringBuilder out, String ident, CharSequence body);
 
-    String assignNumber(String ident, String body);
-    String reAssignNumber(String ident, String body);
+    void place(StringBuilder out, String pieceIdent);
 
-    String assignBoolean(String ident, String body);
-    String reAssignBoolean(String ident, String body);
+    void logicalOperator(StringBuilder out, String token);
 
-    String place(String pieceIdent);
+    void typeString(StringBuilder out, String str);
+    void typeNumber(StringBuilder out, int num);
+    void typeBoolean(StringBuilder out, boolean bool);
+    void tile(StringBuilder out, int x, int y);
+    void tileEmpty(StringBuilder out, int x, int y);
+    void tileEquals(StringBuilder out, int x1, int y1, int x2, int y2);
+    void tileLoad(StringBuilder out, int local, int x, int y);
+    void tileLocal(StringBuilder out, int local);
+    /**
+     * Cached operands of the win condition, which targets without a cache evaluate in place.
+     * @param operands code of each operand
+     */
+    void winCache(StringBuilder out, List<? extends CharSequence> operands);
+    void unaryNot(StringBuilder out, CharSequence body);
+    void global(StringBuilder out, String ident);
+    void getPiece(StringBuilder out, CharSequence player, String pieceIdent);
 
-    String logicalOperator(String token);
+    /**
+     * Whether functions, and variables declared directly in the setup, are members of the
+     * generated program rather than local to its entry point. Functions are then written to
+     * {@link SetupStruct#functions}, and top level declarations are listed in
+     * {@link SetupStruct#globals} and generated as assignments.
+     */
+    default boolean members() {
+        return false;
+    }
 
-    String typeString(String str);
-    String typeNumber(int num);
-    String typeBoolean(boolean bool);
-    String tile(int x, int y);
-    String unaryNot(String body);
+    /** Optimizations for this target. */
+    default PassManager passes() {
+        return PassManager.standard();
+    }
 }
@@ -1,193 +1,744 @@
 package com.company.codegen;
 
 import com.company.Util;
+import com.company.ir.Ir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 
 public class TargetC implements OutputTemplates {
 
-    public String typeString(String str) {
-        return "\"" + str + "\"";
+    public void typeString(StringBuilder out, String str) {
+        out.append('"').append(str).append('"');
     }
 
-    public String typeNumber(int num) {
-        return "" + num;
+    public void typeNumber(StringBuilder out, int num) {
+        out.append(num);
     }
 
-    public String typeBoolean(boolean bool) {
-        return bool ? "1" : "0";
+    public void typeBoolean(StringBuilder out, boolean bool) {
+        out.append(bool ? '1' : '0');
     }
 
-    public String pieceDef(String ident, GriddyStructure.SetupStruct.PieceDef pieceDef) {
-        var displayName = pieceDef.pieceProps.name;
-        return ident + ".name = calloc(" + (displayName.length() + 1) + ", sizeof(char));\n"
-                + "strcpy(" + ident + ".name, \"" + displayName + "\");\n"
-                + ident + ".limit = " + pieceDef.pieceProps.limit + ";\n"
-                + ident + ".count = " + pieceDef.pieceProps.count + ";\n"
-                + ident + ".capture = " + (pieceDef.pieceProps.capture ? "1" : "0") + ";\n"
-                + ident + ".can_jump = " + (pieceDef.pieceProps.canJump ? "1" : "0") + ";\n"
-                + ident + ".placeable = " + (pieceDef.pieceProps.placeable ? "1" : "0") + ";\n"
-                + ident + ".player = &" + pieceDef.ownerPrefix + ";\n";
+    /** Row of {@code _types}, the constant table of piece type properties. */
+    public void pieceDef(Appendable out, String ident, GriddyStructure.SetupStruct.PieceDef pieceDef) throws IOException {
+        var props = pieceDef.pieceProps;
+        out.append("{\"").append(props.name).append("\", ").append(props.limit.toString())
+                .append(", ").append(props.placeable ? '1' : '0')
+                .append(", ").append(props.capture ? '1' : '0')
+                .append(", ").append(props.canJump ? '1' : '0').append("},\n");
     }
 
-    public String playerDef(GriddyStructure.SetupStruct.PlayerDef playerDef) {
-        var out = new StringBuilder("struct Player {\n");
-        playerDef.player1.forEach( (k, _v) -> out.append("struct Piece " + k + ";\n") );
-        out.append("} _p1, _p2;\n");
-        playerDef.player1.forEach( (_k, v) -> out.append(v) );
-        playerDef.player2.forEach( (_k, v) -> out.append(v) );
-        return out.toString();
-    };
+    /**
+     * Piece types and counts. Both players have the same piece types, so their properties are
+     * one constant table, {@code _types}, which keeps every name once in read-only data, and
+     * only the number of pieces each player has placed, {@code _count[m]}, changes.
+     */
+    public void playerDef(Appendable out, GriddyStructure.SetupStruct.PlayerDef playerDef) throws IOException {
+        int types = playerDef.player1.size();
+        out.append("static const struct _Type _types[").append(Integer.toString(Math.max(1, types))).append("] = {\n");
+        for (var v : playerDef.player1.values()) v.writeTo(out);
+        out.append("};\n")
+                .append("unsigned int _count[").append(Integer.toString(Math.max(1, 2 * types))).append("] = {");
+        for (var v : playerDef.player1.values()) out.append(Integer.toString(v.pieceProps.count)).append(',');
+        for (var v : playerDef.player2.values()) out.append(Integer.toString(v.pieceProps.count)).append(',');
+        out.append("};\n");
+    }
 
-    public String setup(GriddyStructure.SetupStruct setupStruct) {
-        var out = """
+    /**
+     * Board layout: one occupancy bit mask per player and piece type, {@code _bb[m]} with
+     * {@code m = _PIECE(player, type)}, and one for all pieces, {@code _occ}. Boards of more
+     * than 64 cells use several words per mask. Tiles are indexed row by row, {@code _CELL(x, y)}.
+     * <br>
+     * Pieces are ids, {@code m + 1}, with 0 for an empty tile, and players are 1 and 2. The board
+     * of ids, {@code _board}, is only emitted when the program reads a tile as a piece. It has
+     * one byte per tile, unless there are more ids than fit in one.
+     */
+    public void setup(Appendable out, GriddyStructure.SetupStruct setupStruct) throws IOException {
+        out.append("""
                 /*    SETUP    */
-                """
-                + setupStruct.playerDef.toString()
-                + "struct Piece *_board[" + setupStruct.boardHeight + "][" + setupStruct.boardWidth + "] = {";
-
-        for (GriddyStructure.SetupStruct.PieceDef[] row : setupStruct.getBoard()) {
-            out += "{";
-            for (GriddyStructure.SetupStruct.PieceDef pieceDef : row)
-                if (pieceDef != null) {
-                    out += "&" + pieceDef.ownerPrefix + "." + pieceDef.pieceProps.name + ",";
-                } else out += "NULL,";
-
-            out += "},";
+                """);
+        setupStruct.playerDef.writeTo(out);
+
+        int w = setupStruct.boardWidth, h = setupStruct.boardHeight;
+        int words = Math.max(1, (w * h + 63) / 64);
+        var types = new ArrayList<>(setupStruct.playerDef.player1.keySet());
+        int masks = types.size() * 2;
+
+        var bitboards = new long[Math.max(1, masks)][words];
+        var occupied = new long[words];
+        var board = setupStruct.getBoard();
+        for (int y = 0; y < h; y++)
+            for (int x = 0; x < w; x++) {
+                var pieceDef = board[y][x];
+                if (pieceDef == null) continue;
+                int cell = y * w + x;
+                int m = types.indexOf(pieceDef.pieceProps.name) + (pieceDef.ownerPrefix.equals("_p2") ? types.size() : 0);
+                bitboards[m][cell >> 6] |= 1L << (cell & 63);
+                occupied[cell >> 6] |= 1L << (cell & 63);
+            }
+
+        var cell = cellType(setupStruct);
+        out.append("#define _WIDTH ").append(Integer.toString(w)).append('\n')
+                .append("#define _HEIGHT ").append(Integer.toString(h)).append('\n')
+                .append("""
+                #define _CELL(x, y) (((y) - 1) * _WIDTH + (x) - 1)
+                #define _WORD(c) ((c) >> 6)
+                #define _MASK(c) (1ULL << ((c) & 63))
+                #define _BIT(m, c) (_bb[m][_WORD(c)] >> ((c) & 63))
+                #define _EMPTY(c) (!(_occ[_WORD(c)] & _MASK(c)))
+                """)
+                .append("enum {");
+        for (String type : types) out.append("_piece_").append(type).append(", ");
+        out.append("_piece_types};\n")
+                .append("""
+                #define _PIECE(player, type) (((player) - 1) * _piece_types + (type))
+                #define _NAME(id) ((id) ? _types[((id) - 1) % _piece_types].name : NULL)
+                """);
+
+        out.append("uint64_t _bb[").append(Integer.toString(bitboards.length)).append("][").append(Integer.toString(words)).append("] = {");
+        for (long[] mask : bitboards) {
+            out.append('{');
+            for (long word : mask) out.append("0x").append(Long.toHexString(word)).append("ULL,");
+            out.append("},");
         }
-
-        return out + """
-                };
-                struct Player * _current_player;
+        out.append("};\n");
+        out.append("uint64_t _occ[").append(Integer.toString(words)).append("] = {");
+        for (long word : occupied) out.append("0x").append(Long.toHexString(word)).append("ULL,");
+        out.append("};\n");
+
+        // Tiles are equal when every mask has the same bit for both:
+        out.append("#define _TILE_EQ(a, b) ");
+        if (masks == 0) out.append("1");
+        else {
+            out.append("(!((");
+            for (int m = 0; m < masks; m++) {
+                if (m > 0) out.append(" | ");
+                out.append("(_BIT(").append(Integer.toString(m)).append(", a) ^ _BIT(").append(Integer.toString(m)).append(", b))");
+            }
+            out.append(") & 1))");
+        }
+        out.append('\n');
+
+        if (setupStruct.pointerBoard) {
+            out.append(cell).append(" _board[").append(Integer.toString(h)).append("][").append(Integer.toString(w)).append("] = {");
+            for (GriddyStructure.SetupStruct.PieceDef[] row : board) {
+                out.append('{');
+                for (GriddyStructure.SetupStruct.PieceDef pieceDef : row)
+                    out.append(pieceDef == null ? "0" : Integer.toString(types.indexOf(pieceDef.pieceProps.name)
+                            + (pieceDef.ownerPrefix.equals("_p2") ? types.size() : 0) + 1)).append(',');
+                out.append("},");
+            }
+            out.append("};\n")
+                    .append("#define _SET_BOARD(c, id) (_board[(c) / _WIDTH][(c) % _WIDTH] = (id))\n");
+        } else out.append("#define _SET_BOARD(c, id) ((void) 0)\n");
+
+        boolean hashed = hashing() && masks > 0;
+        if (hashed) zobrist(out, setupStruct, types);
+
+        boolean winCache = !setupStruct.cachedConditions.isEmpty();
+        out.append("#define _PLACE(m, c) (_bb[m][_WORD(c)] |= _MASK(c), _occ[_WORD(c)] |= _MASK(c), _SET_BOARD(c, (m) + 1)")
+                .append(hashed ? ", _hash_place(m, c)" : "")
+                .append(winCache ? ", _win_touch(c))\n" : ")\n")
+                .append("""
+                int _piece_at(int c) {
+                for (int _m = 0; _m < 2 * _piece_types; _m++)
+                if (_BIT(_m, c) & 1) return _m + 1;
+                return 0;
+                }
+                """);
+        runtime(out, setupStruct);
+        out.append("""
+                int _current_player;
                 int _turn_count = 0;
                 int _win_condition = 0;
-                """
-                + setupStruct.body.toString();
+                """)
+                .append(setupStruct.body);
+    }
+
+    /** Whether positions are hashed, see {@link #zobrist}. */
+    protected boolean hashing() {
+        return false;
+    }
+
+    /** Type of a tile of {@code _board}, a piece id. */
+    protected static String cellType(GriddyStructure.SetupStruct setupStruct) {
+        return 2 * setupStruct.playerDef.player1.size() + 1 <= 256 ? "uint8_t" : "uint16_t";
+    }
+
+    /** Board symmetries positions are hashed under, 1 for none, or 8 for the rotations and reflections of a square board. */
+    protected int symmetries(GriddyStructure.SetupStruct setupStruct) {
+        return 1;
+    }
+
+    /**
+     * Zobrist hashing. {@code _zobrist[m][c]} is the key of a piece of mask {@code m} on tile
+     * {@code c}, and {@code _hash[s]} the XOR of the keys of all pieces on the board, with tiles
+     * mapped through symmetry {@code s}. Keys and the hashes of the start position are computed
+     * here, with a fixed seed, and placing a piece updates the hashes, {@code _hash_place}.
+     * <br>
+     * {@code _position()} is the hash of the board, the smallest of its symmetries, so boards
+     * which are rotations or reflections of each other share it. {@code _position_after(m, c)}
+     * is the hash after placing a piece, without placing it.
+     */
+    protected void zobrist(Appendable out, GriddyStructure.SetupStruct setupStruct, ArrayList<String> types) throws IOException {
+        int w = setupStruct.boardWidth, h = setupStruct.boardHeight, cells = w * h;
+        int masks = types.size() * 2, symmetries = symmetries(setupStruct);
+
+        long seed = 0x9e3779b97f4a7c15L;
+        var keys = new long[masks][cells];
+        for (long[] mask : keys)
+            for (int c = 0; c < cells; c++) {
+                // splitmix64:
+                long z = seed += 0x9e3779b97f4a7c15L;
+                z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+                z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+                mask[c] = z ^ (z >>> 31);
+            }
+
+        var sym = new int[symmetries][cells];
+        for (int c = 0; c < cells; c++) {
+            int x = c % w, y = c / w, n = w - 1;
+            int[][] images = {{x, y}, {n - x, y}, {x, n - y}, {n - x, n - y}, {y, x}, {n - y, x}, {y, n - x}, {n - y, n - x}};
+            for (int s = 0; s < symmetries; s++) sym[s][c] = images[s][1] * w + images[s][0];
+        }
+
+        var hashes = new long[symmetries];
+        var board = setupStruct.getBoard();
+        for (int y = 0; y < h; y++)
+            for (int x = 0; x < w; x++) {
+                var pieceDef = board[y][x];
+                if (pieceDef == null) continue;
+                int m = types.indexOf(pieceDef.pieceProps.name) + (pieceDef.ownerPrefix.equals("_p2") ? types.size() : 0);
+                for (int s = 0; s < symmetries; s++) hashes[s] ^= keys[m][sym[s][y * w + x]];
+            }
+
+        out.append("#define _SYMMETRIES ").append(Integer.toString(symmetries)).append('\n')
+                .append("static const uint64_t _zobrist[").append(Integer.toString(masks)).append("][").append(Integer.toString(cells)).append("] = {");
+        for (long[] mask : keys) words(out, mask);
+        out.append("};\n");
+        if (symmetries > 1) {
+            out.append("static const int _sym[_SYMMETRIES][").append(Integer.toString(cells)).append("] = {");
+            for (int[] s : sym) {
+                out.append('{');
+                for (int c : s) out.append(Integer.toString(c)).append(',');
+                out.append("},");
+            }
+            out.append("};\n#define _SYM(s, c) _sym[s][c]\n");
+        } else out.append("#define _SYM(s, c) (c)\n");
+        out.append("uint64_t _hash[_SYMMETRIES] = {");
+        for (long hash : hashes) out.append("0x").append(Long.toHexString(hash)).append("ULL,");
+        out.append("""
+                };
+                void _hash_place(int m, int c) {
+                for (int _s = 0; _s < _SYMMETRIES; _s++) _hash[_s] ^= _zobrist[m][_SYM(_s, c)];
+                }
+                uint64_t _position_after(int m, int c) {
+                uint64_t _h = _hash[0] ^ _zobrist[m][c];
+                for (int _s = 1; _s < _SYMMETRIES; _s++)
+                if ((_hash[_s] ^ _zobrist[m][_SYM(_s, c)]) < _h) _h = _hash[_s] ^ _zobrist[m][_SYM(_s, c)];
+                return _h;
+                }
+                uint64_t _position(void) {
+                uint64_t _h = _hash[0];
+                for (int _s = 1; _s < _SYMMETRIES; _s++) if (_hash[_s] < _h) _h = _hash[_s];
+                return _h;
+                }
+                """);
+    }
+
+    /**
+     * Runtime support which depends on the board, emitted before the setup statements, so
+     * functions can use it.
+     */
+    protected void runtime(Appendable out, GriddyStructure.SetupStruct setupStruct) throws IOException {
+        boolean moves = setupStruct.legalMoves;
+        for (var v : setupStruct.playerDef.player1.values()) moves |= !v.pieceProps.moveSet.isEmpty();
+        if (moves) moveGeneration(out, setupStruct);
+        if (!setupStruct.cachedConditions.isEmpty()) winCache(out, setupStruct);
+        if (setupStruct.boardOutput) boardRenderer(out, setupStruct);
+    }
+
+    /**
+     * {@code _render_board()}, which every {@code output @board} calls. It builds the whole frame
+     * in {@code _frame}, which is large enough for any frame of this board, and hands it to
+     * {@code _frame_write} at once.
+     * <br>
+     * Run with {@code --tty} on a terminal, the first frame clears the screen and keeps the board
+     * at the top, with everything else scrolling below it. Later frames only redraw the tiles
+     * which changed since, using cursor addressing. {@code _render_end()} resets the terminal.
+     */
+    protected void boardRenderer(Appendable out, GriddyStructure.SetupStruct setupStruct) throws IOException {
+        int w = setupStruct.boardWidth, h = setupStruct.boardHeight;
+        String top = "┌───" + "┬───".repeat(Math.max(0, w - 1)) + "┐\\n";
+        String separator = "├───" + "┼───".repeat(Math.max(0, w - 1)) + "┤\\n";
+        String bottom = "└───" + "┴───".repeat(Math.max(0, w - 1)) + "┘\\n";
+        var footer = new StringBuilder();
+        for (int n : Util.range(1, w))
+            footer.append("  ").append((char)('a' + n - 1)).append(' ');
+        footer.append("\\n");
+        int lines = 2 * h + 2;
+
+        // A tile takes at most 19 bytes, and a row number 11 more:
+        long full = 7 + length(top) + (long) h * (19L * w + 16) + (h - 1L) * length(separator)
+                + length(bottom) + length(footer) + 24;
+        // A changed tile takes its cursor move and 14 bytes:
+        long diff = 4 + (long) w * h * 38;
+        long size = Math.max(full, diff);
+
+        out.append("static char _frame[").append(Long.toString(size)).append("];\n")
+                .append("static ").append(cellType(setupStruct)).append(" _frame_cells[").append(Integer.toString(w * h)).append("];\n")
+                .append("int _frame_tty = -1;\n");
+        frameWrite(out);
+        out.append("""
+                char *_frame_cell(char *f, int id) {
+                if (!id) *f++ = ' ';
+                else if (id <= _piece_types) {
+                memcpy(f, "\\x1b[33m\\x1b[1m", 9);
+                f += 9;
+                *f++ = *_NAME(id);
+                memcpy(f, "\\x1b[0m", 4);
+                f += 4;
+                } else *f++ = *_NAME(id);
+                return f;
+                }
+                void _render_board(void) {
+                if (_frame_tty < 0) {
+                _frame_tty = 0;
+                for (int _a = 1; _a < argc; _a++) _frame_tty |= !strcmp(argv[_a], "--tty");
+                _frame_tty &= isatty(1);
+                }
+                char *_f = _frame;
+                if (_frame_tty == 2) {
+                memcpy(_f, "\\x1b" "7", 2);
+                _f += 2;
+                for (int _c = 0; _c < _WIDTH * _HEIGHT; _c++) {
+                int _p = _piece_at(_c);
+                if (_p == _frame_cells[_c]) continue;
+                _frame_cells[_c] = _p;
+                _f += sprintf(_f, "\\x1b[%d;%dH", 2 * (_HEIGHT - _c / _WIDTH), _c % _WIDTH * 4 + 3);
+                _f = _frame_cell(_f, _p);
+                }
+                memcpy(_f, "\\x1b" "8", 2);
+                _frame_write(_f + 2 - _frame);
+                return;
+                }
+                if (_frame_tty) {
+                memcpy(_f, "\\x1b[H\\x1b[2J", 7);
+                _f += 7;
+                }
+                """)
+                .append("memcpy(_f, \"").append(top).append("\", ").append(Integer.toString(length(top))).append(");\n")
+                .append("_f += ").append(Integer.toString(length(top))).append(";\n")
+                .append("""
+                for (int _i = _HEIGHT - 1; _i >= 0; _i--) {
+                for (int _j = 0; _j < _WIDTH; _j++) {
+                int _p = _piece_at(_i * _WIDTH + _j);
+                _frame_cells[_i * _WIDTH + _j] = _p;
+                memcpy(_f, "│ ", 4);
+                _f = _frame_cell(_f + 4, _p);
+                *_f++ = ' ';
+                }
+                _f += sprintf(_f, "│ %d\\n", _i + 1);
+                """)
+                .append("if (_i > 0) {\nmemcpy(_f, \"").append(separator).append("\", ").append(Integer.toString(length(separator))).append(");\n")
+                .append("_f += ").append(Integer.toString(length(separator))).append(";\n}\n}\n");
+        var end = bottom + footer;
+        out.append("memcpy(_f, \"").append(end).append("\", ").append(Integer.toString(length(end))).append(");\n")
+                .append("_f += ").append(Integer.toString(length(end))).append(";\n")
+                .append("if (_frame_tty) {\n")
+                .append("// Keep the board at the top, and scroll everything else below it:\n")
+                .append("_f += sprintf(_f, \"\\x1b[%dr\\x1b[%d;1H\", ").append(Integer.toString(lines + 1))
+                .append(", ").append(Integer.toString(lines + 1)).append(");\n")
+                .append("""
+                _frame_tty = 2;
+                }
+                _frame_write(_f - _frame);
+                }
+                void _render_end(void) {
+                if (_frame_tty == 2) {
+                memcpy(_frame, "\\x1b" "7\\x1b[r\\x1b" "8", 7);
+                _frame_write(7);
+                }
+                }
+                """);
     }
 
-    public String game(String body, String winCond) {
-        return """
+    /** {@code _frame_write(n)}, which writes the first {@code n} bytes of {@code _frame}. */
+    protected void frameWrite(Appendable out) throws IOException {
+        out.append("""
+                void _frame_write(size_t n) {
+                fflush(stdout);
+                for (size_t _o = 0; _o < n;) {
+                ssize_t _k = write(1, _frame + _o, n - _o);
+                if (_k <= 0) break;
+                _o += _k;
+                }
+                }
+                """);
+    }
+
+    /** Length in bytes of C string literal contents, counting {@code \\n} as one. */
+    private static int length(CharSequence literal) {
+        return literal.toString().replace("\\n", "\n").getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    /**
+     * Move generation from per-tile tables, which are computed here. For each piece type,
+     * {@code _leap_<type>[player][c]} is the mask of the tiles its steps and jumps reach from
+     * tile {@code c}, and {@code _ray_<type>[player][d][c]} the tiles its {@code d}th slide
+     * passes over on an empty board. A slide stops at the nearest piece on its ray, found with
+     * a bit scan towards the ray's start, so moves are generated without scanning the board.
+     * <br>
+     * {@code _legal_moves(player, moves)} writes the legal moves of a player to {@code moves},
+     * unless it's {@code NULL}, and returns how many there are.
+     */
+    protected void moveGeneration(Appendable out, GriddyStructure.SetupStruct setupStruct) throws IOException {
+        int w = setupStruct.boardWidth, h = setupStruct.boardHeight;
+        int words = Math.max(1, (w * h + 63) / 64);
+        out.append("#define _WORDS ").append(Integer.toString(words)).append('\n')
+                .append("""
+                struct _Move { int mask, from, to; };
+                void _slide(const uint64_t (*ray)[_WORDS], int c, int forward, bool over, uint64_t *t) {
+                int b = -1;
+                if (!over && forward) {
+                for (int _w = 0; _w < _WORDS && b < 0; _w++)
+                if (ray[c][_w] & _occ[_w]) b = _w * 64 + __builtin_ctzll(ray[c][_w] & _occ[_w]);
+                } else if (!over) {
+                for (int _w = _WORDS - 1; _w >= 0 && b < 0; _w--)
+                if (ray[c][_w] & _occ[_w]) b = _w * 64 + 63 - __builtin_clzll(ray[c][_w] & _occ[_w]);
+                }
+                for (int _w = 0; _w < _WORDS; _w++) t[_w] |= ray[c][_w] & (b < 0 ? ~0ULL : ~ray[b][_w]);
+                }
+                """);
+
+        var body = new StringBuilder();
+        for (var pieceDef : setupStruct.playerDef.player1.values()) {
+            var props = pieceDef.pieceProps;
+            var moveSet = props.moveSet;
+            if (moveSet.isEmpty()) continue;
+            var type = props.name;
+
+            var leaps = new ArrayList<int[]>(moveSet.steps);
+            leaps.addAll(moveSet.jumps);
+            if (!leaps.isEmpty()) {
+                out.append("static const uint64_t _leap_").append(type).append("[2][").append(Integer.toString(w * h))
+                        .append("][_WORDS] = {");
+                for (int player = 0; player < 2; player++) {
+                    out.append('{');
+                    for (int c = 0; c < w * h; c++) {
+                        var mask = new long[words];
+                        for (int[] d : leaps) {
+                            int x = c % w + d[0], y = c / w + (player == 0 ? d[1] : -d[1]);
+                            if (x >= 0 && x < w && y >= 0 && y < h) mask[(y * w + x) >> 6] |= 1L << ((y * w + x) & 63);
+                        }
+                        words(out, mask);
+                    }
+                    out.append("},");
+                }
+                out.append("};\n");
+            }
+
+            if (!moveSet.slides.isEmpty()) {
+                out.append("static const uint64_t _ray_").append(type).append("[2][").append(Integer.toString(moveSet.slides.size()))
+                        .append("][").append(Integer.toString(w * h)).append("][_WORDS] = {");
+                for (int player = 0; player < 2; player++) {
+                    out.append('{');
+                    for (int[] d : moveSet.slides) {
+                        out.append('{');
+                        for (int c = 0; c < w * h; c++) {
+                            var mask = new long[words];
+                            int dy = player == 0 ? d[1] : -d[1];
+                            for (int x = c % w + d[0], y = c / w + dy; x >= 0 && x < w && y >= 0 && y < h; x += d[0], y += dy)
+                                mask[(y * w + x) >> 6] |= 1L << ((y * w + x) & 63);
+                            words(out, mask);
+                        }
+                        out.append("},");
+                    }
+                    out.append("},");
+                }
+                out.append("};\n");
+            }
+
+            body.append("for (int _w = 0; _w < _WORDS; _w++)\n")
+                    .append("for (uint64_t _b = _bb[_p * _piece_types + _piece_").append(type).append("][_w]; _b; _b &= _b - 1) {\n")
+                    .append("int _from = _w * 64 + __builtin_ctzll(_b);\n")
+                    .append("uint64_t _t[_WORDS] = {0};\n");
+            if (!leaps.isEmpty())
+                body.append("for (int _v = 0; _v < _WORDS; _v++) _t[_v] = _leap_").append(type).append("[_p][_from][_v];\n");
+            for (int i = 0; i < moveSet.slides.size(); i++) {
+                int[] d = moveSet.slides.get(i);
+                // Player two's rays run the other way along y:
+                boolean forward = d[0] + d[1] * w > 0, mirrored = d[0] - d[1] * w > 0;
+                body.append("_slide(_ray_").append(type).append("[_p][").append(i).append("], _from, ")
+                        .append(forward == mirrored ? forward ? "1" : "0" : forward ? "!_p" : "_p").append(", ")
+                        .append(props.canJump ? '1' : '0').append(", _t);\n");
+            }
+            body.append("for (int _v = 0; _v < _WORDS; _v++)\n")
+                    .append("for (uint64_t _x = _t[_v] & ~").append(props.capture ? "_own[_v]" : "_occ[_v]").append("; _x; _x &= _x - 1) {\n")
+                    .append("if (moves) moves[_n] = (struct _Move) {_p * _piece_types + _piece_").append(type)
+                    .append(", _from, _v * 64 + __builtin_ctzll(_x)};\n")
+                    .append("_n++;\n}\n}\n");
+        }
+
+        out.append("""
+                int _legal_moves(int player, struct _Move *moves) {
+                int _p = player == 2, _n = 0;
+                uint64_t _own[_WORDS] = {0};
+                for (int _m = _p * _piece_types; _m < (_p + 1) * _piece_types; _m++)
+                for (int _w = 0; _w < _WORDS; _w++) _own[_w] |= _bb[_m][_w];
+                """)
+                .append(body)
+                .append("return _n;\n}\n");
+    }
+
+    private static void words(Appendable out, long[] mask) throws IOException {
+        out.append('{');
+        for (long word : mask) out.append("0x").append(Long.toHexString(word)).append("ULL,");
+        out.append("},");
+    }
+
+    /**
+     * Cached win condition operands. Placing a piece queues the operands which read its tile,
+     * {@code _win_touch}, and they are re-evaluated the next time the win condition is checked,
+     * {@code _win_refresh}. The operands reading each tile are listed in {@code _win_dep}, from
+     * {@code _win_dep_start[c]} up to {@code _win_dep_start[c + 1]}.
+     */
+    protected void winCache(Appendable out, GriddyStructure.SetupStruct setupStruct) throws IOException {
+        var conditions = setupStruct.cachedConditions;
+        int n = conditions.size();
+        int w = setupStruct.boardWidth, cells = w * setupStruct.boardHeight;
+
+        var dependents = new ArrayList<ArrayList<Integer>>();
+        for (int c = 0; c < cells; c++) dependents.add(new ArrayList<>());
+        for (int i = 0; i < n; i++)
+            for (int[] pos : setupStruct.cachedReads.get(i)) {
+                int c = (pos[1] - 1) * w + pos[0] - 1;
+                if (c >= 0 && c < cells) dependents.get(c).add(i);
+            }
+
+        out.append("static const int _win_dep_start[").append(Integer.toString(cells + 1)).append("] = {0,");
+        int start = 0;
+        for (var d : dependents) out.append(Integer.toString(start += d.size())).append(',');
+        out.append("};\n");
+        out.append("static const int _win_dep[").append(Integer.toString(Math.max(1, start))).append("] = {");
+        for (var d : dependents)
+            for (int i : d) out.append(Integer.toString(i)).append(',');
+        out.append("};\n");
+
+        var size = Integer.toString(n);
+        out.append("int _win_cached[").append(size).append("] = {0};\n")
+                .append("int _win_true = 0;\n")
+                .append("int _win_dirty[").append(size).append("];\n")
+                .append("int _win_dirty_n = ").append(size).append(";\n")
+                .append("bool _win_queued[").append(size).append("];\n")
+                .append("for (int _i = 0; _i < ").append(size).append("; _i++) _win_dirty[_i] = _i, _win_queued[_i] = 1;\n")
+                .append("int _win_eval(int i) {\nswitch (i) {\n");
+        for (int i = 0; i < n; i++)
+            out.append("case ").append(Integer.toString(i)).append(": return ").append(conditions.get(i)).append(";\n");
+        out.append("""
+                }
+                return 0;
+                }
+                void _win_touch(int c) {
+                for (int _i = _win_dep_start[c]; _i < _win_dep_start[c + 1]; _i++)
+                if (!_win_queued[_win_dep[_i]]) _win_queued[_win_dep[_i]] = 1, _win_dirty[_win_dirty_n++] = _win_dep[_i];
+                }
+                int _win_refresh() {
+                while (_win_dirty_n > 0) {
+                int _i = _win_dirty[--_win_dirty_n];
+                int _v = _win_eval(_i) != 0;
+                _win_queued[_i] = 0;
+                _win_true += _v - _win_cached[_i];
+                _win_cached[_i] = _v;
+                }
+                return _win_true > 0;
+                }
+                """);
+    }
+
+    public void game(Appendable out, GriddyStructure.SetupStruct setupStruct, CharSequence body, CharSequence winCond) throws IOException {
+        out.append("""
                 /*   GAME    */
                 do {
-                _current_player = _turn_count % 2 ? &_p2 : &_p1;
-                """
-                + body
-                + """
-                _win_condition"""
-                + " = "
-                + winCond
-                + ";\n"
-                + """
+                _current_player = _turn_count % 2 + 1;
+                """)
+                .append(body)
+                .append("""
+                _win_condition""")
+                .append(" = ")
+                .append(winCond)
+                .append(";\n")
+                .append("""
                 _turn_count++;
                 } while (!_win_condition);
-                
-                """;
-    }
-
-    public String wrapper(GriddyStructure.SetupStruct setupStruct, GriddyStructure.GameStruct gameStruct) {
-        return """
-                /* === Code generated by Griddy compiler === */
-                #include <stdio.h>
-                #include <stdlib.h>
-                #include <string.h>
-                #include <stdbool.h>
-
-                int main(int argc, char *argv[]){
-                struct Piece {
-                char* name;
-                unsigned int limit;
-                unsigned int count;
-                bool placeable;
-                bool capture;
-                bool can_jump;
-                struct Player* player;
-                };
-                """
-                + setupStruct
-                + "\n"
-                + gameStruct
-                + """
+
+                """);
+    }
+
+    protected static final String INCLUDES = """
+            #include <stdio.h>
+            #include <stdlib.h>
+            #include <string.h>
+            #include <stdbool.h>
+            #include <stdint.h>
+            """;
+
+    protected static final String PIECE_STRUCT = """
+            struct _Type {
+            const char *name;
+            unsigned int limit;
+            bool placeable;
+            bool capture;
+            bool can_jump;
+            };
+            """;
+
+    /**
+     * Transposition table for programs which hash positions, shared by all threads. It has
+     * {@code _TT_SIZE} entries of statistics, visits in the high half of {@code stats} and score
+     * in the low half so both are updated with one atomic add, found by {@code _tt_entry(key, claim)} within
+     * {@code _TT_PROBES} slots of the key. An empty slot is claimed for a key with one compare
+     * and swap, and entries are never moved or evicted, so lookups take no locks, and a key
+     * whose slots are all taken is left out.
+     */
+    protected static final String TRANSPOSITION_TABLE = """
+            #define _TT_BITS 20
+            #define _TT_SIZE (1 << _TT_BITS)
+            #define _TT_PROBES 8
+            struct _TTEntry {
+            _Atomic uint64_t key;
+            _Atomic uint64_t stats;
+            };
+            #define _TT_VISIT(score) (1ULL << 32 | (score))
+            static struct _TTEntry _tt[_TT_SIZE];
+            static atomic_int _tt_used;
+            static struct _TTEntry *_tt_entry(uint64_t key, bool claim) {
+            // Zero marks empty slots:
+            if (!key) key = 1;
+            for (int _i = 0; _i < _TT_PROBES; _i++) {
+            struct _TTEntry *_e = &_tt[(key + _i) & (_TT_SIZE - 1)];
+            uint64_t _k = atomic_load_explicit(&_e->key, memory_order_acquire);
+            if (!_k) {
+            // Keys are never removed, so the key isn't in the table:
+            if (!claim) return NULL;
+            if (atomic_compare_exchange_strong(&_e->key, &_k, key)) {
+            atomic_fetch_add_explicit(&_tt_used, 1, memory_order_relaxed);
+            return _e;
+            }
+            }
+            if (_k == key) return _e;
+            }
+            return NULL;
+            }
+            """;
+
+    public void wrapper(Appendable out, GriddyStructure.SetupStruct setupStruct, GriddyStructure.GameStruct gameStruct) throws IOException {
+        out.append("/* === Code generated by Griddy compiler === */\n")
+                .append(INCLUDES)
+                .append(setupStruct.boardOutput ? "#include <unistd.h>\n" : "")
+                .append("\nint main(int argc, char *argv[]){\n")
+                .append(PIECE_STRUCT);
+        setupStruct.writeTo(out);
+        out.append('\n');
+        gameStruct.writeTo(out, setupStruct);
+        if (setupStruct.boardOutput) out.append("_render_end();\n");
+        out.append("""
                 return 0;
                 }
-                """;
+                """);
     }
 
-    public String outputString(String body) {
-        return "printf(\"%s\\n\", " + body + ");\n";
+    public void outputString(StringBuilder out, CharSequence body) {
+        out.append("printf(\"%s\\n\", ").append(body).append(");\n");
     }
 
-    public String outputNumber(String body) {
-        return "printf(\"%d\\n\", " + body + ");\n";
+    public void outputNumber(StringBuilder out, CharSequence body) {
+        out.append("printf(\"%d\\n\", ").append(body).append(");\n");
     }
 
-    public String outputTable(int w, int h) {
-        var letterRow = new StringBuilder();
-        for (int n : Util.range(1, w))
-            letterRow.append("  ").append((char)('a' + n - 1)).append(" ");
+    public void outputTable(StringBuilder out, int w, int h) {
+        out.append("_render_board();\n");
+    }
+
+    public void outputPiece(StringBuilder out, CharSequence tile) {
+        outputString(out, new StringBuilder("_NAME(").append(tile).append(')'));
+    }
+
+    public void condStmt(StringBuilder out, CharSequence condition, CharSequence body) {
+        out.append("if (").append(condition).append(") {\n").append(body).append("}\n");
+    }
+
+    public void condElse(StringBuilder out, CharSequence body) {
+        out.append("\n} else {\n").append(body);
+    }
 
-        return "printf(\"┌───" + "┬───".repeat(Math.max(0, w - 1)) + "┐\\n\");\n"
-                + "for (int _i = " + (h - 1) + "; _i >= 0; _i--) {\n"
-                + "for (int _j = 0; _j < " + w + "; _j++)\n"
-                + """
-                if (_board[_i][_j]) {
-                if (_board[_i][_j]->player == &_p1) {
-                printf("│ \\x1b[33m\\x1b[1m%c\\x1b[0m ", *_board[_i][_j]->name);
-                } else printf("│ %c ", *_board[_i][_j]->name);
-                } else printf("│   ");
-                printf("│ %d\\n", _i + 1);
-                """
-                + "if (_i > 0) printf(\"├───" + "┼───".repeat(Math.max(0, w - 1)) + "┤\\n\");\n}\n"
-                + "printf(\"└───" + "┴───".repeat(Math.max(0, w - 1)) + "┘\\n\");\n"
-                + "printf(\"" + letterRow + "\\n\");\n";
+    public void block(StringBuilder out, CharSequence body) {
+        out.append("{\n").append(body).append("}\n");
     }
 
-    public String condStmt(String condition, String body) {
-        return "if (" + condition + ") {\n" + body + "}\n";
+    public void function(StringBuilder out, String ident, int returnType, CharSequence body, CharSequence ret) {
+        out.append(switch (returnType) {
+            case Ir.T_STRING -> "const char * ";
+            case Ir.T_INT, Ir.T_BOOL -> "int ";
+            default -> throw new RuntimeException("Unknown return type: " + Ir.typeName[returnType]);
+        }).append(ident).append("() {\n")
+                .append(body)
+                .append("return ").append(ret).append(";\n}\n");
     }
 
-    public String condElse(String body) {
-        return "\n} else {\n" + body;
+    public void input(StringBuilder out, CharSequence target) {
+        out.append("scanf(\"%d\", &").append(target).append(");\n");
     }
 
-    public String assignPieceRef(String ident, int x, int y) {
-        return "struct Piece * " + ident + " = " + pieceRef(x, y) + ";\n";
+    public void assignPieceRef(StringBuilder out, String ident, int x, int y) {
+        out.append("int ").append(ident).append(" = ");
+        pieceRef(out, x, y);
+        out.append(";\n");
     }
 
-    public String pieceRef(int x, int y) {
-        return "_board[" + (y - 1) + "][" + (x - 1) + "]";
+    public void pieceRef(StringBuilder out, int x, int y) {
+        out.append("_board[").append(y - 1).append("][").append(x - 1).append(']');
     }
 
-    public String reAssignVar(String ident, String body) {
-        return ident + " = " + body + ";\n";
+    public void reAssignVar(StringBuilder out, String ident, CharSequence body) {
+        out.append(ident).append(" = ").append(body).append(";\n");
     }
 
-    public String assignString(String ident, String body) {
-        return "char *" + ident + ";\n"
-                + ident + " = calloc(" + (body.length() + 1) + ", sizeof(char));\n"
-                + "strcpy(" + ident + ", \"" + body + "\");\n";
+    /**
+     * Strings are never built or changed at run time, so every string value is a literal, and
+     * variables point into read-only data instead of holding a copy on the heap.
+     */
+    public void assignString(StringBuilder out, String ident, CharSequence body) {
+        out.append("const char *");
+        reAssignString(out, ident, body);
     }
 
-    public String reAssignString(String ident, String body) {
-        return ident + " = realloc(" + ident + ", " + (body.length() + 1) + ");\n"
-                + "strcpy(" + ident + ", " + body + ");\n";
+    public void reAssignString(StringBuilder out, String ident, CharSequence body) {
+        reAssignVar(out, ident, body);
     }
 
-    public String assignNumber(String ident, String body) {
-        return "int " + reAssignNumber(ident, body);
+    public void assignNumber(StringBuilder out, String ident, CharSequence body) {
+        out.append("int ");
+        reAssignNumber(out, ident, body);
     }
 
-    public String reAssignNumber(String ident, String body) {
-        return reAssignVar(ident, body);
+    public void reAssignNumber(StringBuilder out, String ident, CharSequence body) {
+        reAssignVar(out, ident, body);
     }
 
-    public String assignBoolean(String ident, String body) {
-        return assignNumber(ident, body);
+    public void assignBoolean(StringBuilder out, String ident, CharSequence body) {
+        assignNumber(out, ident, body);
     }
 
-    public String reAssignBoolean(String ident, String body) {
-        return reAssignNumber(ident, body);
+    public void reAssignBoolean(StringBuilder out, String ident, CharSequence body) {
+        reAssignNumber(out, ident, body);
     }
 
-    public String logicalOperator(String token) {
-        return switch (token) {
+    public void logicalOperator(StringBuilder out, String token) {
+        out.append(switch (token) {
             case "and" -> "&&";
             case "or" -> "||";
             case ">=" -> ">=";
@@ -196,37 +747,97 @@ public class TargetC implements OutputTemplates {
             case "!=" -> "!=";
             case "<" -> "<";
             case ">" -> ">";
+            case "+" -> "+";
+            case "-" -> "-";
+            case "*" -> "*";
+            case "/" -> "/";
+            case "%" -> "%";
             default -> throw new RuntimeException("Unknown logical operator: " + token);
-        };
+        });
     }
 
-    public String place(String pieceIdent) {
-        return """
+    public void place(StringBuilder out, String pieceIdent) {
+        out.append("""
                 char _place_arg_x;
                 int _place_arg_y;
                 PLACE_INPUT:
-                printf("Input: ");
+                """);
+        printLiteral(out, "Input: ");
+        readMove(out);
+        out.append("int _place_cell = _CELL(_place_arg_x - 'a' + 1, _place_arg_y);\n")
+                .append("if (").append(placeable(pieceIdent))
+                .append("&&(unsigned)(_place_arg_x-'a')<_WIDTH&&(unsigned)(_place_arg_y-1)<_HEIGHT&&_EMPTY(_place_cell)){\n");
+        placePiece(out, pieceIdent, "_place_cell");
+        out.append("} else {\n");
+        printLiteral(out, "Invalid piece placement! Try again:\\n");
+        out.append("goto PLACE_INPUT;\n}\n");
+    }
+
+    /** Condition for the current player to have a piece of a type left to place. */
+    protected static String placeable(String pieceIdent) {
+        return "_types[_piece_" + pieceIdent + "].placeable&&_count[_PIECE(_current_player, _piece_" + pieceIdent
+                + ")]<_types[_piece_" + pieceIdent + "].limit";
+    }
+
+    /** Place a piece of the current player on a tile, and count it. */
+    protected static void placePiece(StringBuilder out, String pieceIdent, String cell) {
+        out.append("_PLACE(_PIECE(_current_player, _piece_").append(pieceIdent).append("), ").append(cell).append(");\n")
+                .append("_count[_PIECE(_current_player, _piece_").append(pieceIdent).append(")]++;\n");
+    }
+
+    /** Read a move, a column letter and a row number, into {@code _place_arg_x} and {@code _place_arg_y}. */
+    protected void readMove(StringBuilder out) {
+        out.append("""
                 scanf("%c%d", &_place_arg_x, &_place_arg_y);
                 int _in;
                 while ((_in = getchar()) != EOF && _in != '\\n');
-                """
-                + "if (_current_player->" + pieceIdent + ".placeable&&_current_player->" + pieceIdent
-                + ".count<_current_player->" + pieceIdent + ".limit&&_board[_place_arg_y-1][_place_arg_x-((int)'a')]==NULL){\n"
-                + "_board[_place_arg_y-1][_place_arg_x-((int)'a')]=&_current_player->" + pieceIdent + ";\n"
-                + "_current_player->" + pieceIdent + ".count++;\n"
-                + """
-                } else {
-                printf("Invalid piece placement! Try again:\\n");
-                goto PLACE_INPUT;
-                }
-                """;
+                """);
+    }
+
+    /**
+     * Print text without a format.
+     * @param text C string literal contents, with escapes
+     */
+    protected void printLiteral(StringBuilder out, String text) {
+        out.append("printf(\"").append(text).append("\");\n");
+    }
+
+    public void tile(StringBuilder out, int x, int y) {
+        out.append("_board[").append(y - 1).append("][").append(x - 1).append(']');
+    }
+
+    public void tileEmpty(StringBuilder out, int x, int y) {
+        out.append("_EMPTY(_CELL(").append(x).append(", ").append(y).append("))");
+    }
+
+    public void tileEquals(StringBuilder out, int x1, int y1, int x2, int y2) {
+        out.append("_TILE_EQ(_CELL(").append(x1).append(", ").append(y1).append("), _CELL(")
+                .append(x2).append(", ").append(y2).append("))");
+    }
+
+    public void tileLoad(StringBuilder out, int local, int x, int y) {
+        out.append("int _tile").append(local).append(" = ");
+        tile(out, x, y);
+        out.append(";\n");
+    }
+
+    public void tileLocal(StringBuilder out, int local) {
+        out.append("_tile").append(local);
+    }
+
+    public void winCache(StringBuilder out, List<? extends CharSequence> operands) {
+        out.append("_win_refresh()");
+    }
+
+    public void unaryNot(StringBuilder out, CharSequence body) {
+        out.append("!(").append(body).append(')');
     }
 
-    public String tile(int x, int y) {
-        return "_board[" + (y - 1) + "][" + (x - 1) + "]";
+    public void global(StringBuilder out, String ident) {
+        out.append(Util.getGriddyGlobal.apply(ident));
     }
 
-    public String unaryNot(String body) {
-        return "!(" + body + ")";
+    public void getPiece(StringBuilder out, CharSequence player, String pieceIdent) {
+        out.append("_PIECE(").append(player).append(", _piece_").append(pieceIdent).append(") + 1");
     }
 }
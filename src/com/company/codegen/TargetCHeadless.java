@@ -0,0 +1,143 @@
+package com.company.codegen;
+
+import java.io.IOException;
+
+/**
+ * C target for headless self-play, to measure how fast the generated rules run.
+ * <br>
+ * The program plays {@code --games N} games in a row, seeded with {@code --seed S}, and prints
+ * games and turns per second and the outcomes. {@code place} puts the piece on a uniformly random
+ * empty tile, {@code output} only evaluates its argument and {@code input} leaves its variable
+ * unchanged.
+ * <br>
+ * A game is won by the player who made the last move, and it's a draw if the current player can't
+ * place their piece or after {@code _MAX_TURNS} turns. Programs only tell wins and draws apart in
+ * their output, so games that end with the board full, won on the last empty tile or drawn, are
+ * counted on their own.
+ */
+public class TargetCHeadless extends TargetC {
+    public static final int MAX_TURNS = 100000;
+
+    @Override
+    public void wrapper(Appendable out, GriddyStructure.SetupStruct setupStruct, GriddyStructure.GameStruct gameStruct) throws IOException {
+        out.append("/* === Code generated by Griddy compiler (headless) === */\n")
+                .append("#define _POSIX_C_SOURCE 199309L\n")
+                .append(INCLUDES)
+                .append("#include <time.h>\n")
+                .append("#define _MAX_TURNS ").append(Integer.toString(MAX_TURNS)).append('\n')
+                .append("\nint main(int argc, char *argv[]){\n")
+                .append("""
+                long _games = 1, _turns = 0, _draws = 0, _full = 0, _wins[2] = {0, 0};
+                uint64_t _rng = 1;
+                for (int _a = 1; _a + 1 < argc; _a += 2) {
+                if (!strcmp(argv[_a], "--games")) _games = strtol(argv[_a + 1], NULL, 10);
+                else if (!strcmp(argv[_a], "--seed")) _rng = strtoull(argv[_a + 1], NULL, 10);
+                }
+                // xorshift64*, which needs a non-zero state:
+                _rng = _rng * 2685821657736338717ULL | 1;
+                uint32_t _random(uint32_t n) {
+                _rng ^= _rng >> 12;
+                _rng ^= _rng << 25;
+                _rng ^= _rng >> 27;
+                return (uint32_t) ((_rng * 2685821657736338717ULL >> 32) * n >> 32);
+                }
+                struct timespec _begin, _end;
+                clock_gettime(CLOCK_MONOTONIC, &_begin);
+                for (long _game = 0; _game < _games; _game++) {
+                """)
+                .append(PIECE_STRUCT);
+        setupStruct.writeTo(out);
+        out.append('\n');
+        gameStruct.writeTo(out, setupStruct);
+        out.append("""
+                }
+                clock_gettime(CLOCK_MONOTONIC, &_end);
+                double _secs = (_end.tv_sec - _begin.tv_sec) + (_end.tv_nsec - _begin.tv_nsec) / 1e9;
+                printf("%ld games, %ld turns in %.3f s: %.0f games/s, %.0f turns/s\\n",
+                _games, _turns, _secs, _games / _secs, _turns / _secs);
+                printf("Player 1 wins: %ld (%.1f%%)\\n", _wins[0], 100.0 * _wins[0] / _games);
+                printf("Player 2 wins: %ld (%.1f%%)\\n", _wins[1], 100.0 * _wins[1] / _games);
+                printf("Draws (no move or turn limit): %ld (%.1f%%)\\n", _draws, 100.0 * _draws / _games);
+                printf("Full board (win or draw): %ld (%.1f%%)\\n", _full, 100.0 * _full / _games);
+                return 0;
+                }
+                """);
+    }
+
+    /**
+     * Adds {@code _random_cell}, which picks a uniformly random empty tile, or returns -1 if the
+     * board is full. The {@code n}th empty tile is found by counting bits word by word.
+     */
+    @Override
+    protected void runtime(Appendable out, GriddyStructure.SetupStruct setupStruct) throws IOException {
+        super.runtime(out, setupStruct);
+        out.append("""
+                bool _stuck = 0;
+                int _random_cell(void) {
+                int _cells = _WIDTH * _HEIGHT, _free = _cells;
+                for (int _w = 0; _w * 64 < _cells; _w++) _free -= __builtin_popcountll(_occ[_w]);
+                if (_free == 0) return -1;
+                uint32_t _r = _random(_free);
+                for (int _w = 0; _w * 64 < _cells; _w++) {
+                uint64_t _z = ~_occ[_w];
+                if (_cells - _w * 64 < 64) _z &= (1ULL << (_cells - _w * 64)) - 1;
+                uint32_t _k = __builtin_popcountll(_z);
+                if (_r < _k) {
+                while (_r--) _z &= _z - 1;
+                return _w * 64 + __builtin_ctzll(_z);
+                }
+                _r -= _k;
+                }
+                return -1;
+                }
+                """);
+    }
+
+    @Override
+    protected void boardRenderer(Appendable out, GriddyStructure.SetupStruct setupStruct) {}
+
+    @Override
+    public void game(Appendable out, GriddyStructure.SetupStruct setupStruct, CharSequence body, CharSequence winCond) throws IOException {
+        out.append("""
+                /*   GAME    */
+                do {
+                _current_player = _turn_count % 2 + 1;
+                """)
+                .append(body)
+                .append("_win_condition = ").append(winCond).append(";\n")
+                .append("""
+                _turn_count++;
+                } while (!_win_condition && !_stuck && _turn_count < _MAX_TURNS);
+                _turns += _turn_count;
+                int _filled = 0;
+                for (int _w = 0; _w * 64 < _WIDTH * _HEIGHT; _w++) _filled += __builtin_popcountll(_occ[_w]);
+                if (!_win_condition || _stuck) _draws++;
+                else if (_filled == _WIDTH * _HEIGHT) _full++;
+                else _wins[_current_player - 1]++;
+                """);
+    }
+
+    @Override
+    public void place(StringBuilder out, String pieceIdent) {
+        out.append("{\nint _place_cell;\n")
+                .append("if (").append(placeable(pieceIdent)).append("&&(_place_cell = _random_cell()) >= 0) {\n");
+        placePiece(out, pieceIdent, "_place_cell");
+        out.append("} else _stuck = 1;\n}\n");
+    }
+
+    @Override
+    public void outputString(StringBuilder out, CharSequence body) {
+        out.append("(void) (").append(body).append(");\n");
+    }
+
+    @Override
+    public void outputNumber(StringBuilder out, CharSequence body) {
+        outputString(out, body);
+    }
+
+    @Override
+    public void outputTable(StringBuilder out, int w, int h) {}
+
+    @Override
+    public void input(StringBuilder out, CharSequence target) {}
+}
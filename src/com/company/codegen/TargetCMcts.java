@@ -0,0 +1,464 @@
+package com.company.codegen;
+
+import com.company.ir.Ir;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * C target with a Monte Carlo tree search opponent.
+ * <br>
+ * Run as {@code ./a.out --ai P --threads N --budget MS}. Every {@code place} of the players in
+ * the {@code --ai} mask, 1 for player one and 2 for player two, is chosen by searching for
+ * {@code --budget} milliseconds with {@code --threads} worker threads, and echoed after the
+ * prompt as if it was typed. Other players are asked for their moves as usual. With
+ * {@code --stats}, every search prints its playouts per second to stderr.
+ * <br>
+ * The game is generated into {@code _instance}, which the main thread runs to play the game, and
+ * every worker runs to play rollouts. So each thread has board, pieces and functions of its own,
+ * and rollouts end with the program's own win condition. A worker copies the position of the
+ * search from {@code _snap_*}: the board, piece counts, turn count, and top level numbers and
+ * booleans. In workers {@code place} follows the tree and then picks random empty tiles,
+ * {@code output} only evaluates its argument and {@code input} leaves its variable unchanged.
+ * Rollouts are scored like {@link TargetCHeadless} games.
+ * <br>
+ * Tree nodes live in {@code _nodes}, and are only updated with atomics. A node's children are
+ * allocated together once it's been visited {@code _EXPAND} times, one for each empty tile, and
+ * are claimed in order by {@code tried} before the rest are chosen by UCT. Visits are counted on
+ * the way down, so rollouts in flight count as losses and threads spread over the tree. Moves
+ * played in the game move the root to the matching child, keeping its subtree for the next
+ * search, until the pool is three quarters full.
+ * <br>
+ * Nodes of the same position share statistics in the {@link #TRANSPOSITION_TABLE}, keyed by the
+ * Zobrist hash of the board, so moves are rated by every rollout through the position they lead
+ * to, whatever order its pieces were placed in. When {@link #symmetric}, rotations and
+ * reflections of a square board hash alike too.
+ */
+public class TargetCMcts extends TargetC {
+    public static final int MAX_TURNS = TargetCHeadless.MAX_TURNS;
+
+    /** Whether positions of square boards are searched up to rotation and reflection. */
+    public final boolean symmetric;
+
+    public TargetCMcts() {
+        this(false);
+    }
+
+    /**
+     * @param symmetric whether rotations and reflections of a square board are the same position,
+     *                  which only holds for rules which treat all directions alike
+     */
+    public TargetCMcts(boolean symmetric) {
+        this.symmetric = symmetric;
+    }
+
+    @Override
+    protected boolean hashing() {
+        return true;
+    }
+
+    @Override
+    protected int symmetries(GriddyStructure.SetupStruct setupStruct) {
+        return symmetric && setupStruct.boardWidth == setupStruct.boardHeight ? 8 : 1;
+    }
+
+    @Override
+    public void wrapper(Appendable out, GriddyStructure.SetupStruct setupStruct, GriddyStructure.GameStruct gameStruct) throws IOException {
+        int words = Math.max(1, (setupStruct.boardWidth * setupStruct.boardHeight + 63) / 64);
+        int masks = Math.max(1, 2 * setupStruct.playerDef.player1.size());
+
+        out.append("/* === Code generated by Griddy compiler (mcts) === */\n")
+                .append("#define _POSIX_C_SOURCE 200809L\n")
+                .append(INCLUDES)
+                .append("""
+                #include <pthread.h>
+                #include <stdatomic.h>
+                #include <time.h>
+                #include <unistd.h>
+                """)
+                .append("#define _MAX_TURNS ").append(Integer.toString(MAX_TURNS)).append('\n')
+                .append("""
+                #define _MAX_PATH 1024
+                #define _EXPAND 8
+                #define _UCT_C 1.0
+                """)
+                .append(TRANSPOSITION_TABLE)
+                .append("static uint64_t _snap_bb[").append(Integer.toString(masks)).append("][").append(Integer.toString(words))
+                .append("], _snap_occ[").append(Integer.toString(words)).append("];\n")
+                .append("static unsigned int _snap_count[").append(Integer.toString(masks)).append("];\n")
+                .append("static int _snap_turn;\n");
+        if (setupStruct.pointerBoard)
+            out.append("static ").append(cellType(setupStruct)).append(" _snap_board[")
+                    .append(Integer.toString(setupStruct.boardWidth * setupStruct.boardHeight)).append("];\n");
+        out.append("static uint64_t _snap_hash[").append(Integer.toString(symmetries(setupStruct))).append("];\n");
+        for (var v : snapshotVariables(setupStruct)) out.append("static int _snap_v_").append(v).append(";\n");
+        out.append("""
+                struct _Node {
+                atomic_int visits;
+                // Two points for a win and one for a draw of the player who made the move:
+                atomic_int score;
+                // Children are _nodes[first] up to _nodes[first + children], or first is -1:
+                atomic_int first;
+                atomic_int children;
+                atomic_int tried;
+                int move;
+                int player;
+                // Statistics shared by all nodes of the same position, or NULL:
+                struct _TTEntry *entry;
+                };
+                static struct _Node *_nodes;
+                static atomic_int _node_count;
+                static int _node_cap = 1 << 22, _root;
+                static atomic_int _running;
+                static atomic_long _playouts;
+                static int _busy, _quit;
+                static pthread_mutex_t _lock = PTHREAD_MUTEX_INITIALIZER;
+                static pthread_cond_t _wake = PTHREAD_COND_INITIALIZER, _idle = PTHREAD_COND_INITIALIZER;
+                static int _ai = 2, _threads = 0, _budget = 1000, _stats = 0, _argc;
+                static char **_argv;
+                static double _mcts_sqrt(double x) {
+                if (x <= 0) return 0;
+                union { double d; uint64_t u; } _v = {x};
+                _v.u = (_v.u >> 1) + (1023ULL << 51);
+                for (int _i = 0; _i < 4; _i++) _v.d = (_v.d + x / _v.d) / 2;
+                return _v.d;
+                }
+                static double _mcts_log(int n) {
+                // Linear between powers of two is within 0.09 of ln, plenty for exploration:
+                int _e = 31 - __builtin_clz(n);
+                return (_e + (double) (n - (1 << _e)) / (1 << _e)) * 0.6931471805599453;
+                }
+                static int _mcts_node(int move, int player) {
+                int _i = atomic_fetch_add(&_node_count, 1);
+                struct _Node *_v = &_nodes[_i];
+                atomic_init(&_v->visits, 0);
+                atomic_init(&_v->score, 0);
+                atomic_init(&_v->first, -1);
+                atomic_init(&_v->children, 0);
+                atomic_init(&_v->tried, 0);
+                _v->move = move;
+                _v->player = player;
+                _v->entry = NULL;
+                return _i;
+                }
+                static bool _mcts_expands(int node) {
+                return atomic_load_explicit(&_nodes[node].first, memory_order_acquire) < 0
+                && (node == _root || atomic_load_explicit(&_nodes[node].visits, memory_order_relaxed) >= _EXPAND);
+                }
+                // Child of node to descend into, or -1 to play on at random from it. Expanding a node
+                // takes the positions its moves lead to, keys:
+                static int _mcts_select(int node, int player, const int *cells, const uint64_t *keys, int n) {
+                struct _Node *_v = &_nodes[node];
+                int _first = atomic_load_explicit(&_v->first, memory_order_acquire);
+                if (_first < 0) {
+                if (!keys || node != _root && atomic_load_explicit(&_v->visits, memory_order_relaxed) < _EXPAND) return -1;
+                if (atomic_load_explicit(&_node_count, memory_order_relaxed) + n > _node_cap) return -1;
+                int _b = atomic_fetch_add(&_node_count, n);
+                if (_b + n > _node_cap) return -1;
+                for (int _i = 0; _i < n; _i++) {
+                struct _Node *_c = &_nodes[_b + _i];
+                atomic_init(&_c->visits, 0);
+                atomic_init(&_c->score, 0);
+                atomic_init(&_c->first, -1);
+                atomic_init(&_c->children, 0);
+                atomic_init(&_c->tried, 0);
+                _c->move = cells[_i];
+                _c->player = player;
+                _c->entry = _tt_entry(keys[_i], 1);
+                }
+                atomic_store_explicit(&_v->children, n, memory_order_relaxed);
+                int _expected = -1;
+                // Whoever loses the race leaves its block unused:
+                _first = atomic_compare_exchange_strong_explicit(&_v->first, &_expected, _b,
+                memory_order_acq_rel, memory_order_acquire) ? _b : _expected;
+                }
+                int _child = -1, _k = atomic_fetch_add_explicit(&_v->tried, 1, memory_order_relaxed);
+                if (_k < n) _child = _first + _k;
+                else {
+                double _lt = _mcts_log(atomic_load_explicit(&_v->visits, memory_order_relaxed) + 1), _best = -1;
+                for (int _i = _first; _i < _first + n; _i++) {
+                int _visits = atomic_load_explicit(&_nodes[_i].visits, memory_order_relaxed);
+                if (_visits == 0) {
+                _child = _i;
+                break;
+                }
+                // Rate moves by every rollout through their position, in any move order:
+                uint64_t _e = _nodes[_i].entry ? atomic_load_explicit(&_nodes[_i].entry->stats, memory_order_relaxed) : 0;
+                double _u = (_e >> 32 ? (uint32_t) _e / (2.0 * (_e >> 32))
+                : atomic_load_explicit(&_nodes[_i].score, memory_order_relaxed) / (2.0 * _visits))
+                + _UCT_C * _mcts_sqrt(_lt / _visits);
+                if (_u > _best) _best = _u, _child = _i;
+                }
+                }
+                atomic_fetch_add_explicit(&_nodes[_child].visits, 1, memory_order_relaxed);
+                return _child;
+                }
+                static void _mcts_backup(const int *path, int depth, int winner) {
+                for (int _i = 0; _i < depth; _i++) {
+                struct _Node *_v = &_nodes[path[_i]];
+                int _s = _v->player == winner ? 2 : winner ? 0 : 1;
+                atomic_fetch_add_explicit(&_v->score, _s, memory_order_relaxed);
+                if (_v->entry) atomic_fetch_add_explicit(&_v->entry->stats, _TT_VISIT(_s), memory_order_relaxed);
+                }
+                atomic_fetch_add_explicit(&_playouts, 1, memory_order_relaxed);
+                }
+                // Whether workers should play another rollout, waiting for the next search:
+                static bool _mcts_wait(void) {
+                if (atomic_load_explicit(&_running, memory_order_acquire)) return 1;
+                pthread_mutex_lock(&_lock);
+                if (--_busy == 0) pthread_cond_broadcast(&_idle);
+                while (!_quit && !atomic_load(&_running)) pthread_cond_wait(&_wake, &_lock);
+                bool _go = !_quit;
+                if (_go) _busy++;
+                pthread_mutex_unlock(&_lock);
+                return _go;
+                }
+                // Search the published position, and return the most visited move, or -1:
+                static int _mcts_search(void) {
+                struct timespec _begin, _end, _sleep = {_budget / 1000, _budget % 1000 * 1000000L};
+                clock_gettime(CLOCK_MONOTONIC, &_begin);
+                long _before = atomic_load(&_playouts);
+                pthread_mutex_lock(&_lock);
+                atomic_store(&_running, 1);
+                pthread_cond_broadcast(&_wake);
+                pthread_mutex_unlock(&_lock);
+                while (nanosleep(&_sleep, &_sleep));
+                atomic_store(&_running, 0);
+                pthread_mutex_lock(&_lock);
+                while (_busy > 0) pthread_cond_wait(&_idle, &_lock);
+                pthread_mutex_unlock(&_lock);
+                clock_gettime(CLOCK_MONOTONIC, &_end);
+
+                int _best = -1, _most = -1, _first = atomic_load(&_nodes[_root].first);
+                for (int _i = _first; _first >= 0 && _i < _first + atomic_load(&_nodes[_root].children); _i++)
+                if (atomic_load(&_nodes[_i].visits) > _most) _most = atomic_load(&_nodes[_i].visits), _best = _i;
+                if (_stats) {
+                double _secs = (_end.tv_sec - _begin.tv_sec) + (_end.tv_nsec - _begin.tv_nsec) / 1e9;
+                long _n = atomic_load(&_playouts) - _before;
+                fprintf(stderr, "mcts: %ld playouts in %.3f s, %.0f playouts/s, %d threads, %d nodes, %d positions\\n",
+                _n, _secs, _n / _secs, _threads, atomic_load(&_node_count), atomic_load(&_tt_used));
+                }
+                return _best < 0 ? -1 : _nodes[_best].move;
+                }
+                // Move the root along a move played in the game:
+                static void _mcts_advance(int cell) {
+                int _next = -1, _first = atomic_load(&_nodes[_root].first);
+                for (int _i = _first; _first >= 0 && _i < _first + atomic_load(&_nodes[_root].children); _i++)
+                if (_nodes[_i].move == cell) _next = _i;
+                if (atomic_load(&_node_count) > _node_cap / 4 * 3) atomic_store(&_node_count, 0), _next = -1;
+                _root = _next >= 0 ? _next : _mcts_node(-1, 0);
+                }
+
+                void _instance(int _worker, int argc, char *argv[]) {
+                uint64_t _rng = (_worker + 1) * 2685821657736338717ULL | 1;
+                uint32_t _random(uint32_t n) {
+                _rng ^= _rng >> 12;
+                _rng ^= _rng << 25;
+                _rng ^= _rng >> 27;
+                return (uint32_t) ((_rng * 2685821657736338717ULL >> 32) * n >> 32);
+                }
+                """)
+                .append(PIECE_STRUCT);
+        setupStruct.writeTo(out);
+        out.append('\n');
+        gameStruct.writeTo(out, setupStruct);
+        if (setupStruct.boardOutput) out.append("if (!_worker) _render_end();\n");
+        out.append("""
+                }
+
+                void *_mcts_worker(void *arg) {
+                _instance((int) (intptr_t) arg, _argc, _argv);
+                return NULL;
+                }
+
+                int main(int argc, char *argv[]){
+                _argc = argc;
+                _argv = argv;
+                for (int _a = 1; _a < argc; _a++) {
+                if (!strcmp(argv[_a], "--stats")) _stats = 1;
+                else if (_a + 1 < argc && !strcmp(argv[_a], "--ai")) _ai = atoi(argv[++_a]);
+                else if (_a + 1 < argc && !strcmp(argv[_a], "--threads")) _threads = atoi(argv[++_a]);
+                else if (_a + 1 < argc && !strcmp(argv[_a], "--budget")) _budget = atoi(argv[++_a]);
+                else if (_a + 1 < argc && !strcmp(argv[_a], "--nodes")) _node_cap = atoi(argv[++_a]);
+                }
+                if (_threads <= 0) _threads = sysconf(_SC_NPROCESSORS_ONLN);
+                if (_threads <= 0) _threads = 1;
+                if (_node_cap < 1024) _node_cap = 1024;
+                if (!(_nodes = calloc(_node_cap, sizeof *_nodes))) {
+                fprintf(stderr, "Out of memory for %d search nodes\\n", _node_cap);
+                return 1;
+                }
+                _root = _mcts_node(-1, 0);
+                pthread_t *_pool = calloc(_threads, sizeof *_pool);
+                _busy = _threads;
+                for (int _t = 0; _t < _threads; _t++) pthread_create(&_pool[_t], NULL, _mcts_worker, (void *) (intptr_t) (_t + 1));
+                _instance(0, argc, argv);
+                pthread_mutex_lock(&_lock);
+                _quit = 1;
+                pthread_cond_broadcast(&_wake);
+                pthread_mutex_unlock(&_lock);
+                for (int _t = 0; _t < _threads; _t++) pthread_join(_pool[_t], NULL);
+                return 0;
+                }
+                """);
+    }
+
+    /** Top level numbers and booleans, which are part of a position. */
+    private static ArrayList<String> snapshotVariables(GriddyStructure.SetupStruct setupStruct) {
+        var variables = new ArrayList<String>();
+        for (var global : setupStruct.globals.entrySet())
+            if (global.getValue() == Ir.T_INT || global.getValue() == Ir.T_BOOL) variables.add(global.getKey());
+        return variables;
+    }
+
+    /**
+     * Adds {@code _mcts_choose(player)}, which picks a worker's move: down the tree while it
+     * can, and a uniformly random empty tile after, or -1 if the board is full. The position is
+     * published and restored by {@code _mcts_publish} and {@code _mcts_restore}, which are
+     * defined with the game, after the top level variables.
+     */
+    @Override
+    protected void runtime(Appendable out, GriddyStructure.SetupStruct setupStruct) throws IOException {
+        super.runtime(out, setupStruct);
+        out.append("""
+                auto void _mcts_publish(void);
+                auto void _mcts_restore(void);
+                bool _stuck = 0;
+                int _mcts_at = -1, _mcts_depth = 0, _mcts_path[_MAX_PATH];
+                int _mcts_choose(int _p, int _m) {
+                int _cells[_WIDTH * _HEIGHT], _n = 0;
+                for (int _w = 0; _w * 64 < _WIDTH * _HEIGHT; _w++) {
+                uint64_t _z = ~_occ[_w];
+                if (_WIDTH * _HEIGHT - _w * 64 < 64) _z &= (1ULL << (_WIDTH * _HEIGHT - _w * 64)) - 1;
+                for (; _z; _z &= _z - 1) _cells[_n++] = _w * 64 + __builtin_ctzll(_z);
+                }
+                if (_n == 0) return -1;
+                if (_mcts_at >= 0 && _mcts_depth < _MAX_PATH) {
+                uint64_t _keys[_WIDTH * _HEIGHT];
+                bool _expands = _mcts_expands(_mcts_at);
+                for (int _i = 0; _expands && _i < _n; _i++) _keys[_i] = _position_after(_m, _cells[_i]);
+                int _child = _mcts_select(_mcts_at, _p, _cells, _expands ? _keys : NULL, _n);
+                _mcts_at = _child;
+                if (_child >= 0) return _nodes[_mcts_path[_mcts_depth++] = _child].move;
+                }
+                return _cells[_random(_n)];
+                }
+                """);
+        if (setupStruct.playerDef.player1.isEmpty())
+            // Boards without pieces have a single position:
+            out.append("uint64_t _hash[1] = {0};\nuint64_t _position_after(int m, int c) {\nreturn 0;\n}\n");
+        int cached = setupStruct.cachedConditions.size();
+        if (cached > 0)
+            out.append("void _win_reset(void) {\n")
+                    .append("for (int _i = 0; _i < ").append(Integer.toString(cached)).append("; _i++)\n")
+                    .append("if (!_win_queued[_i]) _win_queued[_i] = 1, _win_dirty[_win_dirty_n++] = _i;\n")
+                    .append("}\n");
+    }
+
+    /** Snapshots of a position cover the setup's variables and board. */
+    @Override
+    public void game(Appendable out, GriddyStructure.SetupStruct setupStruct, CharSequence body, CharSequence winCond) throws IOException {
+        out.append("""
+                /*   GAME    */
+                void _mcts_publish(void) {
+                memcpy(_snap_bb, _bb, sizeof _bb);
+                memcpy(_snap_occ, _occ, sizeof _occ);
+                memcpy(_snap_count, _count, sizeof _count);
+                _snap_turn = _turn_count;
+                memcpy(_snap_hash, _hash, sizeof _hash);
+                """);
+        if (setupStruct.pointerBoard) out.append("memcpy(_snap_board, _board, sizeof _board);\n");
+        var variables = snapshotVariables(setupStruct);
+        for (var v : variables) out.append("_snap_v_").append(v).append(" = ").append(v).append(";\n");
+        out.append("""
+                }
+                void _mcts_restore(void) {
+                memcpy(_bb, _snap_bb, sizeof _bb);
+                memcpy(_occ, _snap_occ, sizeof _occ);
+                memcpy(_count, _snap_count, sizeof _count);
+                _turn_count = _snap_turn;
+                memcpy(_hash, _snap_hash, sizeof _hash);
+                """);
+        for (var v : variables) out.append(v).append(" = _snap_v_").append(v).append(";\n");
+        if (setupStruct.pointerBoard)
+            out.append("memcpy(_board, _snap_board, sizeof _board);\n");
+        if (!setupStruct.cachedConditions.isEmpty()) out.append("_win_reset();\n");
+        out.append("""
+                _stuck = 0;
+                _win_condition = 0;
+                _mcts_at = _root;
+                _mcts_depth = 0;
+                atomic_fetch_add_explicit(&_nodes[_root].visits, 1, memory_order_relaxed);
+                }
+                while (!_worker || _mcts_wait()) {
+                if (_worker) _mcts_restore();
+                do {
+                _current_player = _turn_count % 2 + 1;
+                """)
+                .append(body)
+                .append("_win_condition = ").append(winCond).append(";\n")
+                .append("""
+                _turn_count++;
+                } while (!_win_condition && !(_worker && (_stuck || _turn_count >= _snap_turn + _MAX_TURNS)));
+                if (!_worker) break;
+                int _filled = 0;
+                for (int _w = 0; _w * 64 < _WIDTH * _HEIGHT; _w++) _filled += __builtin_popcountll(_occ[_w]);
+                _mcts_backup(_mcts_path, _mcts_depth, !_win_condition || _stuck || _filled == _WIDTH * _HEIGHT
+                ? 0 : _current_player);
+                }
+                """);
+    }
+
+    @Override
+    public void place(StringBuilder out, String pieceIdent) {
+        out.append("{\nint _place_cell = -1;\n")
+                .append("if (").append(placeable(pieceIdent)).append(") {\n")
+                .append("if (_worker) _place_cell = _mcts_choose(_current_player, _PIECE(_current_player, _piece_").append(pieceIdent).append("));\n")
+                .append("""
+                else if (_ai & _current_player) {
+                _mcts_publish();
+                if ((_place_cell = _mcts_search()) >= 0) printf("Input: %c%d\\n", 'a' + _place_cell % _WIDTH, _place_cell / _WIDTH + 1);
+                }
+                }
+                if (_worker) {
+                if (_place_cell < 0) _stuck = 1;
+                } else while (_place_cell < 0) {
+                char _place_arg_x;
+                int _place_arg_y;
+                """);
+        printLiteral(out, "Input: ");
+        readMove(out);
+        out.append("int _c = _CELL(_place_arg_x - 'a' + 1, _place_arg_y);\n")
+                .append("if (").append(placeable(pieceIdent))
+                .append("&&(unsigned)(_place_arg_x-'a')<_WIDTH&&(unsigned)(_place_arg_y-1)<_HEIGHT&&_EMPTY(_c)) _place_cell = _c;\n")
+                .append("else ");
+        printLiteral(out, "Invalid piece placement! Try again:\\n");
+        out.append("}\nif (_place_cell >= 0) {\n");
+        placePiece(out, pieceIdent, "_place_cell");
+        out.append("if (!_worker) _mcts_advance(_place_cell);\n}\n}\n");
+    }
+
+    @Override
+    public void outputString(StringBuilder out, CharSequence body) {
+        out.append("if (_worker) (void) (").append(body).append(");\nelse ");
+        super.outputString(out, body);
+    }
+
+    @Override
+    public void outputNumber(StringBuilder out, CharSequence body) {
+        out.append("if (_worker) (void) (").append(body).append(");\nelse ");
+        super.outputNumber(out, body);
+    }
+
+    @Override
+    public void outputTable(StringBuilder out, int w, int h) {
+        out.append("if (!_worker) ");
+        super.outputTable(out, w, h);
+    }
+
+    @Override
+    public void input(StringBuilder out, CharSequence target) {
+        out.append("if (!_worker) ");
+        super.input(out, target);
+    }
+}
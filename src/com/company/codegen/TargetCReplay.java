@@ -0,0 +1,201 @@
+package com.company.codegen;
+
+import java.io.IOException;
+
+/**
+ * C target which replays moves non-interactively, e.g. from a recorded game or a test script.
+ * <br>
+ * Moves and {@code input} values are read one per line, from the file given as
+ * {@code --moves <path>} or from standard input. Regular files are memory-mapped, anything else
+ * is read into one buffer up front, and lines are decoded by hand instead of through
+ * {@code scanf}. The program exits once the input runs out.
+ * <br>
+ * Output is gathered in a single buffer, which is written at the end of a turn once it's half
+ * full, when it's full and at exit. For well-formed input, a column letter and a row number per
+ * move, e.g. {@code b2}, and a number per {@code input}, it's byte for byte what the interactive
+ * program prints, prompts included.
+ * <br>
+ * Malformed lines differ, as every line here is exactly one move or number. A move is the first
+ * character of its line and the number after it, read as 0 when there's none, and the rest of the
+ * line is ignored, so an empty line or a column without a row, e.g. {@code b}, is an invalid
+ * placement. The interactive {@code scanf("%c%d")} would instead take the newline as the column,
+ * or go on reading the row from the next line, and leaves the row unset when there's no number.
+ */
+public class TargetCReplay extends TargetC {
+    public static final int OUTPUT_BUFFER = 1 << 16;
+
+    @Override
+    public void wrapper(Appendable out, GriddyStructure.SetupStruct setupStruct, GriddyStructure.GameStruct gameStruct) throws IOException {
+        out.append("/* === Code generated by Griddy compiler (replay) === */\n")
+                .append("#define _POSIX_C_SOURCE 200809L\n")
+                .append(INCLUDES)
+                .append("""
+                #include <fcntl.h>
+                #include <sys/mman.h>
+                #include <sys/stat.h>
+                #include <unistd.h>
+                """)
+                .append("#define _OUT_SIZE ").append(Integer.toString(OUTPUT_BUFFER)).append('\n')
+                .append("\nint main(int argc, char *argv[]){\n")
+                .append("""
+                const char *_in_pos = NULL, *_in_end = NULL;
+                {
+                int _fd = argc > 2 && !strcmp(argv[1], "--moves") ? open(argv[2], O_RDONLY) : 0;
+                if (_fd < 0) {
+                perror(argv[2]);
+                return 1;
+                }
+                struct stat _st;
+                void *_map = fstat(_fd, &_st) == 0 && S_ISREG(_st.st_mode) && _st.st_size > 0
+                ? mmap(NULL, _st.st_size, PROT_READ, MAP_PRIVATE, _fd, 0) : MAP_FAILED;
+                if (_map != MAP_FAILED) {
+                _in_pos = _map;
+                _in_end = _in_pos + _st.st_size;
+                } else {
+                size_t _cap = 1 << 20, _len = 0;
+                char *_buf = malloc(_cap);
+                ssize_t _k;
+                while (_buf && (_k = read(_fd, _buf + _len, _cap - _len)) > 0)
+                if ((_len += _k) == _cap) _buf = realloc(_buf, _cap *= 2);
+                _in_pos = _buf;
+                _in_end = _buf ? _buf + _len : NULL;
+                }
+                }
+                // Next line of input, without its newline, or NULL at the end:
+                const char *_next_line(const char **end) {
+                if (_in_pos >= _in_end) return NULL;
+                const char *_line = _in_pos, *_nl = memchr(_in_pos, '\\n', _in_end - _in_pos);
+                *end = _nl ? _nl : _in_end;
+                _in_pos = _nl ? _nl + 1 : _in_end;
+                return _line;
+                }
+                int _parse_int(const char *s, const char *end) {
+                while (s < end && (*s == ' ' || *s == '\\t')) s++;
+                bool _neg = s < end && *s == '-';
+                s += _neg;
+                int _v = 0;
+                while (s < end && *s >= '0' && *s <= '9') _v = _v * 10 + (*s++ - '0');
+                return _neg ? -_v : _v;
+                }
+                char _out[_OUT_SIZE];
+                size_t _out_len = 0;
+                void _write_all(const char *s, size_t n) {
+                for (size_t _o = 0; _o < n;) {
+                ssize_t _k = write(1, s + _o, n - _o);
+                if (_k <= 0) break;
+                _o += _k;
+                }
+                }
+                void _out_flush(void) {
+                _write_all(_out, _out_len);
+                _out_len = 0;
+                }
+                void _put(const char *s, size_t n) {
+                if (_out_len + n > _OUT_SIZE) _out_flush();
+                if (n > _OUT_SIZE) {
+                _write_all(s, n);
+                return;
+                }
+                memcpy(_out + _out_len, s, n);
+                _out_len += n;
+                }
+                void _put_str(const char *s) {
+                _put(s, strlen(s));
+                }
+                void _put_char(char c) {
+                if (_out_len == _OUT_SIZE) _out_flush();
+                _out[_out_len++] = c;
+                }
+                void _put_int(int v) {
+                char _t[12];
+                int _i = 12;
+                unsigned _u = v < 0 ? -(unsigned) v : (unsigned) v;
+                do _t[--_i] = '0' + _u % 10; while (_u /= 10);
+                if (v < 0) _t[--_i] = '-';
+                _put(_t + _i, 12 - _i);
+                }
+                """)
+                .append(PIECE_STRUCT);
+        setupStruct.writeTo(out);
+        out.append('\n');
+        gameStruct.writeTo(out, setupStruct);
+        if (setupStruct.boardOutput) out.append("_render_end();\n");
+        out.append("""
+                _out_flush();
+                return 0;
+                }
+                """);
+    }
+
+    /** Adds {@code _end_of_input()}, which ends the program once the input runs out. */
+    @Override
+    protected void runtime(Appendable out, GriddyStructure.SetupStruct setupStruct) throws IOException {
+        super.runtime(out, setupStruct);
+        out.append("void _end_of_input(void) {\n");
+        if (setupStruct.boardOutput) out.append("_render_end();\n");
+        out.append("""
+                _out_flush();
+                exit(0);
+                }
+                """);
+    }
+
+    /** Frames go through the output buffer too, so they stay in order with everything else. */
+    @Override
+    protected void frameWrite(Appendable out) throws IOException {
+        out.append("""
+                void _frame_write(size_t n) {
+                _put(_frame, n);
+                }
+                """);
+    }
+
+    @Override
+    public void game(Appendable out, GriddyStructure.SetupStruct setupStruct, CharSequence body, CharSequence winCond) throws IOException {
+        out.append("""
+                /*   GAME    */
+                do {
+                _current_player = _turn_count % 2 + 1;
+                """)
+                .append(body)
+                .append("_win_condition = ").append(winCond).append(";\n")
+                .append("""
+                _turn_count++;
+                if (_out_len >= _OUT_SIZE / 2) _out_flush();
+                } while (!_win_condition);
+
+                """);
+    }
+
+    @Override
+    public void outputString(StringBuilder out, CharSequence body) {
+        out.append("_put_str(").append(body).append(");\n_put_char('\\n');\n");
+    }
+
+    @Override
+    public void outputNumber(StringBuilder out, CharSequence body) {
+        out.append("_put_int(").append(body).append(");\n_put_char('\\n');\n");
+    }
+
+    @Override
+    public void input(StringBuilder out, CharSequence target) {
+        out.append("{\nconst char *_e, *_l = _next_line(&_e);\n")
+                .append("if (!_l) _end_of_input();\n")
+                .append(target).append(" = _parse_int(_l, _e);\n}\n");
+    }
+
+    @Override
+    protected void readMove(StringBuilder out) {
+        out.append("""
+                const char *_move_end, *_move = _next_line(&_move_end);
+                if (!_move) _end_of_input();
+                _place_arg_x = _move < _move_end ? *_move : '\\n';
+                _place_arg_y = _parse_int(_move + (_move < _move_end), _move_end);
+                """);
+    }
+
+    @Override
+    protected void printLiteral(StringBuilder out, String text) {
+        out.append("_put_str(\"").append(text).append("\");\n");
+    }
+}
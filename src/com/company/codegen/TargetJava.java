@@ -0,0 +1,562 @@
+package com.company.codegen;
+
+import com.company.Util;
+import com.company.ir.Ir;
+import com.company.ir.PassManager;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Java target, which generates a single class, {@value #CLASS_NAME}, meant to be compiled and
+ * loaded in process by {@link com.company.GriddyJava}.
+ * <br>
+ * The board is an {@code int[]} of piece ids, indexed like {@link TargetC}'s tiles, with
+ * {@code 0} for an empty tile and {@code _p1 + _piece_<type>} or {@code _p2 + _piece_<type>} for
+ * a piece. Players are {@code 1} and {@code 2}. Functions and top level variables are static
+ * members, so the JIT compiles functions like any other method.
+ * <br>
+ * {@code play(in, out)} runs the game, with the same prompts and output as the C program for
+ * the same input, and returns once the input runs out. Game state is static, so a loaded class
+ * plays one game at a time.
+ */
+public class TargetJava implements OutputTemplates {
+    public static final String CLASS_NAME = "GriddyGame";
+
+    @Override
+    public boolean members() {
+        return true;
+    }
+
+    /** Win condition caching needs C's runtime, and the JIT keeps tile reads in registers anyway. */
+    @Override
+    public PassManager passes() {
+        return PassManager.portable();
+    }
+
+    public void typeString(StringBuilder out, String str) {
+        var value = Util.unescape(str);
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> out.append("\\\"");
+                case '\\' -> out.append("\\\\");
+                case '\n' -> out.append("\\n");
+                case '\t' -> out.append("\\t");
+                case '\r' -> out.append("\\r");
+                default -> {
+                    if (c < ' ' || c == 0x7f) out.append(String.format("\\%03o", (int) c));
+                    else out.append(c);
+                }
+            }
+        }
+        out.append('"');
+    }
+
+    public void typeNumber(StringBuilder out, int num) {
+        out.append(num);
+    }
+
+    public void typeBoolean(StringBuilder out, boolean bool) {
+        out.append(bool);
+    }
+
+    /** Properties of a piece, in the tables indexed by piece id. */
+    public void pieceDef(Appendable out, String ident, GriddyStructure.SetupStruct.PieceDef pieceDef) throws IOException {
+        var props = pieceDef.pieceProps;
+        var id = pieceDef.ownerPrefix + " + _piece_" + props.name;
+        out.append("_names[").append(id).append("] = \"").append(props.name).append("\";\n")
+                .append("_limit[").append(id).append("] = ").append(props.limit.toString()).append(";\n")
+                .append("_start_count[").append(id).append("] = ").append(Integer.toString(props.count)).append(";\n")
+                .append("_placeable[").append(id).append("] = ").append(Boolean.toString(props.placeable)).append(";\n")
+                .append("_capture[").append(id).append("] = ").append(Boolean.toString(props.capture)).append(";\n")
+                .append("_can_jump[").append(id).append("] = ").append(Boolean.toString(props.canJump)).append(";\n");
+    }
+
+    public void playerDef(Appendable out, GriddyStructure.SetupStruct.PlayerDef playerDef) throws IOException {
+        out.append("static final int _TYPES = ").append(Integer.toString(playerDef.player1.size())).append(";\n");
+        int type = 0;
+        for (String k : playerDef.player1.keySet())
+            out.append("static final int _piece_").append(k).append(" = ").append(Integer.toString(type++)).append(";\n");
+        out.append("""
+                static final int _p1 = 1, _p2 = _TYPES + 1;
+                static final String[] _names = new String[2 * _TYPES + 1];
+                static final int[] _limit = new int[2 * _TYPES + 1], _start_count = new int[2 * _TYPES + 1];
+                static final boolean[] _placeable = new boolean[2 * _TYPES + 1], _capture = new boolean[2 * _TYPES + 1],
+                _can_jump = new boolean[2 * _TYPES + 1];
+                static {
+                """);
+        for (var v : playerDef.player1.values()) v.writeTo(out);
+        for (var v : playerDef.player2.values()) v.writeTo(out);
+        out.append("}\n");
+    }
+
+    public void setup(Appendable out, GriddyStructure.SetupStruct setupStruct) throws IOException {
+        out.append("""
+                /*    SETUP    */
+                """);
+        setupStruct.playerDef.writeTo(out);
+
+        int w = setupStruct.boardWidth, h = setupStruct.boardHeight;
+        var types = new ArrayList<>(setupStruct.playerDef.player1.keySet());
+        out.append("static final int _WIDTH = ").append(Integer.toString(w))
+                .append(", _HEIGHT = ").append(Integer.toString(h)).append(";\n")
+                .append("static final int[] _start = new int[_WIDTH * _HEIGHT];\n")
+                .append("static {\n");
+        var board = setupStruct.getBoard();
+        for (int y = 0; y < h; y++)
+            for (int x = 0; x < w; x++) {
+                var pieceDef = board[y][x];
+                if (pieceDef == null) continue;
+                out.append("_start[").append(Integer.toString(y * w + x)).append("] = ")
+                        .append(pieceDef.ownerPrefix).append(" + _piece_").append(pieceDef.pieceProps.name).append(";\n");
+            }
+        out.append("}\n")
+                .append("""
+                static int[] _board, _count;
+                static int _current_player, _turn_count;
+                static boolean _win_condition;
+                """);
+        for (var global : setupStruct.globals.entrySet())
+            out.append("static ").append(type(global.getValue())).append(' ').append(global.getKey()).append(";\n");
+
+        runtime(out, setupStruct, types.size());
+        out.append(setupStruct.functions)
+                .append("""
+
+                public static void play(InputStream in, OutputStream out) {
+                _in = in;
+                _in_pos = _in_len = 0;
+                _out = out;
+                _out_len = 0;
+                _board = _start.clone();
+                _count = _start_count.clone();
+                _current_player = _turn_count = 0;
+                _win_condition = false;
+                try {
+                """)
+                .append(setupStruct.body);
+    }
+
+    /** Input and output like {@code scanf} and {@code printf}, placement, and what else the program needs. */
+    protected void runtime(Appendable out, GriddyStructure.SetupStruct setupStruct, int types) throws IOException {
+        out.append("""
+                static InputStream _in;
+                static OutputStream _out;
+                static final byte[] _in_buf = new byte[1 << 16], _out_buf = new byte[1 << 16];
+                static int _in_pos, _in_len, _out_len;
+                static final byte[] _INPUT = "Input: ".getBytes(StandardCharsets.UTF_8),
+                _INVALID = "Invalid piece placement! Try again:\\n".getBytes(StandardCharsets.UTF_8);
+                static final class _EndOfInput extends RuntimeException {
+                private static final long serialVersionUID = 1L;
+                _EndOfInput() {
+                super(null, null, false, false);
+                }
+                }
+                // Next input byte, or -1 at the end. Output is flushed before waiting for input:
+                static int _peek() {
+                if (_in_pos == _in_len) {
+                _flush();
+                try {
+                _in_len = _in.read(_in_buf, 0, _in_buf.length);
+                } catch (IOException e) {
+                throw new UncheckedIOException(e);
+                }
+                _in_pos = 0;
+                if (_in_len <= 0) {
+                _in_len = 0;
+                return -1;
+                }
+                }
+                return _in_buf[_in_pos] & 0xff;
+                }
+                static int _getchar() {
+                int _b = _peek();
+                if (_b >= 0) _in_pos++;
+                return _b;
+                }
+                static boolean _skip_space() {
+                int _b;
+                while ((_b = _peek()) == ' ' || _b >= '\\t' && _b <= '\\r') _in_pos++;
+                return _b >= 0;
+                }
+                // %d after whitespace, which leaves the target as it was if there's no number:
+                static int _scan_int(int fallback) {
+                boolean _neg = _peek() == '-';
+                if (_neg || _peek() == '+') _in_pos++;
+                if (_peek() < '0' || _peek() > '9') return fallback;
+                int _v = 0;
+                for (int _b; (_b = _peek()) >= '0' && _b <= '9'; _in_pos++) _v = _v * 10 + (_b - '0');
+                return _neg ? -_v : _v;
+                }
+                static void _skip_line() {
+                for (int _b; (_b = _getchar()) >= 0 && _b != '\\n';) ;
+                }
+                static int _read_int(int current) {
+                if (!_skip_space()) throw new _EndOfInput();
+                return _scan_int(current);
+                }
+                static boolean _truth(boolean b) {
+                return b;
+                }
+                static boolean _truth(int i) {
+                return i != 0;
+                }
+                static void _flush() {
+                try {
+                _out.write(_out_buf, 0, _out_len);
+                _out.flush();
+                } catch (IOException e) {
+                throw new UncheckedIOException(e);
+                }
+                _out_len = 0;
+                }
+                static void _put(byte[] b) {
+                if (_out_len + b.length > _out_buf.length) {
+                _flush();
+                if (b.length > _out_buf.length) {
+                try {
+                _out.write(b);
+                } catch (IOException e) {
+                throw new UncheckedIOException(e);
+                }
+                return;
+                }
+                }
+                System.arraycopy(b, 0, _out_buf, _out_len, b.length);
+                _out_len += b.length;
+                }
+                static void _put_byte(int b) {
+                if (_out_len == _out_buf.length) _flush();
+                _out_buf[_out_len++] = (byte) b;
+                }
+                static void _print(int v) {
+                if (_out_len + 12 > _out_buf.length) _flush();
+                long _u = Math.abs((long) v);
+                int _e = _out_len + (v < 0 ? 1 : 0);
+                for (long _t = _u; _t >= 10; _t /= 10) _e++;
+                if (v < 0) _out_buf[_out_len] = '-';
+                _out_len = _e + 1;
+                do _out_buf[_e--] = (byte) ('0' + _u % 10); while ((_u /= 10) > 0);
+                _put_byte('\\n');
+                }
+                static void _print(boolean v) {
+                _print(v ? 1 : 0);
+                }
+                static void _print(String s) {
+                _put((s != null ? s : "(null)").getBytes(StandardCharsets.UTF_8));
+                _put_byte('\\n');
+                }
+                static void _print_piece(int id) {
+                _print(_names[id]);
+                }
+                static int _piece_id(int player, int type) {
+                return (player == 2 ? _p2 : _p1) + type;
+                }
+                static void _place(int type) {
+                int _id = _piece_id(_current_player, type);
+                while (true) {
+                _put(_INPUT);
+                int _x = _getchar();
+                if (_x < 0) throw new _EndOfInput();
+                _skip_space();
+                int _y = _scan_int(0);
+                _skip_line();
+                // Moves are read as C chars, which are signed:
+                int _col = (byte) _x - 'a', _row = _y - 1;
+                if (_placeable[_id] && _count[_id] < _limit[_id] && _col >= 0 && _col < _WIDTH && _row >= 0 && _row < _HEIGHT
+                && _board[_row * _WIDTH + _col] == 0) {
+                _board[_row * _WIDTH + _col] = _id;
+                _count[_id]++;
+                return;
+                }
+                _put(_INVALID);
+                }
+                }
+                """);
+        if (setupStruct.boardOutput) boardRenderer(out, setupStruct);
+        if (setupStruct.legalMoves) moveGeneration(out, setupStruct, types);
+    }
+
+    /** {@code _render_board()}, which prints the same frame as {@link TargetC}'s renderer without {@code --tty}. */
+    protected void boardRenderer(Appendable out, GriddyStructure.SetupStruct setupStruct) throws IOException {
+        int w = setupStruct.boardWidth;
+        var footer = new StringBuilder();
+        for (int n : Util.range(1, w))
+            footer.append("  ").append((char) ('a' + n - 1)).append(' ');
+        out.append("static final String _TOP = \"┌───").append("┬───".repeat(Math.max(0, w - 1))).append("┐\\n\";\n")
+                .append("static final String _SEPARATOR = \"├───").append("┼───".repeat(Math.max(0, w - 1))).append("┤\\n\";\n")
+                .append("static final String _BOTTOM = \"└───").append("┴───".repeat(Math.max(0, w - 1))).append("┘\\n")
+                .append(footer).append("\\n\";\n")
+                .append("""
+                static void _render_board() {
+                StringBuilder _f = new StringBuilder(_TOP);
+                for (int _i = _HEIGHT - 1; _i >= 0; _i--) {
+                for (int _j = 0; _j < _WIDTH; _j++) {
+                int _id = _board[_i * _WIDTH + _j];
+                if (_id == 0) _f.append("│   ");
+                else if (_id < _p2) _f.append("│ \\033[33m\\033[1m").append(_names[_id].charAt(0)).append("\\033[0m ");
+                else _f.append("│ ").append(_names[_id].charAt(0)).append(' ');
+                }
+                _f.append("│ ").append(_i + 1).append('\\n');
+                if (_i > 0) _f.append(_SEPARATOR);
+                }
+                _put(_f.append(_BOTTOM).toString().getBytes(StandardCharsets.UTF_8));
+                }
+                """);
+    }
+
+    /**
+     * {@code _legal_moves(player)}, which counts moves like {@link TargetC}'s: every tile a
+     * piece's steps, jumps and slides reach, once per piece. Offsets are listed per piece type
+     * in {@code _leaps} and {@code _slides}.
+     */
+    protected void moveGeneration(Appendable out, GriddyStructure.SetupStruct setupStruct, int types) throws IOException {
+        var leaps = new StringBuilder("static final int[][][] _leaps = {");
+        var slides = new StringBuilder("static final int[][][] _slides = {");
+        for (var pieceDef : setupStruct.playerDef.player1.values()) {
+            var moveSet = pieceDef.pieceProps.moveSet;
+            leaps.append('{');
+            for (int[] d : moveSet.steps) leaps.append('{').append(d[0]).append(',').append(d[1]).append("},");
+            for (int[] d : moveSet.jumps) leaps.append('{').append(d[0]).append(',').append(d[1]).append("},");
+            leaps.append("},");
+            slides.append('{');
+            for (int[] d : moveSet.slides) slides.append('{').append(d[0]).append(',').append(d[1]).append("},");
+            slides.append("},");
+        }
+        out.append(leaps).append("};\n").append(slides).append("};\n")
+                .append("""
+                static int[] _seen = new int[_WIDTH * _HEIGHT];
+                static int _stamp;
+                static int _legal_moves(int player) {
+                int _p = player == 2 ? 1 : 0, _n = 0;
+                for (int _c = 0; _c < _WIDTH * _HEIGHT; _c++) {
+                int _id = _board[_c];
+                if (_id == 0 || (_id - 1) / _TYPES != _p) continue;
+                int _type = (_id - 1) % _TYPES, _x = _c % _WIDTH, _y = _c / _WIDTH;
+                _stamp++;
+                for (int[] _d : _leaps[_type]) _n += _reach(_id, _p, _x + _d[0], _y + (_p == 0 ? _d[1] : -_d[1]));
+                for (int[] _d : _slides[_type]) {
+                int _dy = _p == 0 ? _d[1] : -_d[1];
+                for (int _tx = _x + _d[0], _ty = _y + _dy; _tx >= 0 && _tx < _WIDTH && _ty >= 0 && _ty < _HEIGHT; _tx += _d[0], _ty += _dy) {
+                _n += _reach(_id, _p, _tx, _ty);
+                if (_board[_ty * _WIDTH + _tx] != 0 && !_can_jump[_id]) break;
+                }
+                }
+                }
+                return _n;
+                }
+                static int _reach(int id, int p, int x, int y) {
+                if (x < 0 || x >= _WIDTH || y < 0 || y >= _HEIGHT) return 0;
+                int _t = y * _WIDTH + x;
+                if (_seen[_t] == _stamp) return 0;
+                _seen[_t] = _stamp;
+                int _target = _board[_t];
+                return _target == 0 || _capture[id] && (_target - 1) / _TYPES != p ? 1 : 0;
+                }
+                """);
+    }
+
+    public void game(Appendable out, GriddyStructure.SetupStruct setupStruct, CharSequence body, CharSequence winCond) throws IOException {
+        out.append("""
+                /*   GAME    */
+                do {
+                _current_player = _turn_count % 2 != 0 ? 2 : 1;
+                """)
+                .append(body)
+                .append("_win_condition = _truth(").append(winCond).append(");\n")
+                .append("""
+                _turn_count++;
+                } while (!_win_condition);
+                """);
+    }
+
+    public void wrapper(Appendable out, GriddyStructure.SetupStruct setupStruct, GriddyStructure.GameStruct gameStruct) throws IOException {
+        out.append("/* === Code generated by Griddy compiler (Java) === */\n")
+                .append("""
+                import java.io.*;
+                import java.nio.charset.StandardCharsets;
+
+                """)
+                .append("public final class ").append(CLASS_NAME).append(" {\n");
+        setupStruct.writeTo(out);
+        out.append('\n');
+        gameStruct.writeTo(out, setupStruct);
+        out.append("""
+                } catch (_EndOfInput e) {
+                // The game is over once no one is left to play it.
+                } finally {
+                _flush();
+                }
+                }
+
+                public static void main(String[] args) {
+                play(System.in, System.out);
+                }
+                }
+                """);
+    }
+
+    private static String type(int type) {
+        return switch (type) {
+            case Ir.T_STRING -> "String";
+            case Ir.T_INT, Ir.T_TILE -> "int";
+            case Ir.T_BOOL -> "boolean";
+            default -> throw new RuntimeException("Unknown variable type: " + Ir.typeName[type]);
+        };
+    }
+
+    public void outputString(StringBuilder out, CharSequence body) {
+        out.append("_print(").append(body).append(");\n");
+    }
+
+    public void outputNumber(StringBuilder out, CharSequence body) {
+        out.append("_print(").append(body).append(");\n");
+    }
+
+    public void outputTable(StringBuilder out, int w, int h) {
+        out.append("_render_board();\n");
+    }
+
+    public void outputPiece(StringBuilder out, CharSequence tile) {
+        out.append("_print_piece(").append(tile).append(");\n");
+    }
+
+    public void condStmt(StringBuilder out, CharSequence condition, CharSequence body) {
+        out.append("if (_truth(").append(condition).append(")) {\n").append(body).append("}\n");
+    }
+
+    public void condElse(StringBuilder out, CharSequence body) {
+        out.append("\n} else {\n").append(body);
+    }
+
+    public void block(StringBuilder out, CharSequence body) {
+        out.append("{\n").append(body).append("}\n");
+    }
+
+    public void function(StringBuilder out, String ident, int returnType, CharSequence body, CharSequence ret) {
+        out.append("static ").append(switch (returnType) {
+            case Ir.T_STRING -> "String ";
+            case Ir.T_INT -> "int ";
+            case Ir.T_BOOL -> "boolean ";
+            default -> throw new RuntimeException("Unknown return type: " + Ir.typeName[returnType]);
+        }).append(ident).append("() {\n")
+                .append(body)
+                .append("return ").append(ret).append(";\n}\n");
+    }
+
+    public void input(StringBuilder out, CharSequence target) {
+        out.append(target).append(" = _read_int(").append(target).append(");\n");
+    }
+
+    public void assignPieceRef(StringBuilder out, String ident, int x, int y) {
+        out.append("int ").append(ident).append(" = ");
+        pieceRef(out, x, y);
+        out.append(";\n");
+    }
+
+    public void pieceRef(StringBuilder out, int x, int y) {
+        tile(out, x, y);
+    }
+
+    public void reAssignVar(StringBuilder out, String ident, CharSequence body) {
+        out.append(ident).append(" = ").append(body).append(";\n");
+    }
+
+    public void assignString(StringBuilder out, String ident, CharSequence body) {
+        out.append("String ");
+        reAssignVar(out, ident, body);
+    }
+
+    public void reAssignString(StringBuilder out, String ident, CharSequence body) {
+        reAssignVar(out, ident, body);
+    }
+
+    public void assignNumber(StringBuilder out, String ident, CharSequence body) {
+        out.append("int ");
+        reAssignVar(out, ident, body);
+    }
+
+    public void reAssignNumber(StringBuilder out, String ident, CharSequence body) {
+        reAssignVar(out, ident, body);
+    }
+
+    public void assignBoolean(StringBuilder out, String ident, CharSequence body) {
+        out.append("boolean ");
+        reAssignVar(out, ident, body);
+    }
+
+    public void reAssignBoolean(StringBuilder out, String ident, CharSequence body) {
+        reAssignVar(out, ident, body);
+    }
+
+    public void logicalOperator(StringBuilder out, String token) {
+        out.append(switch (token) {
+            case "and" -> "&&";
+            case "or" -> "||";
+            case ">=", "<=", "==", "!=", "<", ">", "+", "-", "*", "/", "%" -> token;
+            default -> throw new RuntimeException("Unknown logical operator: " + token);
+        });
+    }
+
+    public void place(StringBuilder out, String pieceIdent) {
+        out.append("_place(_piece_").append(pieceIdent).append(");\n");
+    }
+
+    public void tile(StringBuilder out, int x, int y) {
+        out.append("_board[").append(y - 1).append(" * _WIDTH + ").append(x - 1).append(']');
+    }
+
+    public void tileEmpty(StringBuilder out, int x, int y) {
+        out.append('(');
+        tile(out, x, y);
+        out.append(" == 0)");
+    }
+
+    public void tileEquals(StringBuilder out, int x1, int y1, int x2, int y2) {
+        out.append('(');
+        tile(out, x1, y1);
+        out.append(" == ");
+        tile(out, x2, y2);
+        out.append(')');
+    }
+
+    public void tileLoad(StringBuilder out, int local, int x, int y) {
+        out.append("int _tile").append(local).append(" = ");
+        tile(out, x, y);
+        out.append(";\n");
+    }
+
+    public void tileLocal(StringBuilder out, int local) {
+        out.append("_tile").append(local);
+    }
+
+    /** The cache is C only, so the operands are checked every turn, in order. */
+    public void winCache(StringBuilder out, List<? extends CharSequence> operands) {
+        out.append('(');
+        for (int i = 0; i < operands.size(); i++) out.append(i > 0 ? " || " : "").append(operands.get(i));
+        out.append(')');
+    }
+
+    public void unaryNot(StringBuilder out, CharSequence body) {
+        out.append("!_truth(").append(body).append(')');
+    }
+
+    public void global(StringBuilder out, String ident) {
+        out.append(switch (ident) {
+            case "@player_one" -> "1";
+            case "@player_two" -> "2";
+            case "@current_player" -> "_current_player";
+            case "@turn_count" -> "_turn_count";
+            case "@win_condition" -> "_win_condition";
+            case "@legal_moves" -> "_legal_moves(_current_player)";
+            default -> throw new RuntimeException("Unsupported use of global: " + ident);
+        });
+    }
+
+    public void getPiece(StringBuilder out, CharSequence player, String pieceIdent) {
+        out.append("_piece_id(").append(player).append(", _piece_").append(pieceIdent).append(')');
+    }
+}
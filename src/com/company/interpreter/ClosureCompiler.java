@@ -0,0 +1,456 @@
+package com.company.interpreter;
+
+import com.company.Util;
+import com.company.codegen.CompilationContext;
+import com.company.interpreter.Interpreter.Frame;
+import com.company.interpreter.Interpreter.IntExpr;
+import com.company.interpreter.Interpreter.Stmt;
+import com.company.interpreter.Interpreter.StringExpr;
+import com.company.ir.Ir;
+import com.company.ir.IrNode;
+import com.company.ir.MoveSet;
+import com.company.ir.PieceDecl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles IR to closures for the {@link Interpreter}.
+ * <br>
+ * Every node becomes a lambda which evaluates it directly. Variables are resolved to slots of a
+ * {@link Frame} here, tiles to board indices and pieces to ids, so running a program never
+ * dispatches on node kinds or looks up names. Blocks share the frame of their function, with a
+ * slot for every variable they declare.
+ */
+class ClosureCompiler {
+    /** Slots of one frame. Functions are one level deeper than where they're declared. */
+    private static final class Layout {
+        final int depth;
+        int ints, strings;
+
+        Layout(int depth) {
+            this.depth = depth;
+        }
+    }
+
+    private record Slot(Layout layout, int index, boolean string) {}
+
+    private static final class Scope {
+        final Scope parent;
+        final Layout layout;
+        final Map<String, Slot> variables = new HashMap<>();
+
+        Scope(Scope parent, Layout layout) {
+            this.parent = parent;
+            this.layout = layout;
+        }
+
+        Slot find(String name) {
+            for (Scope s = this; s != null; s = s.parent) {
+                var slot = s.variables.get(name);
+                if (slot != null) return slot;
+            }
+            throw new RuntimeException("Can't get type of '" + name + "'. Identifier unknown.");
+        }
+    }
+
+    /** Function, which can be called once its declaration has run, like a C nested function. */
+    private static final class Function {
+        final String name;
+        Layout layout;
+        Stmt body;
+        IntExpr intResult;
+        StringExpr stringResult;
+        Frame closure;
+
+        Function(String name) {
+            this.name = name;
+        }
+
+        Frame call() {
+            if (closure == null) throw new RuntimeException("Function called before its declaration: " + name);
+            var frame = new Frame(closure, layout.ints, layout.strings);
+            body.exec(frame);
+            return frame;
+        }
+    }
+
+    /** Piece type, with the presets of its declaration applied. */
+    private record PieceType(PieceDecl decl, int limit, boolean placeable, boolean capture, boolean canJump) {}
+
+    private final Interpreter rt = new Interpreter();
+    private final CompilationContext.PresetGlobals presets = new CompilationContext.PresetGlobals();
+    private final Map<String, PieceType> pieces = new LinkedHashMap<>();
+    private final List<String> types = new ArrayList<>();
+    private final Map<String, Function> functions = new HashMap<>();
+
+    /**
+     * Compile a program.
+     * @param program {@link Ir#PROGRAM} node, without C specific nodes
+     * @return interpreter, ready to run
+     */
+    Interpreter compile(IrNode program) {
+        // Declarations apply in program order, wherever they are, as they do for the C target:
+        declarations(program);
+        board();
+
+        var globals = new Layout(0);
+        var scope = new Scope(null, globals);
+        IrNode game = null;
+        var setup = new ArrayList<Stmt>();
+        for (IrNode n : program.children) {
+            if (n.kind == Ir.GAME) {
+                if (game != null) throw new RuntimeException("Programs can only have one GAME.");
+                game = n;
+            } else add(setup, statement(n, scope));
+        }
+        rt.setup = sequence(setup);
+        if (game != null) {
+            var body = new Scope(scope, globals);
+            rt.body = statements(game.child(1), body);
+            rt.win = integer(game.child(0), body);
+        }
+        rt.globalInts = globals.ints;
+        rt.globalStrings = globals.strings;
+        return rt;
+    }
+
+    private void declarations(IrNode node) {
+        switch (node.kind) {
+            case Ir.BOARD -> {
+                var size = (int[]) node.value;
+                rt.width = size[0];
+                rt.height = size[1];
+            }
+            case Ir.PIECE -> {
+                var decl = (PieceDecl) node.value;
+                pieces.put(decl.name, new PieceType(decl,
+                        decl.limit != null ? decl.limit : presets.limit,
+                        decl.placeable != null ? decl.placeable : presets.placeable,
+                        decl.capture != null ? decl.capture : presets.capture,
+                        decl.canJump != null ? decl.canJump : presets.canJump));
+            }
+            case Ir.PRESET -> {
+                var ident = (String) node.value;
+                var value = node.child(0);
+                if (!value.isConstant())
+                    throw new RuntimeException("Unable to assign a value to global: " + ident);
+                switch (ident) {
+                    case "@can_jump" -> presets.canJump = value.isTrue();
+                    case "@limit" -> presets.limit = value.intValue();
+                    case "@placeable" -> presets.placeable = value.isTrue();
+                    case "@capture" -> presets.capture = value.isTrue();
+                    default -> throw new RuntimeException("Unable to assign a value to global: " + ident);
+                }
+            }
+            default -> {
+                for (IrNode c : node.children) declarations(c);
+            }
+        }
+    }
+
+    /** Piece tables by id, and the start positions, player two's mirrored along y. */
+    private void board() {
+        int n = pieces.size(), w = rt.width, h = rt.height;
+        types.addAll(pieces.keySet());
+        rt.types = types.toArray(new String[0]);
+        rt.moveSets = new MoveSet[n];
+        rt.names = new String[2 * n + 1];
+        rt.limit = new int[2 * n + 1];
+        rt.startCount = new int[2 * n + 1];
+        rt.placeable = new boolean[2 * n + 1];
+        rt.capture = new boolean[2 * n + 1];
+        rt.canJump = new boolean[2 * n + 1];
+        rt.startCells = new int[w * h];
+        for (int player = 0; player < 2; player++)
+            for (int t = 0; t < n; t++) {
+                var type = pieces.get(types.get(t));
+                int id = player * n + t + 1;
+                rt.moveSets[t] = type.decl.moveSet;
+                rt.names[id] = type.decl.name;
+                rt.limit[id] = type.limit;
+                rt.placeable[id] = type.placeable;
+                rt.capture[id] = type.capture;
+                rt.canJump[id] = type.canJump;
+                for (int[] pos : type.decl.startPositions) {
+                    int x = pos[0] - 1, y = player == 0 ? pos[1] - 1 : h - pos[1];
+                    if (x < 0 || x >= w || y < 0 || y >= h)
+                        throw new RuntimeException("Start position outside the board: (" + pos[0] + "," + pos[1] + ")");
+                    rt.startCells[y * w + x] = id;
+                    if (++rt.startCount[id] > type.limit)
+                        throw new RuntimeException("Start positions for piece: " + type.limit);
+                }
+            }
+    }
+
+    private Stmt statements(IrNode block, Scope scope) {
+        var list = new ArrayList<Stmt>();
+        for (IrNode n : block.children) add(list, statement(n, scope));
+        return sequence(list);
+    }
+
+    private static void add(List<Stmt> list, Stmt stmt) {
+        if (stmt != null) list.add(stmt);
+    }
+
+    private static Stmt sequence(List<Stmt> list) {
+        switch (list.size()) {
+            case 0 -> {
+                return f -> {};
+            }
+            case 1 -> {
+                return list.get(0);
+            }
+            case 2 -> {
+                Stmt a = list.get(0), b = list.get(1);
+                return f -> {
+                    a.exec(f);
+                    b.exec(f);
+                };
+            }
+            default -> {
+                var all = list.toArray(new Stmt[0]);
+                return f -> {
+                    for (Stmt s : all) s.exec(f);
+                };
+            }
+        }
+    }
+
+    /** Statement, or {@code null} for declarations, which were applied already. */
+    private Stmt statement(IrNode node, Scope scope) {
+        switch (node.kind) {
+            case Ir.BOARD, Ir.PIECE, Ir.PRESET -> {
+                return null;
+            }
+            case Ir.FUNC -> {
+                return function(node, scope);
+            }
+            case Ir.BLOCK -> {
+                return statements(node, new Scope(scope, scope.layout));
+            }
+            case Ir.DECLARE -> {
+                var name = (String) node.value;
+                if (node.type == Ir.T_STRING) {
+                    var value = string(node.child(0), scope);
+                    int i = declare(scope, name, true).index;
+                    return f -> f.strings[i] = value.eval(f);
+                }
+                var value = integer(node.child(0), scope);
+                int i = declare(scope, name, false).index;
+                return f -> f.ints[i] = value.eval(f);
+            }
+            case Ir.ASSIGN -> {
+                var slot = scope.find((String) node.value);
+                int i = slot.index, hops = scope.layout.depth - slot.layout.depth;
+                if (slot.string) {
+                    var value = string(node.child(0), scope);
+                    return hops == 0 ? f -> f.strings[i] = value.eval(f) : f -> up(f, hops).strings[i] = value.eval(f);
+                }
+                var value = integer(node.child(0), scope);
+                return hops == 0 ? f -> f.ints[i] = value.eval(f) : f -> up(f, hops).ints[i] = value.eval(f);
+            }
+            case Ir.OUTPUT -> {
+                return output(node, scope);
+            }
+            case Ir.INPUT -> {
+                var slot = scope.find((String) node.child(0).value);
+                int i = slot.index, hops = scope.layout.depth - slot.layout.depth;
+                return f -> {
+                    var frame = up(f, hops);
+                    frame.ints[i] = rt.readInt(frame.ints[i]);
+                };
+            }
+            case Ir.PLACE -> {
+                int type = type((String) node.value);
+                return f -> rt.place(type);
+            }
+            case Ir.IF -> {
+                var cond = integer(node.child(0), scope);
+                var then = statements(node.child(1), new Scope(scope, scope.layout));
+                if (node.size() < 3) return f -> {
+                    if (cond.eval(f) != 0) then.exec(f);
+                };
+                var otherwise = statements(node.child(2), new Scope(scope, scope.layout));
+                return f -> {
+                    if (cond.eval(f) != 0) then.exec(f);
+                    else otherwise.exec(f);
+                };
+            }
+            case Ir.CALL_STMT -> {
+                var call = node.child(0);
+                if (call.type == Ir.T_STRING) {
+                    var value = string(call, scope);
+                    return value::eval;
+                }
+                var value = integer(call, scope);
+                return value::eval;
+            }
+            default -> throw new RuntimeException("Unexpected statement: " + node);
+        }
+    }
+
+    private Stmt function(IrNode node, Scope scope) {
+        var fn = functions.computeIfAbsent((String) node.value, Function::new);
+        fn.layout = new Layout(scope.layout.depth + 1);
+        var inner = new Scope(scope, fn.layout);
+        fn.body = statements(node.child(0), inner);
+        switch (node.type) {
+            case Ir.T_STRING -> fn.stringResult = string(node.child(1), inner);
+            case Ir.T_INT, Ir.T_BOOL -> fn.intResult = integer(node.child(1), inner);
+            default -> throw new RuntimeException("Unknown return type: " + Ir.typeName[node.type]);
+        }
+        return f -> fn.closure = f;
+    }
+
+    private Stmt output(IrNode node, Scope scope) {
+        switch (node.type) {
+            case Ir.T_BOARD -> {
+                return f -> rt.printBoard();
+            }
+            case Ir.T_INT, Ir.T_BOOL -> {
+                var value = integer(node.child(0), scope);
+                return f -> rt.printInt(value.eval(f));
+            }
+            case Ir.T_STRING -> {
+                var value = string(node.child(0), scope);
+                return f -> rt.printString(value.eval(f));
+            }
+            case Ir.T_TILE -> {
+                var value = integer(node.child(0), scope);
+                return f -> rt.printPiece(value.eval(f));
+            }
+            default -> throw new RuntimeException("Can't echo value of unknown type: " + Ir.typeName[node.type]);
+        }
+    }
+
+    /** Integer, boolean, tile or player expression. Booleans are {@code 0} or {@code 1}, as in C. */
+    private IntExpr integer(IrNode node, Scope scope) {
+        switch (node.kind) {
+            case Ir.BINARY -> {
+                return binary((String) node.value, node.child(0), node.child(1), scope);
+            }
+            case Ir.NOT -> {
+                var value = integer(node.child(0), scope);
+                return f -> value.eval(f) == 0 ? 1 : 0;
+            }
+            case Ir.INT, Ir.BOOL -> {
+                int value = node.intValue();
+                return f -> value;
+            }
+            case Ir.VAR -> {
+                var slot = scope.find((String) node.value);
+                if (slot.string) throw new RuntimeException("Expected a number, found string: " + node.value);
+                int i = slot.index, hops = scope.layout.depth - slot.layout.depth;
+                return switch (hops) {
+                    case 0 -> f -> f.ints[i];
+                    case 1 -> f -> f.parent.ints[i];
+                    default -> f -> up(f, hops).ints[i];
+                };
+            }
+            case Ir.GLOBAL -> {
+                return global((String) node.value);
+            }
+            case Ir.CALL -> {
+                var fn = functions.computeIfAbsent((String) node.value, Function::new);
+                return f -> fn.intResult.eval(fn.call());
+            }
+            case Ir.TILE -> {
+                int c = cell((int[]) node.value);
+                return f -> rt.cells[c];
+            }
+            case Ir.TILE_EMPTY -> {
+                int c = cell((int[]) node.value);
+                return f -> rt.cells[c] == 0 ? 1 : 0;
+            }
+            case Ir.GET_PIECE -> {
+                var player = integer(node.child(0), scope);
+                int n = types.size(), id = type((String) node.value) + 1;
+                return f -> (player.eval(f) == 2 ? n : 0) + id;
+            }
+            default -> throw new RuntimeException("Unexpected expression: " + node);
+        }
+    }
+
+    private IntExpr binary(String op, IrNode left, IrNode right, Scope scope) {
+        if (left.type == Ir.T_STRING || right.type == Ir.T_STRING)
+            throw new RuntimeException("Strings can't be operands of '" + op + "'");
+        var l = integer(left, scope);
+        var r = integer(right, scope);
+        return switch (op) {
+            case "and" -> f -> l.eval(f) != 0 && r.eval(f) != 0 ? 1 : 0;
+            case "or" -> f -> l.eval(f) != 0 || r.eval(f) != 0 ? 1 : 0;
+            case "==" -> f -> l.eval(f) == r.eval(f) ? 1 : 0;
+            case "!=" -> f -> l.eval(f) != r.eval(f) ? 1 : 0;
+            case "<" -> f -> l.eval(f) < r.eval(f) ? 1 : 0;
+            case ">" -> f -> l.eval(f) > r.eval(f) ? 1 : 0;
+            case "<=" -> f -> l.eval(f) <= r.eval(f) ? 1 : 0;
+            case ">=" -> f -> l.eval(f) >= r.eval(f) ? 1 : 0;
+            case "+" -> f -> l.eval(f) + r.eval(f);
+            case "-" -> f -> l.eval(f) - r.eval(f);
+            case "*" -> f -> l.eval(f) * r.eval(f);
+            case "/" -> f -> l.eval(f) / r.eval(f);
+            case "%" -> f -> l.eval(f) % r.eval(f);
+            default -> throw new RuntimeException("Unknown logical operator: " + op);
+        };
+    }
+
+    private IntExpr global(String ident) {
+        return switch (ident) {
+            case "@player_one" -> f -> 1;
+            case "@player_two" -> f -> 2;
+            case "@current_player" -> f -> rt.currentPlayer;
+            case "@turn_count" -> f -> rt.turnCount;
+            case "@win_condition" -> f -> rt.winCondition;
+            case "@legal_moves" -> f -> rt.legalMoves(rt.currentPlayer);
+            default -> throw new RuntimeException("Unsupported use of global: " + ident);
+        };
+    }
+
+    private StringExpr string(IrNode node, Scope scope) {
+        switch (node.kind) {
+            case Ir.STRING -> {
+                var value = Util.unescape((String) node.value);
+                return f -> value;
+            }
+            case Ir.VAR -> {
+                var slot = scope.find((String) node.value);
+                if (!slot.string) throw new RuntimeException("Expected a string, found number: " + node.value);
+                int i = slot.index, hops = scope.layout.depth - slot.layout.depth;
+                return hops == 0 ? f -> f.strings[i] : f -> up(f, hops).strings[i];
+            }
+            case Ir.CALL -> {
+                var fn = functions.computeIfAbsent((String) node.value, Function::new);
+                return f -> fn.stringResult.eval(fn.call());
+            }
+            default -> throw new RuntimeException("Unexpected string expression: " + node);
+        }
+    }
+
+    private static Slot declare(Scope scope, String name, boolean string) {
+        var layout = scope.layout;
+        var slot = new Slot(layout, string ? layout.strings++ : layout.ints++, string);
+        scope.variables.put(name, slot);
+        return slot;
+    }
+
+    private static Frame up(Frame f, int hops) {
+        while (hops-- > 0) f = f.parent;
+        return f;
+    }
+
+    private int type(String piece) {
+        int t = types.indexOf(piece);
+        if (t < 0) throw new RuntimeException("Unknown piece: " + piece);
+        return t;
+    }
+
+    private int cell(int[] pos) {
+        if (pos[0] < 1 || pos[0] > rt.width || pos[1] < 1 || pos[1] > rt.height)
+            throw new RuntimeException("Tile outside the board: (" + pos[0] + "," + pos[1] + ")");
+        return (pos[1] - 1) * rt.width + pos[0] - 1;
+    }
+}
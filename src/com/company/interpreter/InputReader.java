@@ -0,0 +1,75 @@
+package com.company.interpreter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * Reads input the way the {@code scanf} calls of generated C programs do, so interpreted
+ * programs treat malformed input the same. Input is read in blocks, and pending output is
+ * flushed before waiting for more, so prompts show up without flushing after every move.
+ */
+final class InputReader {
+    private final InputStream in;
+    private final Runnable beforeRead;
+    private final byte[] buffer = new byte[1 << 16];
+    private int pos, length;
+
+    InputReader(InputStream in, Runnable beforeRead) {
+        this.in = in;
+        this.beforeRead = beforeRead;
+    }
+
+    /** Next byte without consuming it, or -1 at the end of the input. */
+    int peek() {
+        if (pos == length) {
+            beforeRead.run();
+            try {
+                length = in.read(buffer, 0, buffer.length);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            pos = 0;
+            if (length <= 0) {
+                length = 0;
+                return -1;
+            }
+        }
+        return buffer[pos] & 0xff;
+    }
+
+    /** {@code %c}: next byte, or -1 at the end of the input. */
+    int read() {
+        int b = peek();
+        if (b >= 0) pos++;
+        return b;
+    }
+
+    /**
+     * Skip whitespace, as {@code %d} does before a number.
+     * @return whether there is input left
+     */
+    boolean skipWhitespace() {
+        int b;
+        while ((b = peek()) == ' ' || b >= '\t' && b <= '\r') pos++;
+        return b >= 0;
+    }
+
+    /**
+     * {@code %d} after whitespace: an optionally signed number.
+     * @param fallback value if there's no number, which C leaves in the variable
+     */
+    int readInt(int fallback) {
+        boolean negative = peek() == '-';
+        if (negative || peek() == '+') pos++;
+        if (peek() < '0' || peek() > '9') return fallback;
+        int value = 0;
+        for (int b; (b = peek()) >= '0' && b <= '9'; pos++) value = value * 10 + (b - '0');
+        return negative ? -value : value;
+    }
+
+    /** Skip the rest of the line, including its newline. */
+    void skipLine() {
+        for (int b; (b = read()) >= 0 && b != '\n';) ;
+    }
+}
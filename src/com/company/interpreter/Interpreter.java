@@ -0,0 +1,246 @@
+package com.company.interpreter;
+
+import com.company.GriddyCompiler;
+import com.company.ParseException;
+import com.company.SymbolTable;
+import com.company.ir.IrNode;
+import com.company.ir.Lowering;
+import com.company.ir.MoveSet;
+import com.company.ir.PassManager;
+import com.company.parser.ASTStart;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Runs Griddy programs in the JVM, without generating C.
+ * <br>
+ * Programs are lowered and optimized like for the C target, then compiled to closures by the
+ * {@link ClosureCompiler}. The board is an array of piece ids, {@code 0} for an empty tile and
+ * {@code player * types + type + 1} for a piece, so tile reads and comparisons are plain
+ * {@code int} operations. Players are {@code 1} and {@code 2}, and {@code 0} before the game
+ * starts.
+ * <br>
+ * Programs behave like the output of {@link com.company.codegen.TargetC}, prompts included,
+ * except that a run ends once the input runs out, instead of asking for a move forever.
+ */
+public class Interpreter {
+    /** Evaluates an integer, boolean, tile or player expression. */
+    public interface IntExpr {
+        int eval(Frame f);
+    }
+
+    /** Evaluates a string expression. */
+    public interface StringExpr {
+        String eval(Frame f);
+    }
+
+    /** Executes a statement. */
+    public interface Stmt {
+        void exec(Frame f);
+    }
+
+    /** Variables of one function call, or of the setup and game. */
+    public static final class Frame {
+        final Frame parent;
+        final int[] ints;
+        final String[] strings;
+
+        Frame(Frame parent, int ints, int strings) {
+            this.parent = parent;
+            this.ints = new int[ints];
+            this.strings = new String[strings];
+        }
+    }
+
+    /** Thrown when a program asks for input after the end of it. */
+    static final class EndOfInput extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        EndOfInput() {
+            super(null, null, false, false);
+        }
+    }
+
+    /* Board and pieces, set up by the compiler */
+    int width, height;
+    /** Piece types in declaration order. */
+    String[] types = new String[0];
+    MoveSet[] moveSets;
+    /** Piece properties by piece id. */
+    String[] names;
+    int[] limit, startCount;
+    boolean[] placeable, capture, canJump;
+    int[] startCells;
+
+    /* Program, set up by the compiler */
+    Stmt setup;
+    Stmt body;
+    IntExpr win;
+    int globalInts, globalStrings;
+
+    /* Run state */
+    int[] cells;
+    int[] count;
+    int currentPlayer, turnCount, winCondition;
+    InputReader in;
+    PrintStream out;
+    private String top, separator, bottom;
+    private int[] seen;
+    private int stamp;
+
+    /**
+     * Parse, lower and compile a program.
+     * @param source program source
+     * @return interpreter for the program
+     */
+    public static Interpreter load(Reader source) throws ParseException {
+        return compile(GriddyCompiler.parse(source));
+    }
+
+    /**
+     * Lower and compile a parsed program. The AST is only read.
+     * @param root AST root
+     * @return interpreter for the program
+     */
+    public static Interpreter compile(ASTStart root) {
+        IrNode program = Lowering.lower(root, SymbolTable.build(root));
+        PassManager.portable().run(program);
+        return new ClosureCompiler().compile(program);
+    }
+
+    /**
+     * Run the program from the start.
+     * @param input moves and {@code input} values, as typed by players
+     * @param output printed output
+     */
+    public void run(InputStream input, OutputStream output) {
+        in = new InputReader(input, () -> out.flush());
+        out = new PrintStream(new BufferedOutputStream(output, 1 << 16), false, StandardCharsets.UTF_8);
+        cells = startCells.clone();
+        count = startCount.clone();
+        currentPlayer = turnCount = winCondition = 0;
+        var frame = new Frame(null, globalInts, globalStrings);
+        try {
+            setup.exec(frame);
+            if (body != null) {
+                do {
+                    currentPlayer = turnCount % 2 != 0 ? 2 : 1;
+                    body.exec(frame);
+                    winCondition = win.eval(frame);
+                    turnCount++;
+                } while (winCondition == 0);
+            }
+        } catch (EndOfInput ignored) {
+            // The game is over once no one is left to play it.
+        } finally {
+            out.flush();
+        }
+    }
+
+    /* Runtime support for compiled statements */
+
+    void printInt(int value) {
+        out.print(value);
+        out.print('\n');
+    }
+
+    void printString(String value) {
+        out.print(value != null ? value : "(null)");
+        out.print('\n');
+    }
+
+    void printPiece(int id) {
+        printString(id != 0 ? names[id] : null);
+    }
+
+    /** Same frame as {@code TargetC}'s board renderer. */
+    void printBoard() {
+        if (top == null) {
+            top = "┌───" + "┬───".repeat(Math.max(0, width - 1)) + "┐\n";
+            separator = "├───" + "┼───".repeat(Math.max(0, width - 1)) + "┤\n";
+            var end = new StringBuilder("└───" + "┴───".repeat(Math.max(0, width - 1)) + "┘\n");
+            for (int n = 1; n <= width; n++) end.append("  ").append((char) ('a' + n - 1)).append(' ');
+            bottom = end.append('\n').toString();
+        }
+        var frame = new StringBuilder(top);
+        for (int i = height - 1; i >= 0; i--) {
+            for (int j = 0; j < width; j++) {
+                int id = cells[i * width + j];
+                if (id == 0) frame.append("│   ");
+                else if (id <= types.length)
+                    frame.append("│ \u001b[33m\u001b[1m").append(names[id].charAt(0)).append("\u001b[0m ");
+                else frame.append("│ ").append(names[id].charAt(0)).append(' ');
+            }
+            frame.append("│ ").append(i + 1).append('\n');
+            if (i > 0) frame.append(separator);
+        }
+        out.print(frame.append(bottom));
+    }
+
+    /** {@code scanf("%d")} into a variable, which keeps its value if there's no number. */
+    int readInt(int current) {
+        if (!in.skipWhitespace()) throw new EndOfInput();
+        return in.readInt(current);
+    }
+
+    /** Ask for a move until the current player makes a valid one. */
+    void place(int type) {
+        int id = (currentPlayer == 2 ? types.length : 0) + type + 1;
+        while (true) {
+            out.print("Input: ");
+            int x = in.read();
+            if (x < 0) throw new EndOfInput();
+            in.skipWhitespace();
+            int y = in.readInt(0);
+            in.skipLine();
+
+            // Moves are read as C chars, which are signed:
+            int col = (byte) x - 'a', row = y - 1;
+            if (placeable[id] && count[id] < limit[id] && col >= 0 && col < width && row >= 0 && row < height
+                    && cells[row * width + col] == 0) {
+                cells[row * width + col] = id;
+                count[id]++;
+                return;
+            }
+            out.print("Invalid piece placement! Try again:\n");
+        }
+    }
+
+    /**
+     * Number of legal moves of a player, as {@code TargetC}'s {@code _legal_moves} counts them:
+     * every tile a piece's steps, jumps and slides reach, once per piece.
+     */
+    int legalMoves(int player) {
+        int p = player == 2 ? 1 : 0, n = 0;
+        if (seen == null) seen = new int[cells.length];
+        for (int c = 0; c < cells.length; c++) {
+            int id = cells[c];
+            if (id == 0 || (id - 1) / types.length != p) continue;
+            var moveSet = moveSets[(id - 1) % types.length];
+            if (moveSet.isEmpty()) continue;
+            stamp++;
+            int x = c % width, y = c / width;
+            for (int[] d : moveSet.steps) n += reach(id, p, x + d[0], y + (p == 0 ? d[1] : -d[1]));
+            for (int[] d : moveSet.jumps) n += reach(id, p, x + d[0], y + (p == 0 ? d[1] : -d[1]));
+            for (int[] d : moveSet.slides) {
+                int dy = p == 0 ? d[1] : -d[1];
+                for (int tx = x + d[0], ty = y + dy; tx >= 0 && tx < width && ty >= 0 && ty < height; tx += d[0], ty += dy) {
+                    n += reach(id, p, tx, ty);
+                    if (cells[ty * width + tx] != 0 && !canJump[id]) break;
+                }
+            }
+        }
+        return n;
+    }
+
+    /** Whether a piece can move to a tile it reaches, which wasn't counted for it yet. */
+    private int reach(int id, int p, int x, int y) {
+        if (x < 0 || x >= width || y < 0 || y >= height) return 0;
+        int t = y * width + x;
+        if (seen[t] == stamp) return 0;
+        seen[t] = stamp;
+        int target = cells[t];
+        return target == 0 || capture[id] && (target - 1) / types.length != p ? 1 : 0;
+    }
+}
@@ -0,0 +1,59 @@
+package com.company.ir;
+
+/**
+ * Simplifies {@code and}/{@code or} chains with a constant operand, and negations.
+ * <br>
+ * An operand is only returned in place of the whole expression if it's a boolean, as C's
+ * {@code &&} and {@code ||} turn other values into 0 or 1. Operands are only dropped if they are
+ * pure, or if C's short-circuiting would never evaluate them anyway.
+ */
+public class BooleanSimplification implements Pass {
+    @Override
+    public void run(IrNode program) {
+        program.transform(BooleanSimplification::simplify);
+    }
+
+    protected static IrNode simplify(IrNode node) {
+        if (node.kind == Ir.NOT) return not(node);
+        if (node.kind != Ir.BINARY || !Ir.isLogical((String) node.value)) return node;
+
+        var l = node.child(0);
+        var r = node.child(1);
+        boolean and = node.value.equals("and");
+
+        if (l.isConstant()) {
+            // true and x = x, false or x = x; false and x = false, true or x = true:
+            if (l.isTrue() == and) return r.type == Ir.T_BOOL ? r : node;
+            return ConstantFolding.bool(!and);
+        }
+        if (r.isConstant()) {
+            if (r.isTrue() == and) return l.type == Ir.T_BOOL ? l : node;
+            return l.isPure() ? ConstantFolding.bool(!and) : node;
+        }
+        return node;
+    }
+
+    protected static IrNode not(IrNode node) {
+        var c = node.child(0);
+        // !!x = x:
+        if (c.kind == Ir.NOT && c.child(0).type == Ir.T_BOOL) return c.child(0);
+
+        // !(a < b) = a >= b:
+        if (c.kind == Ir.BINARY) {
+            var inverse = switch ((String) c.value) {
+                case "==" -> "!=";
+                case "!=" -> "==";
+                case "<" -> ">=";
+                case ">=" -> "<";
+                case ">" -> "<=";
+                case "<=" -> ">";
+                default -> null;
+            };
+            if (inverse != null) {
+                c.value = inverse;
+                return c;
+            }
+        }
+        return node;
+    }
+}
@@ -0,0 +1,48 @@
+package com.company.ir;
+
+/**
+ * Evaluates operators whose operands are all constants, with C's integer semantics.
+ */
+public class ConstantFolding implements Pass {
+    @Override
+    public void run(IrNode program) {
+        program.transform(ConstantFolding::fold);
+    }
+
+    protected static IrNode fold(IrNode node) {
+        if (node.kind == Ir.NOT && node.child(0).isConstant())
+            return new IrNode(Ir.BOOL, Ir.T_BOOL, !node.child(0).isTrue());
+
+        if (node.kind != Ir.BINARY || !node.child(0).isConstant() || !node.child(1).isConstant())
+            return node;
+
+        var l = node.child(0);
+        var r = node.child(1);
+        int a = l.intValue(), b = r.intValue();
+        return switch ((String) node.value) {
+            case "+" -> integer(a + b);
+            case "-" -> integer(a - b);
+            case "*" -> integer(a * b);
+            // Leave division by zero to fail at run time, like it would have without folding:
+            case "/" -> b != 0 ? integer(a / b) : node;
+            case "%" -> b != 0 ? integer(a % b) : node;
+            case "==" -> bool(a == b);
+            case "!=" -> bool(a != b);
+            case "<" -> bool(a < b);
+            case ">" -> bool(a > b);
+            case "<=" -> bool(a <= b);
+            case ">=" -> bool(a >= b);
+            case "and" -> bool(l.isTrue() && r.isTrue());
+            case "or" -> bool(l.isTrue() || r.isTrue());
+            default -> node;
+        };
+    }
+
+    static IrNode integer(int value) {
+        return new IrNode(Ir.INT, Ir.T_INT, value);
+    }
+
+    static IrNode bool(boolean value) {
+        return new IrNode(Ir.BOOL, Ir.T_BOOL, value);
+    }
+}
@@ -0,0 +1,18 @@
+package com.company.ir;
+
+/**
+ * Replaces conditional statements with a constant condition by the branch which is taken.
+ */
+public class DeadBranchElimination implements Pass {
+    @Override
+    public void run(IrNode program) {
+        program.transform(DeadBranchElimination::eliminate);
+    }
+
+    protected static IrNode eliminate(IrNode node) {
+        if (node.kind != Ir.IF || !node.child(0).isConstant()) return node;
+
+        if (node.child(0).isTrue()) return node.child(1);
+        return node.size() > 2 ? node.child(2) : new IrNode(Ir.BLOCK, Ir.T_VOID, null);
+    }
+}
@@ -0,0 +1,83 @@
+package com.company.ir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Groups the operands of the win condition which only depend on the board into a
+ * {@link Ir#WIN_CACHE} node, so their results can be cached between turns.
+ * <br>
+ * The board only changes when a piece is placed, and a place changes a single tile, so the
+ * backend only has to re-evaluate the cached operands which read that tile. Operands of the
+ * top-level {@code or} chain are cached when they read at least one tile and nothing but tiles
+ * and constants. The rest of the condition is evaluated every turn, as before.
+ * <br>
+ * Operands before a call stay where they are, since they decide whether the call is made. Only
+ * operands after the last call are cached, and the cache is checked right after that call.
+ */
+public class IncrementalWinCondition implements Pass {
+    /** Fewest cacheable operands for which keeping a cache pays off. */
+    public static final int MIN_OPERANDS = 2;
+
+    @Override
+    public void run(IrNode program) {
+        for (IrNode n : program.children)
+            if (n.kind == Ir.GAME) n.children.set(0, group(n.child(0)));
+    }
+
+    protected static IrNode group(IrNode condition) {
+        var operands = new ArrayList<IrNode>();
+        ShortCircuitOrdering.flatten(condition, "or", operands);
+
+        int tail = 0;
+        for (int i = 0; i < operands.size(); i++)
+            if (!operands.get(i).isPure()) tail = i + 1;
+
+        var cached = new IrNode(Ir.WIN_CACHE, Ir.T_BOOL, null);
+        var rest = new ArrayList<>(operands.subList(0, tail));
+        for (IrNode operand : operands.subList(tail, operands.size()))
+            if (!boardOnly(operand) || reads(operand).isEmpty()) rest.add(operand);
+            else cached.children.add(operand);
+        if (cached.size() < MIN_OPERANDS) return condition;
+
+        // Everything after the last call is pure, and the cache is cheaper to check than the rest of it:
+        rest.add(tail, cached);
+        IrNode result = rest.get(0);
+        for (int i = 1; i < rest.size(); i++)
+            result = new IrNode(Ir.BINARY, Ir.T_BOOL, "or", result, rest.get(i));
+        return result;
+    }
+
+    /** Whether an expression reads nothing but tiles and constants. */
+    protected static boolean boardOnly(IrNode node) {
+        switch (node.kind) {
+            case Ir.BINARY, Ir.NOT, Ir.INT, Ir.BOOL, Ir.TILE, Ir.TILE_EMPTY -> {}
+            default -> {
+                return false;
+            }
+        }
+        for (IrNode c : node.children)
+            if (!boardOnly(c)) return false;
+        return true;
+    }
+
+    /**
+     * Tiles read by an expression.
+     * @return positions, {@code [x, y]}, in the order they are read, without duplicates
+     */
+    public static List<int[]> reads(IrNode node) {
+        var positions = new ArrayList<int[]>();
+        reads(node, positions);
+        return positions;
+    }
+
+    private static void reads(IrNode node, List<int[]> positions) {
+        if (node.kind == Ir.TILE || node.kind == Ir.TILE_EMPTY) {
+            var pos = (int[]) node.value;
+            for (int[] p : positions)
+                if (p[0] == pos[0] && p[1] == pos[1]) return;
+            positions.add(pos);
+        }
+        for (IrNode c : node.children) reads(c, positions);
+    }
+}
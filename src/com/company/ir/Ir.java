@@ -0,0 +1,96 @@
+package com.company.ir;
+
+/**
+ * Node kinds and value types of the intermediate representation.
+ */
+public final class Ir {
+    private Ir() {}
+
+    /* Program structure */
+    public static final int PROGRAM = 0;
+    public static final int BOARD = 1;
+    public static final int PIECE = 2;
+    public static final int PRESET = 3;
+    public static final int FUNC = 4;
+    public static final int GAME = 5;
+    public static final int BLOCK = 6;
+
+    /* Statements */
+    public static final int DECLARE = 7;
+    public static final int ASSIGN = 8;
+    public static final int OUTPUT = 9;
+    public static final int INPUT = 10;
+    public static final int PLACE = 11;
+    public static final int IF = 12;
+    public static final int CALL_STMT = 13;
+
+    /* Expressions */
+    public static final int BINARY = 14;
+    public static final int NOT = 15;
+    public static final int INT = 16;
+    public static final int BOOL = 17;
+    public static final int STRING = 18;
+    public static final int VAR = 19;
+    public static final int GLOBAL = 20;
+    public static final int CALL = 21;
+    public static final int TILE = 22;
+    public static final int TILE_EMPTY = 23;
+    public static final int GET_PIECE = 24;
+
+    /* Hoisted tile reads */
+    public static final int TILE_LOAD = 25;
+    public static final int TILE_REF = 26;
+
+    /* Win condition operands which are cached between turns */
+    public static final int WIN_CACHE = 27;
+
+    public static final String[] kindName = {
+            "Program", "Board", "Piece", "Preset", "Func", "Game", "Block",
+            "Declare", "Assign", "Output", "Input", "Place", "If", "CallStmt",
+            "Binary", "Not", "Int", "Bool", "String", "Var", "Global", "Call", "Tile", "TileEmpty", "GetPiece",
+            "TileLoad", "TileRef", "WinCache",
+    };
+
+    /* Value types */
+    public static final int T_VOID = 0;
+    public static final int T_INT = 1;
+    public static final int T_BOOL = 2;
+    public static final int T_STRING = 3;
+    public static final int T_TILE = 4;
+    public static final int T_BOARD = 5;
+    public static final int T_PLAYER = 6;
+    public static final int T_UNKNOWN = 7;
+
+    public static final String[] typeName = {
+            "Void", "Integer", "Boolean", "String", "Tile", "Board", "Player", "Unknown",
+    };
+
+    /**
+     * Map a symbol table type name to a value type.
+     * @param name type name, e.g. {@code "Integer"}, or {@code null}
+     * @return value type
+     */
+    public static int typeOf(String name) {
+        if (name == null) return T_UNKNOWN;
+        return switch (name) {
+            case "Integer", "Expr" -> T_INT;
+            case "Boolean" -> T_BOOL;
+            case "String" -> T_STRING;
+            case "Tile" -> T_TILE;
+            case "Board" -> T_BOARD;
+            case "Player" -> T_PLAYER;
+            default -> T_UNKNOWN;
+        };
+    }
+
+    public static boolean isComparison(String op) {
+        return switch (op) {
+            case "==", "!=", "<", ">", "<=", ">=" -> true;
+            default -> false;
+        };
+    }
+
+    public static boolean isLogical(String op) {
+        return op.equals("and") || op.equals("or");
+    }
+}
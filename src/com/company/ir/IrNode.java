@@ -0,0 +1,87 @@
+package com.company.ir;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.function.UnaryOperator;
+
+/**
+ * Typed IR node.
+ * <br>
+ * The meaning of {@link #value} depends on the kind: literal value, identifier, operator token,
+ * tile position ({@code int[]{x, y}}) or {@link PieceDecl}.
+ */
+public class IrNode {
+    public final int kind;
+    public int type;
+    public Object value;
+    public final ArrayList<IrNode> children = new ArrayList<>(2);
+
+    public IrNode(int kind, int type, Object value, IrNode... children) {
+        this.kind = kind;
+        this.type = type;
+        this.value = value;
+        this.children.addAll(Arrays.asList(children));
+    }
+
+    public IrNode child(int i) {
+        return children.get(i);
+    }
+
+    public int size() {
+        return children.size();
+    }
+
+    public boolean isConstant() {
+        return kind == Ir.INT || kind == Ir.BOOL;
+    }
+
+    /** Truth value of a constant, as C would evaluate it. */
+    public boolean isTrue() {
+        return kind == Ir.BOOL ? (Boolean) value : (Integer) value != 0;
+    }
+
+    /** Integer value of a constant, as C would evaluate it. */
+    public int intValue() {
+        return kind == Ir.BOOL ? ((Boolean) value ? 1 : 0) : (Integer) value;
+    }
+
+    /** Whether evaluating this expression has no side effects, so it can be dropped or reordered. */
+    public boolean isPure() {
+        if (kind == Ir.CALL) return false;
+        for (IrNode c : children)
+            if (!c.isPure()) return false;
+        return true;
+    }
+
+    /**
+     * Rewrite the tree bottom-up. Children are rewritten before their parent.
+     * @param f rewrite of a single node, returning the node itself or its replacement
+     * @return replacement of this node
+     */
+    public IrNode transform(UnaryOperator<IrNode> f) {
+        for (int i = 0; i < children.size(); i++)
+            children.set(i, children.get(i).transform(f));
+        return f.apply(this);
+    }
+
+    @Override
+    public String toString() {
+        var s = new StringBuilder(Ir.kindName[kind]);
+        if (type != Ir.T_VOID) s.append(':').append(Ir.typeName[type]);
+        if (value instanceof int[] pos) s.append(' ').append(Arrays.toString(pos));
+        else if (value != null) s.append(' ').append(value);
+        return s.toString();
+    }
+
+    /** Indented tree, one node per line. */
+    public String dump() {
+        var out = new StringBuilder();
+        dump("", out);
+        return out.toString();
+    }
+
+    protected void dump(String prefix, StringBuilder out) {
+        out.append(prefix).append(this).append('\n');
+        for (IrNode c : children) c.dump(prefix + " ", out);
+    }
+}
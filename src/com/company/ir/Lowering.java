@@ -0,0 +1,261 @@
+package com.company.ir;
+
+import com.company.SymbolTable;
+import com.company.Util;
+import com.company.parser.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static com.company.parser.GriddyTreeConstants.*;
+
+/**
+ * Lowers the AST to typed IR.
+ * <br>
+ * Flat operator chains are turned into binary nodes, with {@code and} binding tighter than
+ * {@code or}, and every expression gets a value type. Semantic errors are reported here, so
+ * passes and backends can assume a well-typed tree.
+ */
+public class Lowering {
+    private final SymbolTable symbols;
+
+    protected Lowering(SymbolTable symbols) {
+        this.symbols = symbols;
+    }
+
+    /**
+     * Lower a program.
+     * @param root AST root
+     * @param symbols symbol table of the program
+     * @return {@link Ir#PROGRAM} node
+     */
+    public static IrNode lower(Node root, SymbolTable symbols) {
+        var lowering = new Lowering(symbols);
+        var program = new IrNode(Ir.PROGRAM, Ir.T_VOID, null);
+        for (int i = 0; i < root.getNumChildren(); i++) {
+            Node n = root.jjtGetChild(i);
+            program.children.add(n.getId() == JJTGAME ? lowering.game(n) : lowering.statement(n));
+        }
+        return program;
+    }
+
+    protected IrNode game(Node node) {
+        var body = new IrNode(Ir.BLOCK, Ir.T_VOID, null);
+        for (int i = 1; i < node.getNumChildren(); i++)
+            body.children.add(statement(node.jjtGetChild(i)));
+        return new IrNode(Ir.GAME, Ir.T_VOID, null, expression(node.jjtGetChild(0)), body);
+    }
+
+    protected IrNode statement(Node node) {
+        return switch (node.getId()) {
+            case JJTBOARD -> new IrNode(Ir.BOARD, Ir.T_VOID, position(node.jjtGetChild(0)));
+            case JJTPIECE -> piece(node);
+            case JJTASSIGN -> assign(node);
+            case JJTFUNCDECL -> function(node);
+            case JJTOUTPUT -> output(node);
+            case JJTINPUT -> {
+                var arg = node.jjtGetChild(0);
+                if (arg.getId() != JJTIDENT)
+                    throw new RuntimeException("Can't scan value of unknown type: " + jjtNodeName[arg.getId()]);
+                var type = Ir.typeOf(symbols.getIdentifierType(arg));
+                if (type != Ir.T_INT && type != Ir.T_BOOL)
+                    throw new RuntimeException("Can't scan value of unknown type: " + Ir.typeName[type]);
+                yield new IrNode(Ir.INPUT, Ir.T_VOID, null, expression(arg));
+            }
+            case JJTPLACE -> new IrNode(Ir.PLACE, Ir.T_VOID, node.jjtGetChild(0).jjtGetValue().toString());
+            case JJTCONDSTMT -> condition(node);
+            case JJTSTMT -> new IrNode(Ir.CALL_STMT, Ir.T_VOID, null, expression(node.jjtGetChild(0)));
+            default -> throw new RuntimeException("Unexpected statement: " + jjtNodeName[node.getId()]);
+        };
+    }
+
+    protected IrNode piece(Node node) {
+        @SuppressWarnings("unchecked")
+        var props = (HashMap<String, Node>) node.jjtGetValue();
+        var decl = new PieceDecl(node.jjtGetChild(0).jjtGetValue().toString());
+
+        Node limitNode = props.get("limit");
+        if (limitNode != null) decl.limit = (Integer) limitNode.jjtGetValue();
+
+        Node captureNode = props.get("capture");
+        if (captureNode != null) decl.capture = captureNode.jjtGetValue().toString().equals("true");
+
+        Node startPos = props.get("start_position");
+        if (startPos != null)
+            for (Node n : startPos.getChildren()) decl.startPositions.add(position(n));
+
+        Node placeableNode = props.get("placeable");
+        if (placeableNode != null) decl.placeable = placeableNode.jjtGetValue().toString().equals("true");
+
+        Node canJumpNode = props.get("can_jump");
+        if (canJumpNode != null) decl.canJump = canJumpNode.jjtGetValue().toString().equals("true");
+
+        moves(props.get("step"), decl.moveSet.steps, 1);
+        moves(props.get("jump"), decl.moveSet.jumps, Integer.MAX_VALUE);
+        moves(props.get("slide"), decl.moveSet.slides, Integer.MAX_VALUE);
+
+        return new IrNode(Ir.PIECE, Ir.T_VOID, decl);
+    }
+
+    /**
+     * Movement offsets of a piece property.
+     * @param list position list, or {@code null} if the property isn't declared
+     * @param reach largest distance of an offset on either axis
+     */
+    protected static void moves(Node list, List<int[]> offsets, int reach) {
+        if (list == null) return;
+        if (list.getId() != JJTPOSLIST)
+            throw new RuntimeException("Moves must be a list of offsets, e.g. (0,1), (1,1)");
+        for (Node n : list.getChildren()) {
+            var offset = position(n);
+            if (offset[0] == 0 && offset[1] == 0)
+                throw new RuntimeException("Moves must have a non-zero offset: (0,0)");
+            if (Math.abs(offset[0]) > reach || Math.abs(offset[1]) > reach)
+                throw new RuntimeException("Steps move to a neighbouring tile: (" + offset[0] + "," + offset[1] + ")");
+            offsets.add(offset);
+        }
+    }
+
+    protected IrNode assign(Node node) {
+        var ident = node.jjtGetChild(0).jjtGetValue().toString();
+        Node valueNode = node.jjtGetChild(1);
+
+        if (ident.startsWith("@")) {
+            var type = switch (ident) {
+                case "@limit" -> Ir.T_INT;
+                case "@can_jump", "@placeable", "@capture" -> Ir.T_BOOL;
+                default -> throw new RuntimeException("Unable to assign a value to global: " + ident);
+            };
+            return new IrNode(Ir.PRESET, type, ident, expression(valueNode));
+        }
+
+        // Copies of unknown identifiers are errors:
+        if (valueNode.getId() == JJTIDENT && !valueNode.jjtGetValue().toString().startsWith("@"))
+            symbols.getIdentifierType(valueNode);
+
+        var value = expression(valueNode);
+        var reassign = symbols.isDeclaredInScope(node);
+        switch (value.type) {
+            case Ir.T_INT, Ir.T_BOOL, Ir.T_STRING -> {}
+            case Ir.T_TILE -> {
+                if (reassign || value.kind != Ir.TILE)
+                    throw new RuntimeException("Encountered invalid value type in assignment: " + Ir.typeName[value.type]);
+            }
+            default -> throw new RuntimeException("Encountered invalid value type in assignment: " + Ir.typeName[value.type]);
+        }
+        return new IrNode(reassign ? Ir.ASSIGN : Ir.DECLARE, value.type, ident, value);
+    }
+
+    protected IrNode function(Node node) {
+        var ident = node.jjtGetChild(0).jjtGetValue().toString();
+        var body = new IrNode(Ir.BLOCK, Ir.T_VOID, null);
+        Node bodyNode = node.jjtGetChild(2);
+        for (int i = 0; i < bodyNode.getNumChildren(); i++)
+            body.children.add(statement(bodyNode.jjtGetChild(i)));
+
+        Node retNode = node.jjtGetChild(3);
+        if (retNode.getId() == JJTIDENT) symbols.getIdentifierType(retNode);
+        var ret = expression(retNode);
+
+        return new IrNode(Ir.FUNC, ret.type, ident, body, ret);
+    }
+
+    protected IrNode output(Node node) {
+        var arg = node.jjtGetChild(0);
+        // Outputs need to know their argument's type, unlike other uses of identifiers and calls:
+        if (arg.getId() == JJTIDENT && !arg.jjtGetValue().toString().startsWith("@"))
+            symbols.getIdentifierType(arg);
+        if (arg.getId() == JJTFUNCCALL)
+            symbols.getFunctionReturnType(arg.jjtGetChild(0).jjtGetValue().toString());
+
+        var value = expression(arg);
+        return new IrNode(Ir.OUTPUT, value.type, null, value);
+    }
+
+    protected IrNode condition(Node node) {
+        var body = new IrNode(Ir.BLOCK, Ir.T_VOID, null);
+        var cond = new IrNode(Ir.IF, Ir.T_VOID, null, expression(node.jjtGetChild(0)), body);
+
+        for (int i = 1; i < node.getNumChildren(); i++) {
+            Node c = node.jjtGetChild(i);
+            if (c.getId() == JJTCONDELSE) {
+                var elseBody = new IrNode(Ir.BLOCK, Ir.T_VOID, null);
+                for (int j = 0; j < c.getNumChildren(); j++)
+                    elseBody.children.add(statement(c.jjtGetChild(j)));
+                cond.children.add(elseBody);
+            } else body.children.add(statement(c));
+        }
+        return cond;
+    }
+
+    protected IrNode expression(Node node) {
+        return switch (node.getId()) {
+            case JJTEXPR -> chain(node);
+            case JJTBOOLNOT -> new IrNode(Ir.NOT, Ir.T_BOOL, null, expression(node.jjtGetChild(0)));
+            case JJTINTEGER -> new IrNode(Ir.INT, Ir.T_INT, node.jjtGetValue());
+            case JJTBOOLEAN -> new IrNode(Ir.BOOL, Ir.T_BOOL, "true".equals(node.jjtGetValue()));
+            case JJTSTRING -> new IrNode(Ir.STRING, Ir.T_STRING, node.jjtGetValue().toString());
+            case JJTIDENT -> {
+                var ident = node.jjtGetValue().toString();
+                yield ident.startsWith("@")
+                        ? new IrNode(Ir.GLOBAL, Ir.typeOf(Util.getGriddyGlobalType.apply(ident)), ident)
+                        : new IrNode(Ir.VAR, Ir.typeOf(symbols.findIdentifierType(node)), ident);
+            }
+            case JJTFUNCCALL -> {
+                var ident = node.jjtGetChild(0).jjtGetValue().toString();
+                yield new IrNode(Ir.CALL, Ir.typeOf(symbols.findFunctionReturnType(ident)), ident);
+            }
+            case JJTTILE -> new IrNode(Ir.TILE, Ir.T_TILE, position(node.jjtGetChild(0)));
+            case JJTTILEEMPTY -> new IrNode(Ir.TILE_EMPTY, Ir.T_BOOL, position(node.jjtGetChild(0)));
+            case JJTGETPIECE -> new IrNode(Ir.GET_PIECE, Ir.T_UNKNOWN,
+                    node.jjtGetChild(0).jjtGetValue().toString(), expression(node.jjtGetChild(1)));
+            default -> throw new RuntimeException("Unexpected expression: " + jjtNodeName[node.getId()]);
+        };
+    }
+
+    /**
+     * Operands and operators of one precedence level, {@code a op b op c}. Logical chains mix
+     * {@code and} and {@code or}, so {@code or} operands are split into {@code and} chains first.
+     */
+    protected IrNode chain(Node node) {
+        var operands = new ArrayList<IrNode>();
+        var ops = new ArrayList<String>();
+        for (int i = 0; i < node.getNumChildren(); i++) {
+            Node c = node.jjtGetChild(i);
+            if (i % 2 == 1) ops.add(c.jjtGetValue().toString());
+            else operands.add(expression(c));
+        }
+
+        if (ops.contains("or") && ops.contains("and")) {
+            IrNode result = null, term = operands.get(0);
+            for (int i = 0; i < ops.size(); i++) {
+                if (ops.get(i).equals("and")) {
+                    term = binary("and", term, operands.get(i + 1));
+                } else {
+                    result = result == null ? term : binary("or", result, term);
+                    term = operands.get(i + 1);
+                }
+            }
+            return result == null ? term : binary("or", result, term);
+        }
+
+        IrNode result = operands.get(0);
+        for (int i = 0; i < ops.size(); i++)
+            result = binary(ops.get(i), result, operands.get(i + 1));
+        return result;
+    }
+
+    protected static IrNode binary(String op, IrNode left, IrNode right) {
+        int type = Ir.isComparison(op) || Ir.isLogical(op) ? Ir.T_BOOL : Ir.T_INT;
+        return new IrNode(Ir.BINARY, type, op, left, right);
+    }
+
+    protected static int[] position(Node pos) {
+        var x = pos.jjtGetChild(0).jjtGetValue();
+        var y = pos.jjtGetChild(1).jjtGetValue();
+        if (!(x instanceof Integer) || !(y instanceof Integer))
+            throw new RuntimeException("Positions must be numbers: (" + x + "," + y + ")");
+        return new int[]{(Integer) x, (Integer) y};
+    }
+}
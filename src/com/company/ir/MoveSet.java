@@ -0,0 +1,25 @@
+package com.company.ir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Movement patterns of a piece, as offsets {@code [dx, dy]} from player one's side of the board.
+ * Player two's pieces move with {@code dy} mirrored, as their start positions are.
+ * <ul>
+ *     <li>{@code step}: moves to a neighbouring tile</li>
+ *     <li>{@code jump}: moves by the offset, whatever is in between</li>
+ *     <li>{@code slide}: moves any number of times in the offset's direction, until it reaches
+ *     another piece, unless the piece {@code can_jump}</li>
+ * </ul>
+ * A piece can move to empty tiles, and to tiles of the other player's pieces if it can capture.
+ */
+public class MoveSet {
+    public final List<int[]> steps = new ArrayList<>();
+    public final List<int[]> jumps = new ArrayList<>();
+    public final List<int[]> slides = new ArrayList<>();
+
+    public boolean isEmpty() {
+        return steps.isEmpty() && jumps.isEmpty() && slides.isEmpty();
+    }
+}
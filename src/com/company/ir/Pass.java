@@ -0,0 +1,12 @@
+package com.company.ir;
+
+/**
+ * IR transformation, run by a {@link PassManager}.
+ */
+public interface Pass {
+    /**
+     * Transform a program in place.
+     * @param program {@link Ir#PROGRAM} node
+     */
+    void run(IrNode program);
+}
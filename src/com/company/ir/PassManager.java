@@ -0,0 +1,58 @@
+package com.company.ir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ordered list of passes which are run over a program between lowering and code generation.
+ */
+public class PassManager {
+    private final List<Pass> passes = new ArrayList<>();
+
+    /**
+     * Standard optimization pipeline. Folding runs first, so the later passes see constant
+     * conditions and the calls which are left after dead branches are removed. Tile reads are
+     * hoisted last, after operands have been ordered by the cost of reading the tiles directly,
+     * and cached win condition operands have been split off.
+     */
+    public static PassManager standard() {
+        return new PassManager()
+                .add(new ConstantFolding())
+                .add(new BooleanSimplification())
+                .add(new DeadBranchElimination())
+                .add(new UnusedFunctionRemoval())
+                .add(new ShortCircuitOrdering())
+                .add(new IncrementalWinCondition())
+                .add(new TileReadHoisting());
+    }
+
+    /**
+     * Standard pipeline without the passes which introduce C specific nodes, for backends which
+     * don't generate C.
+     */
+    public static PassManager portable() {
+        return new PassManager()
+                .add(new ConstantFolding())
+                .add(new BooleanSimplification())
+                .add(new DeadBranchElimination())
+                .add(new UnusedFunctionRemoval())
+                .add(new ShortCircuitOrdering());
+    }
+
+    public PassManager add(Pass pass) {
+        passes.add(pass);
+        return this;
+    }
+
+    public List<Pass> getPasses() {
+        return passes;
+    }
+
+    public void clear() {
+        passes.clear();
+    }
+
+    public void run(IrNode program) {
+        for (Pass pass : passes) pass.run(program);
+    }
+}
@@ -0,0 +1,27 @@
+package com.company.ir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Properties of a piece declaration. Properties which aren't declared are {@code null}, so the
+ * {@code @} preset defaults apply.
+ */
+public class PieceDecl {
+    public final String name;
+    public Integer limit;
+    public Boolean capture;
+    public Boolean placeable;
+    public Boolean canJump;
+    public final List<int[]> startPositions = new ArrayList<>();
+    public final MoveSet moveSet = new MoveSet();
+
+    public PieceDecl(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,60 @@
+package com.company.ir;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Moves cheap operands of pure {@code and}/{@code or} chains, like {@code empty?} checks and
+ * variables, to the front, so they can short-circuit the expensive ones.
+ * <br>
+ * Other operands keep the order they were written in, since how likely each one is to
+ * short-circuit the chain matters as much as its cost, and only the author knows that. Chains
+ * with a call are left as written, as reordering could change which calls are made.
+ */
+public class ShortCircuitOrdering implements Pass {
+    /** Highest cost of an operand which is moved to the front. */
+    public static final int CHEAP = 2;
+
+    @Override
+    public void run(IrNode program) {
+        program.transform(ShortCircuitOrdering::reorder);
+    }
+
+    protected static IrNode reorder(IrNode node) {
+        if (node.kind != Ir.BINARY || !Ir.isLogical((String) node.value) || !node.isPure()) return node;
+
+        var operands = new ArrayList<IrNode>();
+        flatten(node, (String) node.value, operands);
+        // Stable, so the order within both groups is kept:
+        operands.sort(Comparator.comparingInt(operand -> cost(operand) <= CHEAP ? 0 : 1));
+
+        IrNode result = operands.get(0);
+        for (int i = 1; i < operands.size(); i++)
+            result = new IrNode(Ir.BINARY, Ir.T_BOOL, node.value, result, operands.get(i));
+        return result;
+    }
+
+    protected static void flatten(IrNode node, String op, List<IrNode> operands) {
+        if (node.kind == Ir.BINARY && node.value.equals(op)) {
+            flatten(node.child(0), op, operands);
+            flatten(node.child(1), op, operands);
+        } else operands.add(node);
+    }
+
+    /**
+     * Estimated cost of evaluating an expression, roughly in memory reads. Tile comparisons read
+     * every piece mask, so they cost more than an emptiness check.
+     */
+    public static int cost(IrNode node) {
+        int cost = switch (node.kind) {
+            case Ir.INT, Ir.BOOL, Ir.STRING -> 0;
+            case Ir.TILE_EMPTY, Ir.TILE_REF, Ir.VAR, Ir.GLOBAL -> 1;
+            case Ir.TILE -> 4;
+            case Ir.CALL -> 100;
+            default -> 1;
+        };
+        for (IrNode c : node.children) cost += cost(c);
+        return cost;
+    }
+}
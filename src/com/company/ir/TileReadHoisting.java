@@ -0,0 +1,144 @@
+package com.company.ir;
+
+import java.util.*;
+
+/**
+ * Loads tiles which are read more than once into locals.
+ * <br>
+ * Only reads of the piece on a tile are hoisted. {@code empty?} checks and tile comparisons
+ * test single bits of the board masks, which the C compiler already keeps in registers. A block
+ * is split into segments at statements which can change the board, which are {@code place} and
+ * calls, and a tile read at least twice within a segment is loaded once at the start of it. A
+ * function's return expression and the game's win condition belong to the last segment of their
+ * body.
+ * <br>
+ * A tile is only loaded if one of its reads is always evaluated, i.e. isn't on the right of an
+ * {@code and} or {@code or}. Otherwise the load could read a tile short-circuiting would have
+ * skipped.
+ */
+public class TileReadHoisting implements Pass {
+    private int locals;
+    /** Function and game bodies, which are hoisted together with their trailing expression. */
+    private final Set<IrNode> bodies = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /** A hoistable read, with the node which has to be replaced. */
+    protected record Read(IrNode parent, int index, boolean always) {
+        IrNode node() {
+            return parent.child(index);
+        }
+    }
+
+    @Override
+    public void run(IrNode program) {
+        locals = 0;
+        bodies.clear();
+        visit(program);
+    }
+
+    protected void visit(IrNode node) {
+        if (node.kind == Ir.FUNC) bodies.add(node.child(0));
+        if (node.kind == Ir.GAME) bodies.add(node.child(1));
+
+        for (IrNode c : node.children) visit(c);
+
+        switch (node.kind) {
+            case Ir.FUNC -> hoist(node.child(0), node, 1);
+            case Ir.GAME -> hoist(node.child(1), node, 0);
+            case Ir.BLOCK -> {
+                if (!bodies.contains(node)) hoist(node, null, -1);
+            }
+            default -> {}
+        }
+    }
+
+    /**
+     * Hoist the reads of a block.
+     * @param block statements
+     * @param owner node with an expression evaluated after the block, or {@code null}
+     * @param index index of the trailing expression in {@code owner}
+     */
+    protected void hoist(IrNode block, IrNode owner, int index) {
+        var statements = block.children;
+        var loads = new ArrayList<Map.Entry<Integer, IrNode>>();
+        var reads = new LinkedHashMap<Long, List<Read>>();
+        int start = 0;
+
+        for (int i = 0; i < statements.size(); i++) {
+            var stmt = statements.get(i);
+            if (!hasOwnCall(stmt)) collectStatement(stmt, reads);
+            if (changesBoard(stmt)) {
+                flush(reads, start, loads);
+                start = i + 1;
+            }
+        }
+        if (owner != null && owner.child(index).isPure()) collect(owner, index, true, reads);
+        flush(reads, start, loads);
+
+        // Insert from the back, so earlier positions stay valid:
+        for (int i = loads.size() - 1; i >= 0; i--)
+            statements.add(loads.get(i).getKey(), loads.get(i).getValue());
+    }
+
+    private void flush(Map<Long, List<Read>> reads, int at, List<Map.Entry<Integer, IrNode>> loads) {
+        for (var entry : reads.entrySet()) {
+            var list = entry.getValue();
+            if (list.size() < 2 || list.stream().noneMatch(Read::always)) continue;
+
+            var pos = (int[]) list.get(0).node().value;
+            var ref = new int[]{pos[0], pos[1], locals++};
+            loads.add(Map.entry(at, new IrNode(Ir.TILE_LOAD, Ir.T_VOID, ref)));
+
+            for (Read read : list)
+                read.parent.children.set(read.index, new IrNode(Ir.TILE_REF, Ir.T_TILE, ref));
+        }
+        reads.clear();
+    }
+
+    /** Reads in a statement's own expressions, not in its nested blocks. */
+    protected void collectStatement(IrNode stmt, Map<Long, List<Read>> reads) {
+        switch (stmt.kind) {
+            case Ir.IF, Ir.DECLARE, Ir.ASSIGN, Ir.OUTPUT -> collect(stmt, 0, true, reads);
+            default -> {}
+        }
+    }
+
+    /**
+     * @param always whether the expression is evaluated whenever its statement is
+     */
+    protected void collect(IrNode parent, int index, boolean always, Map<Long, List<Read>> reads) {
+        var node = parent.child(index);
+        // Evaluated apart from the body:
+        if (node.kind == Ir.WIN_CACHE) return;
+        if (node.kind == Ir.TILE) {
+            add(new Read(parent, index, always), reads);
+            return;
+        }
+        // Compared by their masks:
+        if (node.kind == Ir.BINARY && (node.value.equals("==") || node.value.equals("!="))
+                && node.child(0).kind == Ir.TILE && node.child(1).kind == Ir.TILE)
+            return;
+        // The right operand of a logical operator may be short-circuited:
+        boolean logical = node.kind == Ir.BINARY && Ir.isLogical((String) node.value);
+        for (int i = 0; i < node.size(); i++) collect(node, i, always && !(logical && i == 1), reads);
+    }
+
+    private static void add(Read read, Map<Long, List<Read>> reads) {
+        var pos = (int[]) read.node().value;
+        reads.computeIfAbsent((long) pos[0] << 32 | pos[1], k -> new ArrayList<>()).add(read);
+    }
+
+    /** Whether a statement's own expression makes a call, which could change the board while it's evaluated. */
+    private static boolean hasOwnCall(IrNode stmt) {
+        return switch (stmt.kind) {
+            case Ir.IF, Ir.DECLARE, Ir.ASSIGN, Ir.OUTPUT, Ir.CALL_STMT -> !stmt.child(0).isPure();
+            default -> false;
+        };
+    }
+
+    protected static boolean changesBoard(IrNode node) {
+        if (node.kind == Ir.PLACE || node.kind == Ir.CALL) return true;
+        for (IrNode c : node.children)
+            if (changesBoard(c)) return true;
+        return false;
+    }
+}
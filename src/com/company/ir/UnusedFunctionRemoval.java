@@ -0,0 +1,28 @@
+package com.company.ir;
+
+import java.util.*;
+
+/**
+ * Removes functions which aren't called, directly or through other functions, from the game or
+ * from setup statements.
+ */
+public class UnusedFunctionRemoval implements Pass {
+    @Override
+    public void run(IrNode program) {
+        var functions = new HashMap<String, IrNode>();
+        var pending = new ArrayDeque<IrNode>();
+        for (IrNode n : program.children)
+            if (n.kind == Ir.FUNC) functions.put((String) n.value, n);
+            else pending.push(n);
+
+        var used = new HashSet<String>();
+        while (!pending.isEmpty()) {
+            var n = pending.pop();
+            if (n.kind == Ir.CALL && used.add((String) n.value) && functions.containsKey(n.value))
+                pending.push(functions.get(n.value));
+            for (IrNode c : n.children) pending.push(c);
+        }
+
+        program.children.removeIf(n -> n.kind == Ir.FUNC && !used.contains(n.value));
+    }
+}
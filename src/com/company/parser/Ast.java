@@ -0,0 +1,194 @@
+package com.company.parser;
+
+import java.util.*;
+
+/**
+ * Compact, read-only copy of a parsed tree, kept in primitive arrays instead of one object per
+ * node.
+ * <br>
+ * Nodes are stored breadth first, so the children of a node are next to each other: its first
+ * child is at {@link #firstChild}, and the next sibling of a node is the one after it. Values are
+ * stored inline, numbers as themselves and every other value as an id in {@link #strings}, where
+ * equal strings are interned once. Pieces don't store their property map, it's rebuilt from
+ * their {@code name: value} children when asked for.
+ * <br>
+ * {@link View}s serve the {@link Node} interface, so the symbol table and lowering read either
+ * kind of tree. Views are made on demand, and equal when they're views of the same node.
+ */
+public class Ast {
+    public final int size;
+    /** Node ids, {@link GriddyTreeConstants}, which all fit in a byte. */
+    public final byte[] kind;
+    public final int[] parent;
+    public final int[] firstChild;
+    public final int[] childCount;
+    /** Numbers of {@code Integer} nodes, and indices in {@link #strings} of other values, or -1. */
+    public final int[] value;
+    public final String[] strings;
+
+    private Ast(int size, byte[] kind, int[] parent, int[] firstChild, int[] childCount, int[] value, String[] strings) {
+        this.size = size;
+        this.kind = kind;
+        this.parent = parent;
+        this.firstChild = firstChild;
+        this.childCount = childCount;
+        this.value = value;
+        this.strings = strings;
+    }
+
+    /**
+     * Copy a tree, which can be dropped afterwards.
+     * @param root AST root
+     */
+    public static Ast of(Node root) {
+        int capacity = 64, size = 1;
+        var nodes = new Node[capacity];
+        var kind = new byte[capacity];
+        var parent = new int[capacity];
+        var firstChild = new int[capacity];
+        var childCount = new int[capacity];
+        var value = new int[capacity];
+        var ids = new HashMap<String, Integer>();
+        var strings = new ArrayList<String>();
+
+        nodes[0] = root;
+        parent[0] = -1;
+        // The arrays are the queue: each node's children are appended in one block when it's reached.
+        for (int i = 0; i < size; i++) {
+            var n = nodes[i];
+            nodes[i] = null;
+            kind[i] = (byte) n.getId();
+            value[i] = value(n, ids, strings);
+
+            int count = n.getNumChildren();
+            firstChild[i] = size;
+            childCount[i] = count;
+            if (size + count > capacity) {
+                capacity = Math.max(capacity * 2, size + count);
+                nodes = Arrays.copyOf(nodes, capacity);
+                kind = Arrays.copyOf(kind, capacity);
+                parent = Arrays.copyOf(parent, capacity);
+                firstChild = Arrays.copyOf(firstChild, capacity);
+                childCount = Arrays.copyOf(childCount, capacity);
+                value = Arrays.copyOf(value, capacity);
+            }
+            for (int c = 0; c < count; c++) {
+                nodes[size] = n.jjtGetChild(c);
+                parent[size++] = i;
+            }
+        }
+
+        return new Ast(size, Arrays.copyOf(kind, size), Arrays.copyOf(parent, size), Arrays.copyOf(firstChild, size),
+                Arrays.copyOf(childCount, size), Arrays.copyOf(value, size), strings.toArray(new String[0]));
+    }
+
+    private static int value(Node n, Map<String, Integer> ids, List<String> strings) {
+        var v = n.jjtGetValue();
+        if (n.getId() == GriddyTreeConstants.JJTINTEGER) return (Integer) v;
+        if (v == null || n.getId() == GriddyTreeConstants.JJTPIECE) return -1;
+        if (!(v instanceof String))
+            throw new RuntimeException("Unexpected value of " + GriddyTreeConstants.jjtNodeName[n.getId()] + " node: " + v);
+        return ids.computeIfAbsent((String) v, s -> {
+            strings.add(s);
+            return strings.size() - 1;
+        });
+    }
+
+    public View root() {
+        return new View(this, 0);
+    }
+
+    /** Value of a node, as the parser set it. */
+    public Object value(int i) {
+        return switch (kind[i]) {
+            case GriddyTreeConstants.JJTINTEGER -> value[i];
+            case GriddyTreeConstants.JJTPIECE -> {
+                // Name, then alternating property names and values:
+                var props = new LinkedHashMap<String, Node>();
+                for (int c = firstChild[i] + 1; c + 1 < firstChild[i] + childCount[i]; c += 2)
+                    props.put(strings[value[c]], new View(this, c + 1));
+                yield props;
+            }
+            default -> value[i] < 0 ? null : strings[value[i]];
+        };
+    }
+
+    /** Node of an {@link Ast}. Views are read only. */
+    public static final class View implements Node {
+        public final Ast ast;
+        public final int index;
+
+        public View(Ast ast, int index) {
+            this.ast = ast;
+            this.index = index;
+        }
+
+        public int getId() {
+            return ast.kind[index];
+        }
+
+        public Object jjtGetValue() {
+            return ast.value(index);
+        }
+
+        public Node getParent() {
+            return ast.parent[index] < 0 ? null : new View(ast, ast.parent[index]);
+        }
+
+        public int getNumChildren() {
+            return ast.childCount[index];
+        }
+
+        public Node jjtGetChild(int i) {
+            if (i < 0 || i >= ast.childCount[index])
+                throw new ArrayIndexOutOfBoundsException("Index " + i + " out of bounds for " + ast.childCount[index] + " children");
+            return new View(ast, ast.firstChild[index] + i);
+        }
+
+        /** Children, or {@code null} for a leaf, like {@link SimpleNode#getChildren()}. */
+        public Node[] getChildren() {
+            int count = ast.childCount[index];
+            if (count == 0) return null;
+            var children = new Node[count];
+            for (int i = 0; i < count; i++) children[i] = new View(ast, ast.firstChild[index] + i);
+            return children;
+        }
+
+        public void jjtOpen() {
+            throw new UnsupportedOperationException("AST views are read only.");
+        }
+
+        public void jjtClose() {
+            throw new UnsupportedOperationException("AST views are read only.");
+        }
+
+        public void jjtSetParent(Node n) {
+            throw new UnsupportedOperationException("AST views are read only.");
+        }
+
+        public void jjtAddChild(Node n, int i) {
+            throw new UnsupportedOperationException("AST views are read only.");
+        }
+
+        /** Visitors take JJTree's node classes, so views are lowered instead. */
+        public StringBuilder jjtAccept(GriddyVisitor visitor, StringBuilder data) {
+            throw new UnsupportedOperationException("AST views can't be visited, lower them with Visitor.generate instead.");
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof View v && v.ast == ast && v.index == index;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(ast) * 31 + index;
+        }
+
+        @Override
+        public String toString() {
+            var v = jjtGetValue();
+            return GriddyTreeConstants.jjtNodeName[getId()] + (v != null ? ": " + v : "");
+        }
+    }
+}